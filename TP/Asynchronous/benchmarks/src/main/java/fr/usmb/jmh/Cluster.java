@@ -0,0 +1,94 @@
+package fr.usmb.jmh;
+
+import fr.usmb.ExecutionMode;
+import fr.usmb.logging.LogLevel;
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+import fr.usmb.process.ProcessLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cluster of communicators in the benchmark JVM, with background threads playing the other processes.
+ */
+class Cluster {
+
+    /**
+     * Body run in loop by a background process until the cluster is stopped.
+     */
+    interface Loop {
+        void run(Communicator communicator) throws InterruptedException;
+    }
+
+    private final List<Communicator> communicators;
+    private final List<Thread> threads;
+
+    Cluster(int nbProcess, CommunicatorOptions options) {
+        this.communicators = new ArrayList<>();
+        this.threads = new ArrayList<>();
+        for (int i = 0; i < nbProcess; i++) {
+            this.communicators.add(new Communicator(silentLogger(), options));
+        }
+    }
+
+    Cluster(int nbProcess) {
+        this(nbProcess, CommunicatorOptions.defaults());
+    }
+
+    Communicator get(int index) {
+        return this.communicators.get(index);
+    }
+
+    int size() {
+        return this.communicators.size();
+    }
+
+    /**
+     * Runs a loop on the given process in a background thread.
+     */
+    void inBackground(int index, Loop loop) {
+        Communicator communicator = this.communicators.get(index);
+        Thread thread = ExecutionMode.current().newProcessThread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    loop.run(communicator);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "P" + communicator.getId());
+        thread.setDaemon(true);
+        this.threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Runs a loop on every process but the first one, which is driven by the benchmark thread.
+     */
+    void othersInBackground(Loop loop) {
+        for (int i = 1; i < this.communicators.size(); i++) {
+            this.inBackground(i, loop);
+        }
+    }
+
+    /**
+     * Interrupts the background processes and removes the whole cluster.
+     */
+    void stop() {
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+        for (Communicator communicator : this.communicators) {
+            communicator.leave();
+        }
+    }
+
+    /**
+     * @return A logger that discards every message, so that the console does not bias the measure.
+     * Errors are discarded too: they only come from the processes interrupted when the cluster stops.
+     */
+    static ProcessLogger silentLogger() {
+        return new ProcessLogger(null, LogLevel.OFF);
+    }
+}
@@ -0,0 +1,84 @@
+package fr.usmb.jmh;
+
+import fr.usmb.messages.DedicatedMessage;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.TokenMessage;
+import fr.usmb.token.Token;
+import fr.usmb.transport.BufferPool;
+import fr.usmb.transport.Codec;
+import fr.usmb.transport.MessageCodec;
+import fr.usmb.transport.SerializationCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a message through a codec: encode into a pooled direct buffer, decode, give the buffer
+ * back, as the NIO transport does for each frame. Compares the binary {@link MessageCodec} with Java
+ * serialization, on a dedicated message carrying a byte array and on a token. Run with
+ * {@code -prof gc} to check that the binary encoding allocates nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"binary", "serialization"})
+    public String codecName;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private Codec codec;
+    private BufferPool pool;
+    private Message<?> dedicated;
+    private Message<?> token;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.codec = "binary".equals(this.codecName) ? new MessageCodec() : new SerializationCodec();
+        this.pool = new BufferPool(4 << 10, 16);
+
+        DedicatedMessage<byte[]> message = new DedicatedMessage<>(new byte[this.payloadSize], 1, 2);
+        message.setTimestamp(123_456);
+        message.setCorrelationId((1L << 32) | 42);
+        this.dedicated = message;
+
+        Token ringToken = new Token();
+        ringToken.setHolder(2);
+        this.token = new TokenMessage<>(ringToken, 1);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeDedicated() throws IOException {
+        ByteBuffer buffer = this.pool.acquire();
+        this.codec.encode(this.dedicated, buffer);
+        this.pool.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public Object roundTripDedicated() throws IOException {
+        return this.roundTrip(this.dedicated);
+    }
+
+    @Benchmark
+    public Object roundTripToken() throws IOException {
+        return this.roundTrip(this.token);
+    }
+
+    private Object roundTrip(Message<?> message) throws IOException {
+        ByteBuffer buffer = this.pool.acquire();
+        try {
+            this.codec.encode(message, buffer);
+            return this.codec.decode(buffer.flip());
+        } finally {
+            this.pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fr.usmb.jmh;
+
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+import fr.usmb.token.MutexAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Critical-section rate of the first process while every process contends for the token. The payload
+ * size is that of a message broadcast from inside each critical section.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CriticalSectionBenchmark {
+
+    @Param({"3", "64"})
+    public int processes;
+
+    @Param({"0", "1024"})
+    public int payloadSize;
+
+    @Param({"TOKEN_RING", "SUZUKI_KASAMI"})
+    public MutexAlgorithm algorithm;
+
+    private Cluster cluster;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.cluster = new Cluster(this.processes, CommunicatorOptions.builder().mutexAlgorithm(this.algorithm).build());
+        this.payload = new byte[this.payloadSize];
+        this.cluster.othersInBackground(communicator -> {
+            communicator.requestSC();
+            this.criticalSection(communicator);
+            communicator.releaseSC();
+            while (!communicator.getMailBox().isEmpty()) communicator.getMailBox().getMessage();
+        });
+        this.cluster.get(0).initToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cluster.stop();
+    }
+
+    @Benchmark
+    public void requestAndRelease() throws InterruptedException {
+        this.cluster.get(0).requestSC();
+        this.criticalSection(this.cluster.get(0));
+        this.cluster.get(0).releaseSC();
+        while (!this.cluster.get(0).getMailBox().isEmpty()) this.cluster.get(0).getMailBox().getMessage();
+    }
+
+    private void criticalSection(Communicator communicator) {
+        if (this.payloadSize > 0) communicator.broadcast(this.payload);
+    }
+}
@@ -0,0 +1,50 @@
+package fr.usmb.jmh;
+
+import fr.usmb.process.LamportClock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention on a single {@link LamportClock} shared by the sending thread and the bus threads. Half
+ * of the threads tick the clock, as on the send path, and half merge received timestamps, as on the
+ * receive path. The number of threads plays the number of concurrent processes: change it with
+ * {@code -tg ticks,merges}. The clock does not depend on the payload size.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LamportClockBenchmark {
+
+    private LamportClock clock;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.clock = new LamportClock();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public long tick() {
+        return this.clock.tick();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public long merge() {
+        return this.clock.merge(this.clock.get() + ThreadLocalRandom.current().nextInt(-2, 3));
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public long tickAlone() {
+        return this.clock.tick();
+    }
+}
@@ -0,0 +1,51 @@
+package fr.usmb.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@code sendTo} and {@code broadcast} from one process, the other processes draining
+ * their mailbox in the background.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessagingBenchmark {
+
+    @Param({"3", "64"})
+    public int processes;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private Cluster cluster;
+    private byte[] payload;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.cluster = new Cluster(this.processes);
+        this.cluster.othersInBackground(communicator -> communicator.getMailBox().take());
+        this.payload = new byte[this.payloadSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cluster.stop();
+    }
+
+    @Benchmark
+    public void sendTo() {
+        this.next = this.next % (this.processes - 1) + 1;
+        this.cluster.get(0).sendTo(this.cluster.get(this.next).getId(), this.payload);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        this.cluster.get(0).broadcast(this.payload);
+    }
+}
@@ -0,0 +1,53 @@
+package fr.usmb.jmh;
+
+import fr.usmb.messages.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of {@code sendTo} followed by {@code receiveFromSync}: the first process pings
+ * the second one, which echoes every message back. The other processes are idle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiveBenchmark {
+
+    @Param({"3", "64"})
+    public int processes;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private Cluster cluster;
+    private byte[] payload;
+    private int pinger;
+    private int ponger;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.cluster = new Cluster(this.processes);
+        this.payload = new byte[this.payloadSize];
+        this.pinger = this.cluster.get(0).getId();
+        this.ponger = this.cluster.get(1).getId();
+        this.cluster.inBackground(1, communicator -> {
+            Message<Object> ping = communicator.receiveFromSync(this.pinger);
+            if (ping != null) communicator.sendTo(this.pinger, ping.getMessage());
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cluster.stop();
+    }
+
+    @Benchmark
+    public Message<Object> pingPong() {
+        this.cluster.get(0).sendTo(this.ponger, this.payload);
+        return this.cluster.get(0).receiveFromSync(this.ponger);
+    }
+}
@@ -0,0 +1,60 @@
+package fr.usmb.jmh;
+
+import fr.usmb.barrier.BarrierAlgorithm;
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@code synchronize()}: every process calls it back-to-back, the benchmark thread playing
+ * the first one. The payload size is that of a message broadcast by each process before the barrier,
+ * as in a bulk-synchronous step.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SynchronizeBenchmark {
+
+    @Param({"3", "64"})
+    public int processes;
+
+    @Param({"0", "1024"})
+    public int payloadSize;
+
+    @Param({"ALL_TO_ALL", "COORDINATOR", "DISSEMINATION"})
+    public BarrierAlgorithm algorithm;
+
+    private Cluster cluster;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.cluster = new Cluster(this.processes, CommunicatorOptions.builder().barrierAlgorithm(this.algorithm).build());
+        this.payload = new byte[this.payloadSize];
+        this.cluster.othersInBackground(communicator -> {
+            this.step(communicator);
+            while (!communicator.getMailBox().isEmpty()) communicator.getMailBox().getMessage();
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cluster.stop();
+    }
+
+    @Benchmark
+    public void synchronize() {
+        this.step(this.cluster.get(0));
+        while (!this.cluster.get(0).getMailBox().isEmpty()) this.cluster.get(0).getMailBox().getMessage();
+    }
+
+    private void step(Communicator communicator) {
+        if (this.payloadSize > 0) communicator.broadcast(this.payload);
+        communicator.synchronize();
+    }
+}
@@ -0,0 +1,65 @@
+package fr.usmb.jmh;
+
+import fr.usmb.messages.Message;
+import fr.usmb.process.BroadcastOrder;
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the total-order broadcast: one process broadcasts and waits until its own message is
+ * delivered to its mailbox, which takes an acknowledgement from every other process. The other
+ * processes drain their mailbox in the background or, when contended, do the same in a loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TotalOrderBenchmark {
+
+    @Param({"3", "8"})
+    public int processes;
+
+    @Param({"false", "true"})
+    public boolean contended;
+
+    private Cluster cluster;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CommunicatorOptions options = CommunicatorOptions.builder().broadcastOrder(BroadcastOrder.TOTAL).build();
+        this.cluster = new Cluster(this.processes, options);
+        if (this.contended) {
+            this.cluster.othersInBackground(TotalOrderBenchmark::roundTrip);
+        } else {
+            this.cluster.othersInBackground(communicator -> communicator.getMailBox().take());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cluster.stop();
+    }
+
+    @Benchmark
+    public Message<?> broadcastAndDeliver() throws InterruptedException {
+        return roundTrip(this.cluster.get(0));
+    }
+
+    /**
+     * Broadcasts a message and takes from the mailbox until it is delivered back.
+     */
+    private static Message<?> roundTrip(Communicator communicator) throws InterruptedException {
+        communicator.broadcast(communicator.getId());
+        // Les diffusions des autres peuvent passer avant la nôtre
+        Message<?> message;
+        do {
+            message = communicator.getMailBox().take();
+        } while (message.getSender() != communicator.getId());
+        return message;
+    }
+}
@@ -1,38 +1,132 @@
 package fr.usmb;
 
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
+import fr.usmb.metrics.MetricsRegistry;
+import fr.usmb.simulation.Simulation;
+import fr.usmb.transport.InMemoryTransport;
+import fr.usmb.transport.Lane;
+import fr.usmb.transport.NioTransport;
+import fr.usmb.transport.Transport;
+import lombok.Getter;
 
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 public class EventBusService {
 
     private static EventBusService instance = null;
 
-    private EventBus eventBus = null;
+    /**
+     * Carries the events, inside this JVM or between the nodes of the cluster.
+     */
+    @Getter
+    private final Transport transport;
 
-    private EventBusService() {
-        eventBus = new AsyncEventBus(Executors.newCachedThreadPool());
+    /**
+     * Counts the messages sent against their sender.
+     */
+    private final MetricsRegistry metrics;
+
+    private EventBusService(Transport transport) {
+        this.transport = transport;
+        this.metrics = MetricsRegistry.getInstance();
     }
 
-    public static EventBusService getInstance() {
-        if (instance == null) instance = new EventBusService();
+    /**
+     * Returns the service, creating it on first use with the transport of the {@link Simulation} in
+     * {@link ExecutionMode#SIMULATED} mode, the {@link NioTransport} if its system properties are set,
+     * or an {@link InMemoryTransport} otherwise.
+     *
+     * @return The event bus service of this JVM.
+     */
+    public static synchronized EventBusService getInstance() {
+        if (instance == null) instance = new EventBusService(defaultTransport());
         return instance;
     }
 
-    public void registerSubscriber(Object subscriber) {
-        eventBus.register(subscriber);
+    /**
+     * Creates the service with a given transport. Must be called before the first process is created.
+     *
+     * @param transport The transport carrying the events.
+     * @throws IllegalStateException If the service already exists.
+     */
+    public static synchronized void install(Transport transport) {
+        if (instance != null) throw new IllegalStateException("The event bus service is already started");
+        instance = new EventBusService(transport);
+    }
+
+    private static Transport defaultTransport() {
+        if (ExecutionMode.current() == ExecutionMode.SIMULATED) return Simulation.getInstance().getTransport();
+        try {
+            Transport transport = NioTransport.fromSystemProperties();
+            return transport != null ? transport : new InMemoryTransport();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start the NIO transport", e);
+        }
+    }
+
+    /**
+     * Registers a process under its id. The subscriber receives broadcasts and the events
+     * addressed to it with {@link #postTo(int, Object)}.
+     *
+     * @param id The id of the process.
+     * @param subscriber The object whose {@code @Subscribe} methods handle the events.
+     */
+    public void registerProcess(int id, Object subscriber) {
+        transport.register(id, subscriber);
     }
 
-    public void unRegisterSubscriber(Object subscriber) {
-        eventBus.unregister(subscriber);
+    /**
+     * Removes a process from the routing table and from the broadcasts.
+     *
+     * @param id The id of the process.
+     * @param subscriber The object that was registered for this id.
+     */
+    public void unRegisterProcess(int id, Object subscriber) {
+        transport.unregister(id, subscriber);
     }
 
+    /**
+     * Delivers an event to every process, the sender included.
+     *
+     * @param e The event to deliver.
+     */
     public void postEvent(Object e) {
-        try {
-            eventBus.post(e);
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+        metrics.onSent(e);
+        transport.broadcast(e);
+    }
+
+    /**
+     * Delivers an event to a single process. Only the subscriber registered under this id is
+     * dispatched, whatever the number of processes on the bus.
+     *
+     * @param id The id of the destination process.
+     * @param e The event to deliver.
+     */
+    public void postTo(int id, Object e) {
+        metrics.onSent(e);
+        transport.send(id, e);
+    }
+
+    /**
+     * Hands an event back to the transport of a process, to be dispatched again later. The event is not
+     * counted as sent a second time.
+     *
+     * @param id The id of the process which postponed the event.
+     * @param e The event to deliver again.
+     */
+    public void redeliver(int id, Object e) {
+        transport.send(id, e);
+    }
+
+    /**
+     * Returns the number of events of a lane waiting for a bus thread. Control events are dispatched
+     * before user events when the bus runs on a {@link fr.usmb.transport.LaneExecutor}; otherwise, nothing
+     * is queued and the depth is 0.
+     *
+     * @param lane The dispatch lane.
+     * @return The depth of its queue in this JVM.
+     */
+    public int getQueueDepth(Lane lane) {
+        return transport.getQueueDepth(lane);
     }
 }
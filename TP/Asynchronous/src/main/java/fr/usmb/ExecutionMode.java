@@ -0,0 +1,192 @@
+package fr.usmb;
+
+import fr.usmb.simulation.Simulation;
+import fr.usmb.transport.LaneExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How process bodies and bus deliveries are run. The mode is read once from the
+ * {@value #property} system property, e.g. {@code -Dfr.usmb.execution=VIRTUAL}.
+ */
+public enum ExecutionMode {
+
+    /**
+     * One platform thread per process, bus deliveries on an unbounded cached pool.
+     */
+    PLATFORM,
+
+    /**
+     * One virtual thread per process and per bus delivery. Blocking calls park the virtual thread
+     * and release its carrier, so tens of thousands of processes can run on one box.
+     */
+    VIRTUAL,
+
+    /**
+     * Processes on virtual threads, bus deliveries on a {@link LaneExecutor} with one shared worker per
+     * core, control traffic first.
+     */
+    BOUNDED,
+
+    /**
+     * Deterministic simulation: processes and bus deliveries on the threads of the {@link Simulation},
+     * run one at a time on a virtual clock by the thread which drives it. The bus uses the
+     * {@link fr.usmb.transport.Transport} of the simulation.
+     */
+    SIMULATED;
+
+    public static final String property = "fr.usmb.execution";
+
+    private static ExecutionMode current = null;
+
+    /**
+     * Thread of the periodic tasks outside of the simulation, created on first use.
+     */
+    private static ScheduledExecutorService timer = null;
+
+    /**
+     * @return The execution mode of this JVM, {@link #PLATFORM} if the property is not set.
+     */
+    public static synchronized ExecutionMode current() {
+        if (current == null) current = ExecutionMode.valueOf(System.getProperty(property, PLATFORM.name()).toUpperCase());
+        return current;
+    }
+
+    /**
+     * Creates the executor on which the bus dispatches the events. Its threads are daemon threads, so
+     * that the JVM exits as soon as the processes are stopped. Not used in {@link #SIMULATED} mode,
+     * where the simulation delivers the events itself.
+     *
+     * @return A new executor for the bus.
+     */
+    public ExecutorService newBusExecutor() {
+        switch (this) {
+            case VIRTUAL:
+                return Executors.newVirtualThreadPerTaskExecutor();
+            case BOUNDED:
+                return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), ExecutionMode::newDaemonThread);
+            case PLATFORM:
+            default:
+                return Executors.newCachedThreadPool(ExecutionMode::newDaemonThread);
+        }
+    }
+
+    /**
+     * Creates the bounded executor with one queue per lane on which the bus dispatches the events, if
+     * the mode uses one: always in {@link #BOUNDED} mode, and in the {@link #PLATFORM} and {@link #VIRTUAL}
+     * modes if the {@value LaneExecutor#workersProperty} system property is set. Never in
+     * {@link #SIMULATED} mode.
+     *
+     * @return A new lane executor for the bus, or null if the bus uses {@link #newBusExecutor()}.
+     */
+    public LaneExecutor newBusLanes() {
+        switch (this) {
+            case BOUNDED:
+                return LaneExecutor.fromSystemProperties(Runtime.getRuntime().availableProcessors(), ExecutionMode::newDaemonThread);
+            case VIRTUAL:
+                return LaneExecutor.fromSystemProperties(0, Thread.ofVirtual().factory());
+            case PLATFORM:
+                return LaneExecutor.fromSystemProperties(0, ExecutionMode::newDaemonThread);
+            case SIMULATED:
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates the thread running the body of a process, without starting it.
+     *
+     * @param body The body of the process.
+     * @param name The name of the process.
+     * @return A new unstarted thread.
+     */
+    public Thread newProcessThread(Runnable body, String name) {
+        switch (this) {
+            case PLATFORM:
+                Thread thread = new Thread(body);
+                thread.setName(name);
+                return thread;
+            case SIMULATED:
+                return Simulation.getInstance().newThread(body, name);
+            case VIRTUAL:
+            case BOUNDED:
+            default:
+                return Thread.ofVirtual().name(name).unstarted(body);
+        }
+    }
+
+    /**
+     * Waits for a duration. In {@link #SIMULATED} mode, the duration is in virtual time, and the thread
+     * driving the simulation runs it meanwhile.
+     *
+     * @param millis The duration, in milliseconds.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void sleep(long millis) throws InterruptedException {
+        if (this == SIMULATED) Simulation.getInstance().sleep(millis);
+        else Thread.sleep(millis);
+    }
+
+    /**
+     * @return The current time in nanoseconds, to measure durations: the virtual time in {@link #SIMULATED}
+     * mode, {@link System#nanoTime()} otherwise.
+     */
+    public long nanoTime() {
+        return this == SIMULATED ? Simulation.getInstance().now() : System.nanoTime();
+    }
+
+    /**
+     * Runs a task once after a delay. In {@link #SIMULATED} mode, the delay is in virtual time and the task
+     * runs on a new thread of the simulation; otherwise, the tasks of the JVM share a daemon thread and
+     * must be quick.
+     *
+     * @param task The task.
+     * @param delayMillis The delay, in milliseconds.
+     * @param name The name of the task, given to its thread in simulation.
+     * @return The future of the task, cancelled to drop it if it has not started yet.
+     */
+    public Future<?> schedule(Runnable task, long delayMillis, String name) {
+        if (this == SIMULATED) return Simulation.getInstance().schedule(TimeUnit.MILLISECONDS.toNanos(delayMillis), task, name);
+        return timer().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task periodically, a run never overlapping the previous one. In {@link #SIMULATED} mode, the
+     * period is in virtual time and each run is on a new thread of the simulation; otherwise, the tasks of
+     * the JVM share a daemon thread and must be quick.
+     *
+     * @param task The task.
+     * @param periodMillis The time between two runs, and before the first one, in milliseconds.
+     * @param name The name of the task, given to its threads in simulation.
+     * @return The future of the task, cancelled to stop the runs.
+     */
+    public Future<?> scheduleAtFixedRate(Runnable task, long periodMillis, String name) {
+        if (this == SIMULATED) return Simulation.getInstance().scheduleAtFixedRate(TimeUnit.MILLISECONDS.toNanos(periodMillis), task, name);
+        return timer().scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task -> {
+                Thread thread = new Thread(task, "timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Les délais annulés, presque tous, ne doivent pas s'accumuler dans la file
+            executor.setRemoveOnCancelPolicy(true);
+            timer = executor;
+        }
+        return timer;
+    }
+
+    private static Thread newDaemonThread(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
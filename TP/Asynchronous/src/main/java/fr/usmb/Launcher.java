@@ -1,33 +1,61 @@
 package fr.usmb;
 
-import fr.usmb.process.Communicator;
 import fr.usmb.process.Process;
+import fr.usmb.simulation.Simulation;
+import fr.usmb.transport.NioTransport;
+import fr.usmb.transport.Transport;
 
 import java.util.ArrayList;
 
 public class Launcher {
 
     private static final int runningTime = 5000;
-
+    private static final int stopTime = 2000;
+    private static final int defaultNbProcess = 3;
+
+    /**
+     * Usage: {@code Launcher [nbProcess]}
+     * <p>
+     * With {@code -Dfr.usmb.execution=SIMULATED}, the run takes place in virtual time, see {@link Simulation}.
+     */
     public static void main(String[] args) {
 
+        int nbProcess = args.length > 0 ? Integer.parseInt(args[0]) : defaultNbProcess;
+
         ArrayList<Process> processes = new ArrayList<Process>();
 
-        for (int i = 0; i < Communicator.maxNbProcess; i++) {
-            processes.add(new Process("P" + i));
+        for (int i = 0; i < nbProcess; i++) {
+            processes.add(new Process());
         }
 
-        // Get random process
-        processes.get(processes.size() - 1).getCommunicator().initToken();
+        // Un seul jeton pour tout le cluster : seul le nœud 0 le crée
+        Transport transport = EventBusService.getInstance().getTransport();
+        int node = transport instanceof NioTransport ? ((NioTransport) transport).getNode() : 0;
+        if (node == 0) processes.get(processes.size() - 1).getCommunicator().initToken();
 
+        long start = System.nanoTime();
         try {
-            Thread.sleep(runningTime);
+            ExecutionMode.current().sleep(runningTime);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        for (int i = 0; i < Communicator.maxNbProcess; i++) {
+        for (int i = 0; i < nbProcess; i++) {
             processes.get(i).stop();
         }
+
+        if (ExecutionMode.current() == ExecutionMode.SIMULATED) {
+            // Les processus n'avancent que si la simulation tourne : on leur laisse le temps de s'arrêter
+            try {
+                ExecutionMode.current().sleep(stopTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long stopped = processes.stream().filter(Process::isStopped).count();
+            Simulation simulation = Simulation.getInstance();
+            System.out.printf("Simulated %d ms in %d ms of real time: %d events, %d thread steps, seed %d, %d/%d processes stopped%n",
+                    simulation.now() / 1_000_000, (System.nanoTime() - start) / 1_000_000, simulation.getEventCount(),
+                    simulation.getStepCount(), simulation.getSeed(), stopped, nbProcess);
+        }
     }
 }
@@ -0,0 +1,29 @@
+package fr.usmb.barrier;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.SynchronizedMessage;
+import fr.usmb.process.ProcessLogger;
+
+/**
+ * Every process broadcasts its arrival and waits for the arrival of all the others.
+ */
+public class AllToAllBarrier extends Barrier {
+
+    public AllToAllBarrier(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        super(id, membership, bus, logger);
+    }
+
+    @Override
+    protected void run(long generation, View view) throws InterruptedException {
+        this.broadcast(generation, 0);
+        this.awaitMessages(generation, 0, view.size() - 1);
+    }
+
+    @Override
+    public void onMessage(SynchronizedMessage message) {
+        if (message.getSender() == this.id) return;
+        super.onMessage(message);
+    }
+}
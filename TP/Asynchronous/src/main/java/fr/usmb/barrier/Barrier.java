@@ -0,0 +1,213 @@
+package fr.usmb.barrier;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.SynchronizedMessage;
+import fr.usmb.process.ProcessLogger;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Base class of the barrier algorithms. Each call to {@link #await()} opens a new generation of the
+ * barrier, and every message carries its generation and round. Messages are counted per generation,
+ * so a process already in the next barrier cannot be mistaken for one still in the current one, and
+ * back-to-back barriers can overlap safely. The view of the cluster must not change during a barrier.
+ * <p>
+ * A generation is the rank of the barrier among those opened since the members of the view last
+ * changed, tagged with these members: a process which just joined agrees on it with the others, which
+ * start counting again when they see it in the view. The senders are counted once per round, and a
+ * barrier which fails is rolled back, so the next call goes through the same generation again.
+ */
+public abstract class Barrier {
+
+    protected final int id;
+    protected final MembershipService membership;
+    protected final EventBusService bus;
+    protected final ProcessLogger logger;
+
+    /**
+     * Members of the view of the last generation, and the number of generations opened in that view.
+     * Guarded by the lock.
+     */
+    private int[] generationMembers;
+    private int generationCount;
+
+    /**
+     * Senders of the messages received per generation and per round. Generations are removed once completed.
+     */
+    private final Map<Long, BitSet[]> received;
+    private final ReentrantLock lock;
+    private final Condition arrived;
+
+    protected Barrier(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        this.id = id;
+        this.membership = membership;
+        this.bus = bus;
+        this.logger = logger;
+        this.generationMembers = new int[0];
+        this.received = new HashMap<>();
+        this.lock = new ReentrantLock();
+        this.arrived = this.lock.newCondition();
+    }
+
+    /**
+     * Creates the barrier of a process.
+     *
+     * @param algorithm The algorithm to use.
+     * @param id The id of the process.
+     * @param membership The membership service giving the processes taking part in the barrier.
+     * @param bus The bus used to send the barrier messages.
+     * @param logger The logger of the process.
+     * @return The barrier of the process.
+     */
+    public static Barrier create(BarrierAlgorithm algorithm, int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        switch (algorithm) {
+            case ALL_TO_ALL:
+                return new AllToAllBarrier(id, membership, bus, logger);
+            case COORDINATOR:
+                return new CoordinatorBarrier(id, membership, bus, logger);
+            case DISSEMINATION:
+            default:
+                return new DisseminationBarrier(id, membership, bus, logger);
+        }
+    }
+
+    /**
+     * Blocks until every member of the current view has reached the same generation of the barrier.
+     * A process which is not a member of the view, for instance because it has left, does not wait.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void await() throws InterruptedException {
+        View view = this.membership.getView();
+        if (!view.contains(this.id)) return;
+        long current = this.open(view);
+        boolean passed = false;
+        try {
+            this.run(current, view);
+            passed = true;
+        } finally {
+            this.close(current, passed);
+        }
+    }
+
+    /**
+     * Handles a barrier message sent to the current process.
+     *
+     * @param message The barrier message received.
+     */
+    public void onMessage(SynchronizedMessage message) {
+        this.lock.lock();
+        try {
+            this.countersOf(message.getGeneration())[message.getRound()].set(message.getSender());
+            this.arrived.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs one generation of the barrier algorithm.
+     *
+     * @param generation The generation of the barrier.
+     * @param view The view of the cluster taking part in the barrier.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    protected abstract void run(long generation, View view) throws InterruptedException;
+
+    /**
+     * Waits until messages of a given generation and round have been received from a number of processes.
+     *
+     * @param generation The generation of the barrier.
+     * @param round The round within the generation.
+     * @param expected The number of senders to wait for.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    protected void awaitMessages(long generation, int round, int expected) throws InterruptedException {
+        this.lock.lock();
+        try {
+            BitSet senders = this.countersOf(generation)[round];
+            while (senders.cardinality() < expected) {
+                this.arrived.await();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a barrier message to a single process.
+     */
+    protected void send(int to, long generation, int round) {
+        this.bus.postTo(to, new SynchronizedMessage(this.id, generation, round));
+    }
+
+    /**
+     * Broadcasts a barrier message to all processes. The current process ignores its own message.
+     */
+    protected void broadcast(long generation, int round) {
+        this.bus.postEvent(new SynchronizedMessage(this.id, generation, round));
+    }
+
+    /**
+     * Opens the next generation of the barrier in a view, the first one if its members changed.
+     *
+     * @return The generation: the hash of the members, then the rank of the barrier in the view.
+     */
+    private long open(View view) {
+        this.lock.lock();
+        try {
+            int[] members = view.getMembers();
+            if (!Arrays.equals(members, this.generationMembers)) {
+                this.generationMembers = members;
+                this.generationCount = 0;
+            }
+            this.generationCount++;
+            return this.generationOf(this.generationCount);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a generation once passed. A generation which failed is rolled back instead, with the
+     * messages already received, so that the next call goes through it again.
+     */
+    private void close(long generation, boolean passed) {
+        this.lock.lock();
+        try {
+            if (passed) {
+                this.received.remove(generation);
+            } else if (this.generationOf(this.generationCount) == generation) {
+                // Les autres attendent encore nos messages de cette génération
+                this.generationCount--;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private long generationOf(int count) {
+        return ((long) Arrays.hashCode(this.generationMembers) << 32) | (count & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the senders of a generation per round, creating them on first use. Must be called with the lock held.
+     */
+    private BitSet[] countersOf(long generation) {
+        return this.received.computeIfAbsent(generation, g -> {
+            BitSet[] rounds = new BitSet[Integer.SIZE];
+            for (int i = 0; i < rounds.length; i++) rounds[i] = new BitSet();
+            return rounds;
+        });
+    }
+}
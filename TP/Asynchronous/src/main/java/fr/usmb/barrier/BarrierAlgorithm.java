@@ -0,0 +1,24 @@
+package fr.usmb.barrier;
+
+/**
+ * The barrier algorithms a {@link fr.usmb.process.Communicator} can use behind {@code synchronize()}.
+ */
+public enum BarrierAlgorithm {
+
+    /**
+     * Every process broadcasts its arrival and waits for all the others: one round, N² messages.
+     */
+    ALL_TO_ALL,
+
+    /**
+     * Every process notifies a coordinator, which releases everyone once all have arrived:
+     * two rounds, 2(N - 1) messages.
+     */
+    COORDINATOR,
+
+    /**
+     * Dissemination barrier: in round r, each process notifies the process 2^r positions further
+     * in the view and waits for the one 2^r positions before. ⌈log2 N⌉ rounds, N⌈log2 N⌉ messages.
+     */
+    DISSEMINATION
+}
@@ -0,0 +1,36 @@
+package fr.usmb.barrier;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.process.ProcessLogger;
+
+/**
+ * The member with the smallest id coordinates the barrier: it waits for the arrival of every other
+ * member (round 0), then releases them all (round 1).
+ */
+public class CoordinatorBarrier extends Barrier {
+
+    private static final int arrival = 0;
+    private static final int release = 1;
+
+    public CoordinatorBarrier(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        super(id, membership, bus, logger);
+    }
+
+    @Override
+    protected void run(long generation, View view) throws InterruptedException {
+        int coordinator = view.memberAt(0);
+
+        if (coordinator != this.id) {
+            this.send(coordinator, generation, arrival);
+            this.awaitMessages(generation, release, 1);
+            return;
+        }
+
+        this.awaitMessages(generation, arrival, view.size() - 1);
+        for (int i = 1; i < view.size(); i++) {
+            this.send(view.memberAt(i), generation, release);
+        }
+    }
+}
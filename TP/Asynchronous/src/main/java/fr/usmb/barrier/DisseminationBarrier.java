@@ -0,0 +1,30 @@
+package fr.usmb.barrier;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.process.ProcessLogger;
+
+/**
+ * Dissemination barrier. In round r, the member at position i in the view notifies the member at
+ * position (i + 2^r) mod N and waits for the notification of the member at position (i - 2^r) mod N.
+ * After ⌈log2 N⌉ rounds, every member knows, directly or transitively, that all the others have arrived.
+ */
+public class DisseminationBarrier extends Barrier {
+
+    public DisseminationBarrier(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        super(id, membership, bus, logger);
+    }
+
+    @Override
+    protected void run(long generation, View view) throws InterruptedException {
+        int size = view.size();
+        int index = view.indexOf(this.id);
+
+        int round = 0;
+        for (int distance = 1; distance < size; distance <<= 1, round++) {
+            this.send(view.memberAt((index + distance) % size), generation, round);
+            this.awaitMessages(generation, round, 1);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package fr.usmb.benchmark;
+
+import fr.usmb.ExecutionMode;
+import fr.usmb.barrier.BarrierAlgorithm;
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the latency of {@link Communicator#synchronize()} for every barrier algorithm. For each
+ * cluster size, every process calls {@code synchronize()} back-to-back a fixed number of times and the
+ * average time per barrier is reported. {@link BarrierAlgorithm#ALL_TO_ALL} reproduces the message
+ * pattern of the former shared-list barrier, with N² messages per barrier.
+ * <p>
+ * Usage: {@code BarrierBenchmark [nbProcess...]}, 3, 64 and 1024 processes by default.
+ */
+public class BarrierBenchmark {
+
+    private static final int[] defaultSizes = {3, 64, 1024};
+    private static final int warmup = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int[] sizes = defaultSizes;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int nbProcess : sizes) {
+            for (BarrierAlgorithm algorithm : BarrierAlgorithm.values()) {
+                int barriers = Math.max(5, 2000 / nbProcess);
+                double latency = run(algorithm, nbProcess, barriers);
+                System.out.printf("%-13s %5d processes: %10.1f us per barrier (%d barriers)%n",
+                        algorithm, nbProcess, latency, barriers);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs {@code warmup + barriers} back-to-back barriers on a new cluster, then removes it.
+     *
+     * @return The average latency of the measured barriers, in microseconds.
+     */
+    private static double run(BarrierAlgorithm algorithm, int nbProcess, int barriers) throws InterruptedException {
+        CommunicatorOptions options = CommunicatorOptions.builder().barrierAlgorithm(algorithm).build();
+        List<Communicator> communicators = new ArrayList<>();
+        for (int i = 0; i < nbProcess; i++) {
+            communicators.add(new Communicator(Benchmarks.silentLogger(), options));
+        }
+
+        CountDownLatch warmedUp = new CountDownLatch(nbProcess);
+        CountDownLatch done = new CountDownLatch(nbProcess);
+
+        for (Communicator communicator : communicators) {
+            ExecutionMode.current().newProcessThread(() -> {
+                for (int i = 0; i < warmup; i++) communicator.synchronize();
+                warmedUp.countDown();
+                for (int i = 0; i < barriers; i++) communicator.synchronize();
+                done.countDown();
+            }, "P" + communicator.getId()).start();
+        }
+
+        warmedUp.await();
+        long start = System.nanoTime();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        for (Communicator communicator : communicators) {
+            communicator.leave();
+        }
+        return elapsed / 1e3 / barriers;
+    }
+}
@@ -0,0 +1,20 @@
+package fr.usmb.benchmark;
+
+import fr.usmb.logging.LogLevel;
+import fr.usmb.process.ProcessLogger;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @return A logger that discards every message, so that the console does not bias the measure.
+     */
+    static ProcessLogger silentLogger() {
+        return new ProcessLogger(null, LogLevel.OFF);
+    }
+}
@@ -0,0 +1,91 @@
+package fr.usmb.benchmark;
+
+import fr.usmb.EventBusService;
+import fr.usmb.ExecutionMode;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.process.Communicator;
+import fr.usmb.transport.NioTransport;
+import fr.usmb.transport.Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the barrier and the token ring on a cluster spread over several JVMs. Each JVM is one node of
+ * the {@link NioTransport} and hosts the same number of processes; the measures start once every
+ * process of every node is in the view. Without the transport properties, the cluster is a single node.
+ * <p>
+ * Usage, one JVM per node:
+ * {@code java -Dfr.usmb.transport.nodes=localhost:7000,localhost:7001 -Dfr.usmb.transport.node=0 ClusterBenchmark [nbProcess] [durationSeconds] [barriers]}
+ */
+public class ClusterBenchmark {
+
+    private static final int defaultNbProcess = 3;
+    private static final int defaultDuration = 5;
+    private static final int defaultBarriers = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int nbProcess = args.length > 0 ? Integer.parseInt(args[0]) : defaultNbProcess;
+        int duration = args.length > 1 ? Integer.parseInt(args[1]) : defaultDuration;
+        int barriers = args.length > 2 ? Integer.parseInt(args[2]) : defaultBarriers;
+
+        Transport transport = EventBusService.getInstance().getTransport();
+        int nodes = transport instanceof NioTransport ? ((NioTransport) transport).getNodeCount() : 1;
+        int node = transport instanceof NioTransport ? ((NioTransport) transport).getNode() : 0;
+
+        List<Communicator> communicators = new ArrayList<>();
+        for (int i = 0; i < nbProcess; i++) {
+            communicators.add(new Communicator(Benchmarks.silentLogger()));
+        }
+
+        MembershipService membership = MembershipService.getInstance();
+        while (membership.getView().size() < nodes * nbProcess) {
+            Thread.sleep(50);
+        }
+        System.out.printf("Node %d: %d processes in the view%n", node, membership.getView().size());
+
+        CountDownLatch barriersDone = new CountDownLatch(nbProcess);
+        CountDownLatch done = new CountDownLatch(nbProcess);
+        LongAdder acquisitions = new LongAdder();
+        long[] barrierTime = new long[1];
+
+        for (Communicator communicator : communicators) {
+            ExecutionMode.current().newProcessThread(() -> {
+                communicator.synchronize();
+                long start = System.nanoTime();
+                for (int i = 0; i < barriers; i++) communicator.synchronize();
+                if (communicator == communicators.get(0)) barrierTime[0] = System.nanoTime() - start;
+                barriersDone.countDown();
+
+                if (communicator.getId() == membership.getView().memberAt(0)) communicator.initToken();
+                long deadline = System.nanoTime() + duration * 1_000_000_000L;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        communicator.requestSC();
+                        acquisitions.increment();
+                        communicator.releaseSC();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                communicator.synchronize();
+                done.countDown();
+            }, "P" + communicator.getId()).start();
+        }
+
+        barriersDone.await();
+        System.out.printf("Node %d: %.1f us per barrier (%d barriers, %d processes)%n",
+                node, barrierTime[0] / 1e3 / barriers, barriers, nodes * nbProcess);
+
+        done.await();
+        System.out.printf("Node %d: %d acquisitions in %d s, %.0f acquisitions/s on this node%n",
+                node, acquisitions.sum(), duration, acquisitions.sum() / (double) duration);
+
+        // Laisse partir les dernières trames avant de quitter
+        Thread.sleep(500);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,103 @@
+package fr.usmb.benchmark;
+
+import fr.usmb.EventBusService;
+import fr.usmb.ExecutionMode;
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+import fr.usmb.process.OverflowPolicy;
+import fr.usmb.token.MutexAlgorithm;
+import fr.usmb.transport.InMemoryTransport;
+import fr.usmb.transport.Lane;
+import fr.usmb.transport.LaneExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the number of critical-section acquisitions per second of a mutual exclusion algorithm.
+ * Every process loops on {@link Communicator#requestSC()} / {@link Communicator#releaseSC()} during
+ * the measured time, without any logging.
+ * <p>
+ * With {@code flood}, each process also broadcasts user messages as fast as it can on another thread,
+ * into mailboxes dropping their oldest messages, to measure how much the user traffic slows down the
+ * token. Run it in {@code BOUNDED} mode to compare with and without lanes ({@code -Dfr.usmb.bus.workers=0}).
+ * <p>
+ * Usage: {@code TokenRingBenchmark [durationSeconds] [TOKEN_RING|SUZUKI_KASAMI] [nbProcess] [flood]}
+ */
+public class TokenRingBenchmark {
+
+    private static final int defaultDuration = 5;
+    private static final int defaultNbProcess = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int duration = args.length > 0 ? Integer.parseInt(args[0]) : defaultDuration;
+        MutexAlgorithm algorithm = args.length > 1 ? MutexAlgorithm.valueOf(args[1]) : MutexAlgorithm.TOKEN_RING;
+        int nbProcess = args.length > 2 ? Integer.parseInt(args[2]) : defaultNbProcess;
+        boolean flood = args.length > 3 && args[3].equals("flood");
+
+        List<Communicator> communicators = new ArrayList<>();
+        for (int i = 0; i < nbProcess; i++) {
+            CommunicatorOptions.CommunicatorOptionsBuilder options = CommunicatorOptions.builder().mutexAlgorithm(algorithm);
+            if (flood) options.mailBoxCapacity(1024).overflowPolicy(OverflowPolicy.DROP_OLDEST);
+            communicators.add(new Communicator(Benchmarks.silentLogger(), options.build()));
+        }
+
+        LongAdder acquisitions = new LongAdder();
+        List<Thread> workers = new ArrayList<>();
+        for (Communicator communicator : communicators) {
+            Thread worker = ExecutionMode.current().newProcessThread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        communicator.requestSC();
+                        acquisitions.increment();
+                        communicator.releaseSC();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "P" + communicator.getId());
+            workers.add(worker);
+            worker.start();
+
+            if (!flood) continue;
+            Thread flooder = ExecutionMode.current().newProcessThread(() -> {
+                long n = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    communicator.broadcast(n++);
+                }
+            }, "P" + communicator.getId() + "-flood");
+            workers.add(flooder);
+            flooder.start();
+        }
+
+        communicators.get(0).initToken();
+
+        // Warm-up
+        Thread.sleep(1000);
+
+        long start = System.nanoTime();
+        long before = acquisitions.sum();
+        Thread.sleep(duration * 1000L);
+        long count = acquisitions.sum() - before;
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s with %d processes%s: %d acquisitions in %.2f s, %.0f acquisitions/s%n",
+                algorithm, nbProcess, flood ? " under a flood of broadcasts" : "", count, seconds, count / seconds);
+        LaneExecutor lanes = EventBusService.getInstance().getTransport() instanceof InMemoryTransport
+                ? ((InMemoryTransport) EventBusService.getInstance().getTransport()).getLanes() : null;
+        if (lanes != null) {
+            for (Lane lane : Lane.values()) {
+                System.out.printf("  %s lane: %d dispatched, peak depth %d, %d inlined%n",
+                        lane, lanes.getExecuted(lane), lanes.getPeakQueueDepth(lane), lanes.getInlined(lane));
+            }
+            System.out.printf("  %d data tasks taken by the starvation guard%n", lanes.getGuarded());
+        }
+
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        System.exit(0);
+    }
+}
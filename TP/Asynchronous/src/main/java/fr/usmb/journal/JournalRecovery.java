@@ -0,0 +1,51 @@
+package fr.usmb.journal;
+
+import fr.usmb.messages.Message;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * What a {@link ProcessJournal} read from a previous run of its process when it was opened.
+ */
+@Getter
+@AllArgsConstructor
+public class JournalRecovery {
+
+    /**
+     * Messages left in the mailbox, in their order of arrival.
+     */
+    private final List<Message<?>> messages;
+
+    /**
+     * Sequence numbers of the {@link #messages} in the journal.
+     */
+    private final long[] sequences;
+
+    /**
+     * Value from which the Lamport clock must restart: no value above it was handed out.
+     */
+    private final long clock;
+
+    /**
+     * True if the process held the token when it stopped: it was received and not sent again.
+     */
+    private final boolean tokenHeld;
+
+    /**
+     * The process the token came from if it was held, otherwise the process it was sent to; -1 if the
+     * token never went through the process.
+     */
+    private final int tokenPeer;
+
+    private final int segmentsRead;
+    private final int recordsRead;
+
+    /**
+     * @return True if nothing was read, the journal is new.
+     */
+    public boolean isEmpty() {
+        return this.recordsRead == 0;
+    }
+}
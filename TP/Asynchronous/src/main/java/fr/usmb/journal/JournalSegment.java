@@ -0,0 +1,175 @@
+package fr.usmb.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A file of the journal, mapped in memory at its full size. Records are written straight into the
+ * mapping: once written, they are in the page cache of the system and survive the end of the JVM.
+ * <p>
+ * Each record is {@code [int length][int crc][byte kind][body]}, where the length counts the kind and
+ * the body and the CRC-32C covers them. The length is written last, and the mapping of a new file is
+ * filled with zeros, so a reader stops at the first record of length 0, or whose checksum is wrong,
+ * whatever the point at which the writer stopped.
+ */
+final class JournalSegment {
+
+    static final int headerSize = 8;
+
+    private static final String prefix = "segment-";
+    private static final String suffix = ".journal";
+
+    private final int index;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Second view of the mapping, to compute the checksums without moving the position of {@link #buffer}.
+     */
+    private final MappedByteBuffer view;
+    private final CRC32C crc;
+
+    /**
+     * Highest sequence number of the messages delivered in this segment, -1 if none.
+     */
+    private long maxSequence;
+
+    private JournalSegment(int index, Path path, MappedByteBuffer buffer) {
+        this.index = index;
+        this.path = path;
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.crc = new CRC32C();
+        this.maxSequence = -1;
+    }
+
+    /**
+     * Creates and maps a new segment.
+     *
+     * @param directory The directory of the journal.
+     * @param index The index of the segment, which orders the segments.
+     * @param size The size of the file, in bytes.
+     */
+    static JournalSegment create(Path directory, int index, int size) throws IOException {
+        Path path = directory.resolve(fileName(index));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // La projection reste valide après la fermeture du canal
+            return new JournalSegment(index, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Maps an existing segment to read it, positioned on its first record.
+     */
+    static JournalSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new JournalSegment(indexOf(path), path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+    }
+
+    static String fileName(int index) {
+        return String.format("%s%010d%s", prefix, index, suffix);
+    }
+
+    /**
+     * @return The index of a segment file, or -1 if the file is not a segment.
+     */
+    static int indexOf(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int index() {
+        return this.index;
+    }
+
+    long maxSequence() {
+        return this.maxSequence;
+    }
+
+    void delivered(long sequence) {
+        if (sequence > this.maxSequence) this.maxSequence = sequence;
+    }
+
+    /**
+     * Starts a record at the current position, leaving room for its header.
+     *
+     * @return The buffer, positioned where the body is written, or null if less than {@code minBody}
+     * bytes are left in the segment.
+     */
+    MappedByteBuffer begin(byte kind, int minBody) {
+        if (this.buffer.remaining() < headerSize + 1 + minBody) return null;
+        int start = this.buffer.position();
+        this.buffer.position(start + headerSize);
+        this.buffer.put(kind);
+        return this.buffer;
+    }
+
+    /**
+     * Completes the record started at a position, once its body is written.
+     */
+    void commit(int start) {
+        int end = this.buffer.position();
+        this.view.limit(end).position(start + headerSize);
+        this.crc.reset();
+        this.crc.update(this.view);
+        this.buffer.putInt(start + 4, (int) this.crc.getValue());
+        this.buffer.putInt(start, end - start - headerSize);
+    }
+
+    /**
+     * Abandons the record started at a position, which did not fit in the segment.
+     */
+    void rollback(int start) {
+        // Les octets écrits sont remis à zéro pour que la lecture s'arrête ici
+        for (int i = start; i < this.buffer.position() && i < this.buffer.limit(); i++) this.buffer.put(i, (byte) 0);
+        this.buffer.position(start);
+    }
+
+    int position() {
+        return this.buffer.position();
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return A view of the record, positioned on its kind and limited to its end, or null at the end
+     * of the segment, that is after the last complete record.
+     */
+    MappedByteBuffer next() {
+        int start = this.buffer.position();
+        if (this.buffer.limit() - start < headerSize + 1) return null;
+        int length = this.buffer.getInt(start);
+        int checksum = this.buffer.getInt(start + 4);
+        if (length <= 0 || length > this.buffer.limit() - start - headerSize) return null;
+
+        this.view.limit(start + headerSize + length).position(start + headerSize);
+        this.crc.reset();
+        this.crc.update(this.view);
+        if ((int) this.crc.getValue() != checksum) return null;
+
+        this.buffer.position(start + headerSize + length);
+        return this.view.limit(start + headerSize + length).position(start + headerSize);
+    }
+
+    /**
+     * Writes the dirty pages of the segment to the disk.
+     */
+    void force() {
+        this.buffer.force();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(this.path);
+    }
+}
@@ -0,0 +1,501 @@
+package fr.usmb.journal;
+
+import fr.usmb.messages.Message;
+import fr.usmb.transport.Codec;
+import fr.usmb.transport.MessageCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Journal of a process, from which its mailbox, its Lamport clock and the position of the token are
+ * rebuilt after a crash. The journal is a directory of {@link JournalSegment}s, memory-mapped files
+ * written in sequence: every message delivered to the mailbox is encoded by the {@link MessageCodec}
+ * straight into the mapping, with the sequence number it keeps in the mailbox, and every message
+ * leaving it is recorded as consumed. The clock is saved by reserving blocks of values ahead, and the
+ * token by its arrivals and departures.
+ * <p>
+ * Appending a record copies nothing and makes no system call: the record is in the page cache as soon
+ * as it is written, so it survives the end of the JVM. Surviving a crash of the machine needs the pages
+ * to be written to the disk; with a sync interval, a background thread does it for all the records
+ * appended meanwhile at once.
+ * <p>
+ * The same thread takes the slow file operations off the writers, which hold the lock of the mailbox:
+ * a full segment is written to the disk and the consumed segments are deleted there, and the next
+ * segment is created ahead, so that starting a segment only writes its first record.
+ * <p>
+ * Each segment starts with the state of the process at that point, so the segments holding only
+ * consumed messages are deleted as new segments are started.
+ */
+public class ProcessJournal {
+
+    private static final byte STATE = 1;
+    private static final byte DELIVERED = 2;
+    private static final byte CONSUMED = 3;
+    private static final byte CHECKPOINT = 4;
+    private static final byte CLOCK = 5;
+    private static final byte TOKEN_RECEIVED = 6;
+    private static final byte TOKEN_SENT = 7;
+
+    private static final int stateSize = 8 + 8 + 8 + 1 + 4;
+
+    /**
+     * Number of clock values reserved at once.
+     */
+    private static final long clockBlock = 1024;
+
+    private static ScheduledExecutorService syncExecutor = null;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Codec codec;
+    private final ReentrantLock lock;
+
+    /**
+     * Live segments, the oldest first. The last one is written.
+     */
+    private final ArrayDeque<JournalSegment> segments;
+    private JournalSegment current;
+
+    /**
+     * Next segment, created ahead by the sync thread, or null if it is not ready.
+     */
+    private JournalSegment spare;
+
+    /**
+     * Index of the next segment being created ahead.
+     */
+    private int spareIndex;
+
+    /**
+     * Position in the current segment of the record being written.
+     */
+    private int recordStart;
+
+    private final JournalRecovery recovery;
+    private final ScheduledFuture<?> syncTask;
+
+    private long nextSequence;
+    private long lowWatermark;
+    private long clockReserved;
+    private boolean tokenHeld;
+    private int tokenPeer;
+
+    /**
+     * Opens the journal of a process, reading what a previous run left in it.
+     *
+     * @param directory The directory of the journal, created if needed. It must not be shared with
+     *                  another process.
+     * @param segmentSize The size of each segment file, in bytes. A message must fit in a segment.
+     * @param syncIntervalMillis The interval between two writes of the journal to the disk, 0 to leave
+     *                           it to the system.
+     * @throws IOException If the directory or a segment cannot be opened.
+     */
+    public ProcessJournal(Path directory, int segmentSize, long syncIntervalMillis) throws IOException {
+        if (segmentSize < 4096) throw new IllegalArgumentException("Segments must be 4 KiB at least: " + segmentSize);
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.codec = new MessageCodec();
+        this.lock = new ReentrantLock();
+        this.segments = new ArrayDeque<>();
+        this.tokenPeer = -1;
+
+        this.recovery = this.recover();
+
+        // Les segments lus ne sont plus écrits : la suite commence toujours dans un nouveau segment
+        int index = this.segments.isEmpty() ? 0 : this.segments.peekLast().index() + 1;
+        this.lock.lock();
+        try {
+            this.startSegment(this.createSegment(index));
+            this.spareIndex = index + 1;
+        } finally {
+            this.lock.unlock();
+        }
+        syncExecutor().execute(() -> this.prepare(null, List.of(), index + 1));
+
+        this.syncTask = syncIntervalMillis > 0
+                ? syncExecutor().scheduleAtFixedRate(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * @return What was read from the journal when it was opened.
+     */
+    public JournalRecovery getRecovery() {
+        return this.recovery;
+    }
+
+    /**
+     * Records a message delivered to the mailbox. Called by the mailbox, with its lock held, so that the
+     * journal follows its order.
+     *
+     * @param message The message delivered.
+     * @return The sequence number of the message, to give back to {@link #removed(long, long)}.
+     * @throws IllegalArgumentException If the message is larger than a segment.
+     * @throws UncheckedIOException If the message cannot be encoded or a new segment cannot be created.
+     */
+    public long delivered(Message<?> message) {
+        this.lock.lock();
+        try {
+            long sequence = this.nextSequence;
+            for (int attempt = 0; ; attempt++) {
+                MappedByteBuffer out = this.begin(DELIVERED, 8);
+                try {
+                    out.putLong(sequence);
+                    this.codec.encode(message, out);
+                    break;
+                } catch (BufferOverflowException e) {
+                    this.current.rollback(this.recordStart);
+                    if (attempt > 0) throw new IllegalArgumentException("The message does not fit in a journal segment: " + message.getMessage());
+                    this.roll();
+                } catch (IOException e) {
+                    this.current.rollback(this.recordStart);
+                    throw new UncheckedIOException("Cannot journal the message " + message.getMessage(), e);
+                }
+            }
+            this.commit();
+            this.current.delivered(sequence);
+            this.nextSequence++;
+            return sequence;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Records a message leaving the mailbox, taken or dropped. Called by the mailbox, with its lock held.
+     * The removal of the oldest message, the common case, is recorded as a checkpoint: the sequence
+     * number below which every message is consumed.
+     *
+     * @param sequence The sequence number of the message.
+     * @param oldest The sequence number of the oldest message left in the mailbox, -1 if it is empty.
+     */
+    public void removed(long sequence, long oldest) {
+        this.lock.lock();
+        try {
+            long watermark = oldest >= 0 ? oldest : this.nextSequence;
+            if (sequence < watermark && watermark > this.lowWatermark) {
+                this.begin(CHECKPOINT, 8).putLong(watermark);
+                this.lowWatermark = watermark;
+            } else {
+                this.begin(CONSUMED, 8).putLong(sequence);
+            }
+            this.commit();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Records the arrival of the token.
+     *
+     * @param from The id of the previous holder.
+     */
+    public void tokenReceived(int from) {
+        this.token(TOKEN_RECEIVED, from);
+    }
+
+    /**
+     * Records the departure of the token, before it is sent.
+     *
+     * @param to The id of the next holder.
+     */
+    public void tokenSent(int to) {
+        this.token(TOKEN_SENT, to);
+    }
+
+    /**
+     * Reserves the values of the Lamport clock up to a block beyond a value about to be handed out.
+     * Meant to be given to {@link fr.usmb.process.LamportClock#restore}.
+     *
+     * @param value The value about to be handed out.
+     * @return The highest value reserved.
+     */
+    public long reserveClock(long value) {
+        this.lock.lock();
+        try {
+            if (value > this.clockReserved) {
+                this.begin(CLOCK, 8).putLong(value + clockBlock);
+                this.commit();
+                this.clockReserved = value + clockBlock;
+            }
+            return this.clockReserved;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the records appended so far to the disk.
+     */
+    public void sync() {
+        JournalSegment segment;
+        this.lock.lock();
+        try {
+            segment = this.current;
+        } finally {
+            this.lock.unlock();
+        }
+        // msync peut prendre des millisecondes, les écritures continuent pendant ce temps
+        segment.force();
+    }
+
+    /**
+     * Writes the journal to the disk and stops its background sync. The files are kept, for the next run.
+     */
+    public void close() {
+        if (this.syncTask != null) this.syncTask.cancel(false);
+        this.sync();
+
+        JournalSegment unused;
+        this.lock.lock();
+        try {
+            unused = this.spare;
+            this.spare = null;
+            this.spareIndex = -1;
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            if (unused != null) unused.delete();
+        } catch (IOException e) {
+            // Un segment vide est relu sans effet au prochain démarrage
+        }
+    }
+
+    /**
+     * @return The number of segment files of the journal.
+     */
+    public int segmentCount() {
+        this.lock.lock();
+        try {
+            return this.segments.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void token(byte kind, int peer) {
+        this.lock.lock();
+        try {
+            this.begin(kind, 4).putInt(peer);
+            this.commit();
+            this.tokenHeld = kind == TOKEN_RECEIVED;
+            this.tokenPeer = peer;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a record in the current segment, or in a new one if it is full. Must be called with the lock held.
+     */
+    private MappedByteBuffer begin(byte kind, int minBody) {
+        MappedByteBuffer out = this.current.begin(kind, minBody);
+        if (out == null) {
+            this.roll();
+            out = this.current.begin(kind, minBody);
+        }
+        this.recordStart = this.current.position() - JournalSegment.headerSize - 1;
+        return out;
+    }
+
+    private void commit() {
+        this.current.commit(this.recordStart);
+    }
+
+    /**
+     * Starts the next segment, and leaves to the sync thread writing the full one to the disk, deleting
+     * the oldest ones whose messages were all consumed and creating the following one. Must be called
+     * with the lock held.
+     */
+    private void roll() {
+        JournalSegment full = this.current;
+        JournalSegment next = this.spare;
+        this.spare = null;
+        if (next == null) {
+            // Le segment d'avance n'est pas prêt : on le saute plutôt que de l'attendre
+            next = this.createSegment(Math.max(full.index(), this.spareIndex) + 1);
+        }
+        this.startSegment(next);
+        this.spareIndex = next.index() + 1;
+
+        List<JournalSegment> obsolete = new ArrayList<>();
+        while (this.segments.size() > 1 && this.segments.peekFirst().maxSequence() < this.lowWatermark) {
+            obsolete.add(this.segments.pollFirst());
+        }
+
+        int index = this.spareIndex;
+        syncExecutor().execute(() -> this.prepare(full, obsolete, index));
+    }
+
+    /**
+     * Run by the sync thread after a roll: writes the full segment to the disk, deletes the obsolete
+     * ones and creates the segment of the given index ahead.
+     *
+     * @param full The segment just filled, null if none.
+     * @param obsolete The segments whose messages were all consumed.
+     * @param index The index of the next segment.
+     */
+    private void prepare(JournalSegment full, List<JournalSegment> obsolete, int index) {
+        if (full != null) full.force();
+        for (JournalSegment segment : obsolete) {
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                // Un segment non supprimé sera relu et ignoré au prochain démarrage
+            }
+        }
+
+        JournalSegment segment;
+        try {
+            segment = JournalSegment.create(this.directory, index, this.segmentSize);
+        } catch (IOException e) {
+            // Le prochain roll créera lui-même son segment
+            return;
+        }
+        this.lock.lock();
+        try {
+            if (this.spareIndex == index) {
+                this.spare = segment;
+                return;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        // Un roll est passé à l'index suivant sans l'attendre, ou le journal est fermé
+        try {
+            segment.delete();
+        } catch (IOException e) {
+            // Un segment vide est relu sans effet au prochain démarrage
+        }
+    }
+
+    private JournalSegment createSegment(int index) {
+        try {
+            return JournalSegment.create(this.directory, index, this.segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the journal segment " + index + " in " + this.directory, e);
+        }
+    }
+
+    /**
+     * Makes a segment the current one and writes the state of the process at its start. Must be called
+     * with the lock held.
+     */
+    private void startSegment(JournalSegment segment) {
+        this.current = segment;
+        this.segments.addLast(this.current);
+
+        MappedByteBuffer out = this.begin(STATE, stateSize);
+        out.putLong(this.lowWatermark);
+        out.putLong(this.nextSequence);
+        out.putLong(this.clockReserved);
+        out.put((byte) (this.tokenHeld ? 1 : 0));
+        out.putInt(this.tokenPeer);
+        this.commit();
+    }
+
+    /**
+     * Reads the segments left by a previous run, in order, stopping in each one at the first incomplete
+     * record.
+     */
+    private JournalRecovery recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(this.directory)) {
+            paths = files.filter(path -> JournalSegment.indexOf(path) >= 0)
+                    .sorted((a, b) -> Integer.compare(JournalSegment.indexOf(a), JournalSegment.indexOf(b)))
+                    .toList();
+        }
+
+        Map<Long, Message<?>> delivered = new LinkedHashMap<>();
+        Set<Long> consumed = new HashSet<>();
+        long maxTimestamp = 0;
+        int records = 0;
+
+        for (Path path : paths) {
+            JournalSegment segment = JournalSegment.open(path);
+            this.segments.addLast(segment);
+
+            MappedByteBuffer record;
+            while ((record = segment.next()) != null) {
+                records++;
+                byte kind = record.get();
+                switch (kind) {
+                    case STATE:
+                        this.lowWatermark = Math.max(this.lowWatermark, record.getLong());
+                        this.nextSequence = Math.max(this.nextSequence, record.getLong());
+                        this.clockReserved = Math.max(this.clockReserved, record.getLong());
+                        this.tokenHeld = record.get() != 0;
+                        this.tokenPeer = record.getInt();
+                        break;
+                    case DELIVERED:
+                        long sequence = record.getLong();
+                        Message<?> message = (Message<?>) this.codec.decode(record);
+                        delivered.put(sequence, message);
+                        segment.delivered(sequence);
+                        this.nextSequence = Math.max(this.nextSequence, sequence + 1);
+                        maxTimestamp = Math.max(maxTimestamp, message.getTimestamp());
+                        break;
+                    case CONSUMED:
+                        consumed.add(record.getLong());
+                        break;
+                    case CHECKPOINT:
+                        this.lowWatermark = Math.max(this.lowWatermark, record.getLong());
+                        break;
+                    case CLOCK:
+                        this.clockReserved = Math.max(this.clockReserved, record.getLong());
+                        break;
+                    case TOKEN_RECEIVED:
+                    case TOKEN_SENT:
+                        this.tokenHeld = kind == TOKEN_RECEIVED;
+                        this.tokenPeer = record.getInt();
+                        break;
+                    default:
+                        throw new IOException("Unknown journal record " + kind + " in " + path);
+                }
+            }
+        }
+
+        List<Message<?>> messages = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        for (Map.Entry<Long, Message<?>> entry : delivered.entrySet()) {
+            long sequence = entry.getKey();
+            if (sequence < this.lowWatermark || consumed.contains(sequence)) continue;
+            messages.add(entry.getValue());
+            sequences.add(sequence);
+        }
+
+        long clock = Math.max(this.clockReserved, maxTimestamp);
+        return new JournalRecovery(messages, sequences.stream().mapToLong(Long::longValue).toArray(),
+                clock, this.tokenHeld, this.tokenPeer, paths.size(), records);
+    }
+
+    private static synchronized ScheduledExecutorService syncExecutor() {
+        if (syncExecutor == null) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return syncExecutor;
+    }
+}
@@ -0,0 +1,251 @@
+package fr.usmb.logging;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log output shared by all the processes of the JVM. The callers store the raw parts of their records
+ * in a preallocated ring buffer and return at once; a single background thread formats the records and
+ * writes them to a {@link LogSink}, in the order they were logged. Logging a record takes a slot with
+ * a compare-and-set and allocates nothing, so the processes no longer contend on the console.
+ * <p>
+ * When the writer falls behind and the buffer is full, the callers wait for a free slot, so that no
+ * record is lost. Optionally, records are dropped instead and their number is reported in the log,
+ * except errors, which always wait. The output is flushed each time the buffer is drained and when
+ * the JVM exits.
+ * <p>
+ * Configured with the {@value #levelProperty} (default level of the loggers, {@code INFO} by default),
+ * {@value #capacityProperty} (slots of the ring buffer), {@value #dropProperty} ({@code true} to drop
+ * records when the buffer is full) and {@value #binaryProperty} (file of the {@link BinaryLogSink},
+ * text on the console if unset) system properties.
+ */
+public final class AsyncLogger {
+
+    public static final String levelProperty = "fr.usmb.log.level";
+    public static final String capacityProperty = "fr.usmb.log.capacity";
+    public static final String binaryProperty = "fr.usmb.log.binary";
+    public static final String dropProperty = "fr.usmb.log.dropWhenFull";
+
+    private static final int defaultCapacity = 8192;
+    private static final long parkNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long flushTimeoutNanos = TimeUnit.SECONDS.toNanos(2);
+
+    private static AsyncLogger instance = null;
+
+    /**
+     * Level of the loggers created without an explicit level.
+     */
+    @Getter
+    private final LogLevel defaultLevel;
+
+    private final LogSink sink;
+    private final LogRecord[] ring;
+    private final int mask;
+
+    /**
+     * Sequence number of the record held by each slot, once it is completely written.
+     */
+    private final AtomicLong claimed;
+    private final AtomicLongArray published;
+
+    /**
+     * Number of records written, and number of records written and flushed to the output.
+     */
+    private final AtomicLong consumed;
+    private volatile long flushed;
+
+    private final boolean dropWhenFull;
+    private final LongAdder dropped;
+    private final Thread writer;
+    private volatile boolean writerParked;
+
+    /**
+     * @param sink The output of the records.
+     * @param capacity The number of slots of the ring buffer, rounded up to a power of two.
+     * @param defaultLevel The level of the loggers created without an explicit level.
+     * @param dropWhenFull True to drop the records, errors apart, when the buffer is full, false to wait.
+     */
+    public AsyncLogger(LogSink sink, int capacity, LogLevel defaultLevel, boolean dropWhenFull) {
+        this.sink = sink;
+        this.defaultLevel = defaultLevel;
+        this.dropWhenFull = dropWhenFull;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.ring = new LogRecord[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.ring[i] = new LogRecord();
+            this.published.set(i, -1);
+        }
+
+        this.claimed = new AtomicLong();
+        this.consumed = new AtomicLong();
+        this.dropped = new LongAdder();
+
+        this.writer = new Thread(this::drain, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        // Les derniers logs sont écrits avant l'arrêt de la JVM
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "log-flush"));
+    }
+
+    /**
+     * @return The logger of the JVM, created from the system properties on the first call.
+     */
+    public static synchronized AsyncLogger getInstance() {
+        if (instance == null) instance = fromSystemProperties();
+        return instance;
+    }
+
+    private static AsyncLogger fromSystemProperties() {
+        LogLevel level = LogLevel.valueOf(System.getProperty(levelProperty, LogLevel.INFO.name()).toUpperCase());
+        int capacity = Integer.getInteger(capacityProperty, defaultCapacity);
+
+        LogSink sink = new TextLogSink();
+        String binary = System.getProperty(binaryProperty);
+        if (binary != null) {
+            try {
+                sink = new BinaryLogSink(Path.of(binary));
+            } catch (IOException e) {
+                System.err.println("Cannot open the binary log " + binary + ", logging to the console: " + e);
+            }
+        }
+        return new AsyncLogger(sink, capacity, level, Boolean.getBoolean(dropProperty));
+    }
+
+    /**
+     * Queues a record for the writer thread. The arguments are formatted later, on the writer thread:
+     * they must not be modified after the call.
+     *
+     * @param level The level of the record.
+     * @param source The name of the process logging the record.
+     * @param format The message, where each {@code {}} stands for the next argument.
+     * @param count The number of arguments, at most {@link LogRecord#maxArguments}.
+     * @param first The first argument, if any.
+     * @param second The second argument, if any.
+     * @param third The third argument, if any.
+     * @param thrown The exception of the record, or null.
+     */
+    public void log(LogLevel level, String source, String format, int count, Object first, Object second, Object third, Throwable thrown) {
+        long sequence = this.claim(!this.dropWhenFull || level == LogLevel.ERROR);
+        if (sequence < 0) {
+            this.dropped.increment();
+            return;
+        }
+
+        LogRecord record = this.ring[(int) sequence & this.mask];
+        record.level = level;
+        record.time = System.currentTimeMillis();
+        record.source = source;
+        record.format = format;
+        record.argumentCount = count;
+        record.arguments[0] = first;
+        record.arguments[1] = second;
+        record.arguments[2] = third;
+        record.thrown = thrown;
+
+        this.published.set((int) sequence & this.mask, sequence);
+        if (this.writerParked) LockSupport.unpark(this.writer);
+    }
+
+    /**
+     * Waits until every record logged before the call has been written and flushed, for two seconds
+     * at most.
+     */
+    public void flush() {
+        long target = this.claimed.get();
+        long deadline = System.nanoTime() + flushTimeoutNanos;
+        while (this.flushed < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(this.writer);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    /**
+     * @return The number of records dropped because the ring buffer was full.
+     */
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Takes the next slot of the ring buffer.
+     *
+     * @param wait True to wait for a free slot if the buffer is full.
+     * @return The sequence number of the slot, or -1 if the buffer is full and the caller does not wait.
+     */
+    private long claim(boolean wait) {
+        while (true) {
+            long sequence = this.claimed.get();
+            if (sequence - this.consumed.get() >= this.ring.length) {
+                if (!wait) return -1;
+                LockSupport.unpark(this.writer);
+                Thread.yield();
+                continue;
+            }
+            if (this.claimed.compareAndSet(sequence, sequence + 1)) return sequence;
+        }
+    }
+
+    /**
+     * Body of the writer thread: writes the records in sequence order, flushes the sink each time the
+     * buffer is empty, then parks until the next record.
+     */
+    private void drain() {
+        long next = 0;
+        long reportedDrops = 0;
+        LogRecord report = new LogRecord();
+
+        while (true) {
+            int slot = (int) next & this.mask;
+            if (this.published.get(slot) == next) {
+                LogRecord record = this.ring[slot];
+                this.write(record);
+                record.clear();
+                this.consumed.lazySet(++next);
+                continue;
+            }
+
+            long drops = this.dropped.sum();
+            if (drops > reportedDrops) {
+                report.level = LogLevel.WARN;
+                report.time = System.currentTimeMillis();
+                report.source = this.writer.getName();
+                report.format = "{} log records dropped, the log buffer was full";
+                report.argumentCount = 1;
+                report.arguments[0] = drops - reportedDrops;
+                this.write(report);
+                report.clear();
+                reportedDrops = drops;
+            }
+            try {
+                this.sink.flush();
+            } catch (IOException e) {
+                System.err.println("Cannot flush the log: " + e);
+            }
+            this.flushed = next;
+
+            this.writerParked = true;
+            if (this.published.get(slot) != next) LockSupport.parkNanos(this, parkNanos);
+            this.writerParked = false;
+        }
+    }
+
+    private void write(LogRecord record) {
+        try {
+            this.sink.write(record);
+        } catch (Throwable e) {
+            // Le thread d'écriture ne doit jamais s'arrêter
+            System.err.println("Cannot write a log record: " + e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package fr.usmb.logging;
+
+import fr.usmb.transport.DefaultPayloadSerializer;
+import fr.usmb.transport.PayloadSerializer;
+import fr.usmb.transport.Varint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Prints a log file written by {@link BinaryLogSink} as text, each line prefixed by the time of its record.
+ * <p>
+ * Usage: {@code BinaryLogReader <file>}
+ */
+public class BinaryLogReader {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BinaryLogReader <file>");
+            System.exit(1);
+        }
+
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(Path.of(args[0]), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < Integer.BYTES || in.getInt() != BinaryLogSink.magic) {
+            throw new IOException("Not a binary log: " + args[0]);
+        }
+
+        PayloadSerializer payloads = new DefaultPayloadSerializer();
+        LogLevel[] levels = LogLevel.values();
+        Object[] arguments = new Object[LogRecord.maxArguments];
+        StringBuilder line = new StringBuilder(256);
+
+        while (in.remaining() >= Integer.BYTES) {
+            int length = in.getInt();
+            if (length > in.remaining()) break;
+
+            long time = in.getLong();
+            LogLevel level = levels[in.get()];
+            String source = (String) payloads.read(in);
+            String format = (String) payloads.read(in);
+            int count = Math.min(Varint.readInt(in), arguments.length);
+            for (int i = 0; i < count; i++) {
+                arguments[i] = payloads.read(in);
+            }
+            String stackTrace = (String) payloads.read(in);
+
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(time)).append(' ');
+            TextLogSink.appendHeader(line, level, source);
+            TextLogSink.appendMessage(line, format, arguments, count);
+            System.out.println(line);
+            if (stackTrace != null) System.out.print(stackTrace);
+        }
+    }
+}
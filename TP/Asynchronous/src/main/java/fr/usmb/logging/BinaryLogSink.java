@@ -0,0 +1,114 @@
+package fr.usmb.logging;
+
+import fr.usmb.transport.DefaultPayloadSerializer;
+import fr.usmb.transport.PayloadSerializer;
+import fr.usmb.transport.Varint;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the records to a file in a compact binary form, without formatting them: the message format
+ * and the arguments are stored as they are, numbers in binary, and {@link BinaryLogReader} renders
+ * them as text later. Arguments of other types are stored as their {@code toString()}.
+ * <p>
+ * The file starts with the {@link #magic} number, followed by the records, each one prefixed by its
+ * length: time, level, source, format, argument count, arguments and the stack trace of the
+ * exception, if any.
+ */
+public class BinaryLogSink implements LogSink {
+
+    static final int magic = 0x504C4F47;
+
+    private static final int bufferSize = 64 << 10;
+
+    private final FileChannel channel;
+    private final PayloadSerializer payloads;
+    private final ByteBuffer buffer;
+
+    /**
+     * @param path The file to write, replaced if it exists.
+     * @throws IOException If the file cannot be created.
+     */
+    public BinaryLogSink(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.payloads = new DefaultPayloadSerializer();
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.putInt(magic);
+    }
+
+    @Override
+    public void write(LogRecord record) throws IOException {
+        int start = this.buffer.position();
+        try {
+            this.encode(record, this.buffer);
+            return;
+        } catch (BufferOverflowException e) {
+            this.buffer.position(start);
+            this.flush();
+        }
+
+        try {
+            this.encode(record, this.buffer);
+        } catch (BufferOverflowException e) {
+            // Enregistrement plus grand que le buffer : encodé à part, dans un buffer assez grand
+            this.buffer.clear();
+            ByteBuffer large = ByteBuffer.allocate(bufferSize * 2);
+            while (true) {
+                try {
+                    this.encode(record, large.clear());
+                    break;
+                } catch (BufferOverflowException tooSmall) {
+                    large = ByteBuffer.allocate(large.capacity() * 2);
+                }
+            }
+            large.flip();
+            while (large.hasRemaining()) this.channel.write(large);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+        this.buffer.clear();
+    }
+
+    private void encode(LogRecord record, ByteBuffer out) throws IOException {
+        int start = out.position();
+        out.putInt(0);
+        out.putLong(record.getTime());
+        out.put((byte) record.getLevel().ordinal());
+        this.payloads.write(record.getSource(), out);
+        this.payloads.write(record.getFormat(), out);
+        Varint.writeInt(record.getArgumentCount(), out);
+        for (int i = 0; i < record.getArgumentCount(); i++) {
+            this.payloads.write(storable(record.getArgument(i)), out);
+        }
+        this.payloads.write(record.getThrown() != null ? stackTraceOf(record.getThrown()) : null, out);
+        out.putInt(start, out.position() - start - Integer.BYTES);
+    }
+
+    /**
+     * @return The argument itself if the payload serializer encodes it compactly, its text otherwise.
+     */
+    private static Object storable(Object argument) {
+        if (argument == null || argument instanceof Boolean || argument instanceof Integer || argument instanceof Long
+                || argument instanceof Double || argument instanceof String) {
+            return argument;
+        }
+        return String.valueOf(argument);
+    }
+
+    private static String stackTraceOf(Throwable thrown) {
+        StringWriter text = new StringWriter();
+        thrown.printStackTrace(new PrintWriter(text));
+        return text.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package fr.usmb.logging;
+
+/**
+ * Severity of a log record. A logger writes the records of its level and of the levels above it.
+ */
+public enum LogLevel {
+
+    /**
+     * Details of every message and token hop, for debugging.
+     */
+    DEBUG,
+
+    /**
+     * The normal trace of the processes.
+     */
+    INFO,
+
+    /**
+     * Unexpected situations the processes recover from.
+     */
+    WARN,
+
+    /**
+     * Failures. Error records are never dropped, even when the log buffer is full.
+     */
+    ERROR,
+
+    /**
+     * Writes nothing.
+     */
+    OFF;
+
+    /**
+     * @param threshold The level of a logger.
+     * @return True if a record of this level is written by a logger of the given level.
+     */
+    public boolean isEnabledFor(LogLevel threshold) {
+        return this != OFF && this.ordinal() >= threshold.ordinal();
+    }
+}
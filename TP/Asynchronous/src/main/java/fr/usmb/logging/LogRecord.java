@@ -0,0 +1,58 @@
+package fr.usmb.logging;
+
+import lombok.Getter;
+
+/**
+ * A slot of the {@link AsyncLogger} ring buffer. The slots are allocated once and reused: a caller
+ * fills one with the raw parts of a record, the writer thread formats and writes it later, then
+ * clears the references so that the arguments can be collected.
+ */
+@Getter
+public final class LogRecord {
+
+    /**
+     * Maximum number of arguments of a parameterized message.
+     */
+    public static final int maxArguments = 3;
+
+    LogLevel level;
+
+    /**
+     * The time of the record, in milliseconds since the epoch.
+     */
+    long time;
+
+    /**
+     * The name of the process which logged the record, or null.
+     */
+    String source;
+
+    /**
+     * The message, where each {@code {}} stands for the next argument.
+     */
+    String format;
+
+    int argumentCount;
+
+    /**
+     * The exception of an error record, or null.
+     */
+    Throwable thrown;
+
+    @Getter(lombok.AccessLevel.NONE)
+    final Object[] arguments = new Object[maxArguments];
+
+    public Object getArgument(int index) {
+        return this.arguments[index];
+    }
+
+    void clear() {
+        this.source = null;
+        this.format = null;
+        this.thrown = null;
+        for (int i = 0; i < this.argumentCount; i++) {
+            this.arguments[i] = null;
+        }
+        this.argumentCount = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package fr.usmb.logging;
+
+import java.io.IOException;
+
+/**
+ * Output of the {@link AsyncLogger}. A sink is only called from the writer thread, so it needs no
+ * synchronization and can reuse its buffers from one record to the next.
+ */
+public interface LogSink {
+
+    /**
+     * Writes a record. The record is reused once this method returns, it must not be kept.
+     *
+     * @param record The record to write.
+     * @throws IOException If the output fails.
+     */
+    void write(LogRecord record) throws IOException;
+
+    /**
+     * Pushes the records written so far to the output. Called each time the writer has drained the
+     * ring buffer.
+     *
+     * @throws IOException If the output fails.
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,88 @@
+package fr.usmb.logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Writes the records as text lines, in the historical format of the process logs:
+ * {@code [Process P1] message}, with the level after the name when it is not {@code INFO}. Warnings
+ * and errors go to the error stream, with the stack trace of their exception. The lines are buffered
+ * and encoded in bulk, each time the writer thread has drained the log buffer.
+ */
+public class TextLogSink implements LogSink {
+
+    private static final int bufferSize = 64 << 10;
+
+    private final Writer out;
+    private final Writer err;
+    private final StringBuilder line;
+
+    public TextLogSink() {
+        this(System.out, System.err);
+    }
+
+    public TextLogSink(PrintStream out, PrintStream err) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, out.charset()), bufferSize);
+        this.err = new BufferedWriter(new OutputStreamWriter(err, err.charset()), bufferSize);
+        this.line = new StringBuilder(256);
+    }
+
+    @Override
+    public void write(LogRecord record) throws IOException {
+        this.line.setLength(0);
+        appendHeader(this.line, record.getLevel(), record.getSource());
+        appendMessage(this.line, record.getFormat(), record.arguments, record.getArgumentCount());
+        this.line.append(System.lineSeparator());
+
+        Writer stream = record.getLevel().ordinal() >= LogLevel.WARN.ordinal() ? this.err : this.out;
+        stream.append(this.line);
+        if (record.getThrown() != null) {
+            PrintWriter trace = new PrintWriter(stream);
+            record.getThrown().printStackTrace(trace);
+            trace.flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+        this.err.flush();
+    }
+
+    /**
+     * Appends the {@code [Process P1] } prefix of a line, followed by the level if it is not {@code INFO}.
+     */
+    static void appendHeader(StringBuilder line, LogLevel level, String source) {
+        line.append("[Process ").append(source).append("] ");
+        if (level != LogLevel.INFO) line.append(level).append(": ");
+    }
+
+    /**
+     * Appends a message, replacing each {@code {}} of the format by the next argument. Extra
+     * placeholders are left as they are.
+     */
+    static void appendMessage(StringBuilder line, String format, Object[] arguments, int count) {
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while (argument < count && (placeholder = format.indexOf("{}", start)) >= 0) {
+            line.append(format, start, placeholder);
+            appendArgument(line, arguments[argument++]);
+            start = placeholder + 2;
+        }
+        line.append(format, start, format.length());
+    }
+
+    private static void appendArgument(StringBuilder line, Object argument) {
+        try {
+            line.append(argument);
+        } catch (RuntimeException e) {
+            // Un toString() défaillant ne doit pas arrêter l'écriture des logs
+            line.append("[toString() failed: ").append(e).append(']');
+        }
+    }
+}
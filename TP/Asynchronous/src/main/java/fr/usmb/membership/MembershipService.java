@@ -0,0 +1,133 @@
+package fr.usmb.membership;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the processes of the cluster. Processes join and leave at any time; each change
+ * installs a new {@link View} with the next epoch and notifies the listeners. Ids are never reused.
+ */
+public class MembershipService {
+
+    private static MembershipService instance = null;
+
+    private volatile View view;
+    private int nextId;
+    private int stride;
+    private final List<Consumer<View>> listeners;
+
+    private MembershipService() {
+        this.view = new View(0, new int[0]);
+        this.nextId = 0;
+        this.stride = 1;
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public static synchronized MembershipService getInstance() {
+        if (instance == null) instance = new MembershipService();
+        return instance;
+    }
+
+    /**
+     * @return The current view of the cluster.
+     */
+    public View getView() {
+        return this.view;
+    }
+
+    /**
+     * Adds a new process to the cluster.
+     *
+     * @return The id given to the process.
+     */
+    public synchronized int join() {
+        int id = this.newId();
+        this.add(id);
+        return id;
+    }
+
+    /**
+     * Gives an id to a new process without adding it to the view, so that the process can register on
+     * the transport before the others route messages to it. It then joins with {@link #add(int)}.
+     *
+     * @return The id given to the process.
+     */
+    public synchronized int newId() {
+        int id = this.nextId;
+        this.nextId += this.stride;
+        return id;
+    }
+
+    /**
+     * Adds a process whose id was given by another node of the cluster. Does nothing if it is
+     * already a member.
+     *
+     * @param id The id of the remote process.
+     */
+    public synchronized void add(int id) {
+        int index = this.view.indexOf(id);
+        if (index >= 0) return;
+        int position = -index - 1;
+        int[] current = this.view.getMembers();
+        int[] members = new int[current.length + 1];
+        System.arraycopy(current, 0, members, 0, position);
+        members[position] = id;
+        System.arraycopy(current, position, members, position + 1, current.length - position);
+        this.install(members);
+    }
+
+    /**
+     * Splits the ids between the nodes of a cluster spread over several JVMs. The node gives the ids
+     * {@code offset}, {@code offset + stride}, {@code offset + 2 * stride}... so that ids stay unique
+     * without any coordination and stay dense enough to index arrays.
+     *
+     * @param offset The first id given by {@link #join()}, the index of the node.
+     * @param stride The gap between two ids given by this node, the number of nodes.
+     * @throws IllegalStateException If ids were already given.
+     */
+    public synchronized void partitionIds(int offset, int stride) {
+        if (this.nextId != 0 || this.stride != 1) throw new IllegalStateException("Ids were already given or partitioned");
+        this.nextId = offset;
+        this.stride = stride;
+    }
+
+    /**
+     * Removes a process from the cluster. Does nothing if it is not a member.
+     *
+     * @param id The id of the process leaving.
+     */
+    public synchronized void leave(int id) {
+        int index = this.view.indexOf(id);
+        if (index < 0) return;
+        int[] current = this.view.getMembers();
+        int[] members = new int[current.length - 1];
+        System.arraycopy(current, 0, members, 0, index);
+        System.arraycopy(current, index + 1, members, index, members.length - index);
+        this.install(members);
+    }
+
+    /**
+     * Registers a listener called with every new view, in epoch order, from the thread that changed
+     * the membership. Listeners must not block.
+     *
+     * @param listener The listener to register.
+     */
+    public void addListener(Consumer<View> listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<View> listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Installs a new view and notifies the listeners. Must be called with the monitor held.
+     */
+    private void install(int[] members) {
+        this.view = new View(this.view.getEpoch() + 1, members);
+        for (Consumer<View> listener : this.listeners) {
+            listener.accept(this.view);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package fr.usmb.membership;
+
+/**
+ * Processes are addressed by their int id everywhere: messages, tokens, mailboxes and routing.
+ * Names such as {@code "P3"} are only built for display.
+ */
+public final class ProcessIds {
+
+    /**
+     * Id standing for no process, e.g. the holder of a token not given yet.
+     */
+    public static final int NONE = -1;
+
+    private ProcessIds() {
+    }
+
+    /**
+     * @param id The id of a process.
+     * @return The display name of the process.
+     */
+    public static String nameOf(int id) {
+        return id == NONE ? "none" : "P" + id;
+    }
+}
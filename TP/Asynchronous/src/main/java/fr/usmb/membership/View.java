@@ -0,0 +1,101 @@
+package fr.usmb.membership;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Immutable view of the members of the cluster. Each change of membership produces a new view
+ * with a greater epoch. Members are kept sorted by id, which also gives the order of the logical ring.
+ */
+public class View {
+
+    @Getter
+    private final long epoch;
+    private final int[] members;
+
+    View(long epoch, int[] members) {
+        this.epoch = epoch;
+        this.members = members;
+    }
+
+    /**
+     * @return The number of members in the view.
+     */
+    public int size() {
+        return this.members.length;
+    }
+
+    /**
+     * @param id The id of a process.
+     * @return True if the process is a member of the view.
+     */
+    public boolean contains(int id) {
+        return Arrays.binarySearch(this.members, id) >= 0;
+    }
+
+    /**
+     * @return A copy of the ids of the members, sorted.
+     */
+    public int[] getMembers() {
+        return this.members.clone();
+    }
+
+    /**
+     * @param index The position of the member in the sorted view.
+     * @return The id of the member at this position.
+     */
+    public int memberAt(int index) {
+        return this.members[index];
+    }
+
+    /**
+     * @param id The id of a member.
+     * @return The position of the member in the sorted view, or a negative value if it is not a member.
+     */
+    public int indexOf(int id) {
+        return Arrays.binarySearch(this.members, id);
+    }
+
+    /**
+     * Returns the successor of a process on the logical ring, that is the member with the next greater
+     * id, wrapping around to the smallest one. The process itself does not need to be a member.
+     *
+     * @param id The id of a process.
+     * @return The id of its successor.
+     * @throws IllegalStateException if the view is empty.
+     */
+    public int successorOf(int id) {
+        if (this.members.length == 0) throw new IllegalStateException("The view is empty");
+        int index = Arrays.binarySearch(this.members, id);
+        int next = index >= 0 ? index + 1 : -index - 1;
+        return this.members[next % this.members.length];
+    }
+
+    /**
+     * Returns the predecessor of a process on the logical ring, that is the member with the next smaller
+     * id, wrapping around to the greatest one. The process itself does not need to be a member.
+     *
+     * @param id The id of a process.
+     * @return The id of its predecessor.
+     * @throws IllegalStateException if the view is empty.
+     */
+    public int predecessorOf(int id) {
+        if (this.members.length == 0) throw new IllegalStateException("The view is empty");
+        int index = Arrays.binarySearch(this.members, id);
+        int previous = (index >= 0 ? index : -index - 1) - 1;
+        return this.members[(previous + this.members.length) % this.members.length];
+    }
+
+    /**
+     * @return The greatest id in the view, or -1 if it is empty.
+     */
+    public int maxId() {
+        return this.members.length == 0 ? -1 : this.members[this.members.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        return "[Epoch: " + epoch + ", Members: " + Arrays.toString(members) + "]";
+    }
+}
@@ -0,0 +1,13 @@
+package fr.usmb.messages;
+
+/**
+ * Acknowledgement of a message carrying a correlation id, sent back to its sender once the message
+ * has been delivered to the mailbox of the receiver.
+ */
+public class AckMessage extends Message<Long> {
+
+    public AckMessage(long correlationId, int sender) {
+        super(correlationId, sender);
+        this.setCorrelationId(correlationId);
+    }
+}
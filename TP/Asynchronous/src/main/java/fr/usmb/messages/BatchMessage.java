@@ -0,0 +1,42 @@
+package fr.usmb.messages;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * A batch of payloads carried as a single bus event. The payloads are given the contiguous
+ * timestamps {@code timestamp, timestamp + 1, ...}, in order, and are unpacked into individual
+ * messages on reception.
+ *
+ * @param <T> The type of the payloads.
+ */
+@Getter
+public abstract class BatchMessage<T> extends Message<List<T>> {
+
+    public BatchMessage(List<T> payloads, int sender) {
+        super(payloads, sender);
+    }
+
+    /**
+     * @return The number of payloads in the batch.
+     */
+    public int size() {
+        return this.getMessage().size();
+    }
+
+    /**
+     * @return The timestamp of the last payload of the batch.
+     */
+    public long getLastTimestamp() {
+        return this.getTimestamp() + this.size() - 1;
+    }
+
+    /**
+     * Unpacks the payload at a given position into an individual message, stamped with its own timestamp.
+     *
+     * @param index The position of the payload in the batch.
+     * @return The message carrying this payload.
+     */
+    public abstract Message<T> unpack(int index);
+}
@@ -0,0 +1,17 @@
+package fr.usmb.messages;
+
+import java.util.List;
+
+public class BroadcastBatchMessage<T> extends BatchMessage<T> {
+
+    public BroadcastBatchMessage(List<T> payloads, int sender) {
+        super(payloads, sender);
+    }
+
+    @Override
+    public Message<T> unpack(int index) {
+        BroadcastMessage<T> message = new BroadcastMessage<>(this.getMessage().get(index), this.getSender());
+        message.setTimestamp(this.getTimestamp() + index);
+        return message;
+    }
+}
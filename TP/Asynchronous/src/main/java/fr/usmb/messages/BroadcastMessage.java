@@ -7,7 +7,7 @@ import lombok.Setter;
 @Setter
 public class BroadcastMessage<T> extends Message<T>{
 
-    public BroadcastMessage(T message, String sender) {
+    public BroadcastMessage(T message, int sender) {
         super(message, sender);
     }
 }
@@ -0,0 +1,18 @@
+package fr.usmb.messages;
+
+import lombok.Getter;
+
+/**
+ * Broadcast message delivered in causal order. It carries the vector clock of its sender at the time
+ * it was sent, its own send counted.
+ */
+@Getter
+public class CausalMessage<T> extends Message<T> {
+
+    private final long[] vector;
+
+    public CausalMessage(T message, int sender, long[] vector) {
+        super(message, sender);
+        this.vector = vector;
+    }
+}
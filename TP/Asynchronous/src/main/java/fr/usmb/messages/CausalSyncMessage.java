@@ -0,0 +1,14 @@
+package fr.usmb.messages;
+
+/**
+ * Sent by each member to a process joining the cluster in causal order. The payload is the vector clock
+ * of the member when it learnt of the joiner: its own entry counts the broadcasts sent before, which the
+ * joiner does not deliver, and the entries of the processes no longer in the cluster tell the joiner
+ * what their broadcasts were.
+ */
+public class CausalSyncMessage extends Message<long[]> {
+
+    public CausalSyncMessage(long[] vector, int sender) {
+        super(vector, sender);
+    }
+}
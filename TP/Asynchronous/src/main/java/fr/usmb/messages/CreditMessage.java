@@ -0,0 +1,12 @@
+package fr.usmb.messages;
+
+/**
+ * Credits returned by a receiver to a sender under flow control: the number of messages of the sender
+ * which left the mailbox of the receiver since its last credits.
+ */
+public class CreditMessage extends Message<Integer> {
+
+    public CreditMessage(int credits, int sender) {
+        super(credits, sender);
+    }
+}
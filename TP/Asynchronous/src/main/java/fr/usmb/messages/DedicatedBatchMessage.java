@@ -0,0 +1,25 @@
+package fr.usmb.messages;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class DedicatedBatchMessage<T> extends BatchMessage<T> {
+
+    private int receiver;
+
+    public DedicatedBatchMessage(List<T> payloads, int sender, int receiver) {
+        super(payloads, sender);
+        this.receiver = receiver;
+    }
+
+    @Override
+    public Message<T> unpack(int index) {
+        DedicatedMessage<T> message = new DedicatedMessage<>(this.getMessage().get(index), this.getSender(), this.receiver);
+        message.setTimestamp(this.getTimestamp() + index);
+        return message;
+    }
+}
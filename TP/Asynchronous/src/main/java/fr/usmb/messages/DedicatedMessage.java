@@ -7,9 +7,13 @@ import lombok.Setter;
 @Setter
 public class DedicatedMessage<T> extends Message<T> {
 
-    private String receiver;
+    /**
+     * Id of the receiving process.
+     */
+    private int receiver;
 
-    public DedicatedMessage(T message, String sender, String receiver) {
+    public DedicatedMessage(T message, int sender, int receiver) {
         super(message, sender);
+        this.receiver = receiver;
     }
 }
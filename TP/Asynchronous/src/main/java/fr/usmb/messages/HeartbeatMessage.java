@@ -0,0 +1,13 @@
+package fr.usmb.messages;
+
+/**
+ * Heartbeat sent by a process to its successor on the ring, which suspects it once they stop. The
+ * payload is the highest token generation known to the sender, so that a regenerated token is soon
+ * known to all and the older ones are discarded.
+ */
+public class HeartbeatMessage extends Message<Long> {
+
+    public HeartbeatMessage(long generation, int sender) {
+        super(generation, sender);
+    }
+}
@@ -4,15 +4,37 @@ package fr.usmb.messages;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.Serializable;
+
 @Getter
 @Setter
-public abstract class Message<T> {
+public abstract class Message<T> implements Serializable {
 
     private final T message;
-    private int timestamp;
-    private String sender;
+    private long timestamp;
+    /**
+     * Id of the sending process.
+     */
+    private int sender;
+
+    /**
+     * Id correlating an acknowledged message with its acknowledgements, 0 if no acknowledgement is expected.
+     */
+    private long correlationId;
+
+    /**
+     * Epoch of the last global snapshot recorded by the sender when it sent the message, 0 before the
+     * first one. Only set on the messages that are part of the recorded state: the user messages and the token.
+     */
+    private long snapshotEpoch;
+
+    /**
+     * Time the message was posted on the bus of this JVM, from {@link System#nanoTime()}. Only used to
+     * measure the dispatch latency, it is not transmitted to the other nodes.
+     */
+    private transient long postedAt;
 
-    public Message(T message, String sender) {
+    public Message(T message, int sender) {
         this.message = message;
         this.timestamp = 0;
         this.sender = sender;
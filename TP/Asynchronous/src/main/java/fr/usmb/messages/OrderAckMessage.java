@@ -0,0 +1,12 @@
+package fr.usmb.messages;
+
+/**
+ * Acknowledgement of a total-order broadcast. Its timestamp tells the other processes that every later
+ * message of its sender will have a greater timestamp.
+ */
+public class OrderAckMessage extends OrderedMessage<Void> {
+
+    public OrderAckMessage(int sender, long sequence) {
+        super(null, sender, sequence);
+    }
+}
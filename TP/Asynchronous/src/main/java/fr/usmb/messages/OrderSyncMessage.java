@@ -0,0 +1,13 @@
+package fr.usmb.messages;
+
+/**
+ * Sent in the total-order stream of a process when another process joins the cluster. Its sequence
+ * number is the first one of the sender that the joiner processes: the events numbered before it were
+ * sent before the sender learnt of the joiner. The payload is the id of the joiner.
+ */
+public class OrderSyncMessage extends OrderedMessage<Integer> {
+
+    public OrderSyncMessage(int joiner, int sender, long sequence) {
+        super(joiner, sender, sequence);
+    }
+}
@@ -0,0 +1,19 @@
+package fr.usmb.messages;
+
+import lombok.Getter;
+
+/**
+ * Message of the total-order broadcast stream of a process. Messages and acknowledgements of one sender
+ * share a sequence number, which lets receivers process them in the order they were sent whatever the
+ * order the bus delivers them in.
+ */
+@Getter
+public abstract class OrderedMessage<T> extends Message<T> {
+
+    private final long sequence;
+
+    public OrderedMessage(T message, int sender, long sequence) {
+        super(message, sender);
+        this.sequence = sequence;
+    }
+}
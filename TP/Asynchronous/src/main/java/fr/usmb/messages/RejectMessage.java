@@ -0,0 +1,13 @@
+package fr.usmb.messages;
+
+/**
+ * Refusal of a message carrying a correlation id, sent back to its sender when the mailbox of the
+ * receiver is full and its overflow policy is to reject.
+ */
+public class RejectMessage extends Message<Long> {
+
+    public RejectMessage(long correlationId, int sender) {
+        super(correlationId, sender);
+        this.setCorrelationId(correlationId);
+    }
+}
@@ -0,0 +1,12 @@
+package fr.usmb.messages;
+
+/**
+ * Critical-section request broadcast by the Suzuki–Kasami algorithm. The payload is the
+ * request number of the requesting process, which is the sender.
+ */
+public class RequestMessage extends Message<Long> {
+
+    public RequestMessage(long requestNumber, int requester) {
+        super(requestNumber, requester);
+    }
+}
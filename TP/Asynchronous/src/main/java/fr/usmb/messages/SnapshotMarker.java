@@ -0,0 +1,20 @@
+package fr.usmb.messages;
+
+import lombok.Getter;
+
+/**
+ * Marker of a global snapshot, sent by a process to each other process when it records its local state.
+ * The payload is the epoch of the snapshot. The channels of the bus are not FIFO, so the marker carries
+ * the number of messages the sender had sent to the receiver before recording: the channel is recorded
+ * once the receiver has received that many of them.
+ */
+@Getter
+public class SnapshotMarker extends Message<Long> {
+
+    private final long sentCount;
+
+    public SnapshotMarker(long epoch, long sentCount, int sender) {
+        super(epoch, sender);
+        this.sentCount = sentCount;
+    }
+}
@@ -2,10 +2,19 @@ package fr.usmb.messages;
 
 import lombok.Getter;
 
+/**
+ * Message exchanged by the barriers. It belongs to one generation of the barrier, that is one call to
+ * {@code synchronize()} on every process, and to one round of the algorithm within this generation.
+ */
 @Getter
 public class SynchronizedMessage extends Message<String> {
 
-    public SynchronizedMessage(String from){
+    private final long generation;
+    private final int round;
+
+    public SynchronizedMessage(int from, long generation, int round){
         super("Synchronized message", from);
+        this.generation = generation;
+        this.round = round;
     }
 }
@@ -10,7 +10,7 @@ public class TokenMessage<T> extends Message<T>{
 
     private Token token;
 
-    public TokenMessage(Token token, String from) {
+    public TokenMessage(Token token, int from) {
         super(null, from);
         this.token = token;
     }
@@ -0,0 +1,11 @@
+package fr.usmb.messages;
+
+/**
+ * Broadcast message delivered in the same order by every process: by Lamport timestamp, then by sender id.
+ */
+public class TotalOrderMessage<T> extends OrderedMessage<T> {
+
+    public TotalOrderMessage(T message, int sender, long sequence) {
+        super(message, sender, sequence);
+    }
+}
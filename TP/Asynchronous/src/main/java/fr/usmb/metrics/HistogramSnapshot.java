@@ -0,0 +1,27 @@
+package fr.usmb.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Immutable view of a {@link LatencyHistogram} at a point in time. Percentiles are the lower bound of
+ * the bucket holding them, accurate to about 6%; durations are in nanoseconds.
+ */
+@Getter
+@AllArgsConstructor
+public class HistogramSnapshot {
+
+    private final long count;
+    private final double mean;
+    private final long max;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + Math.round(mean) + ", p50=" + p50 + ", p90=" + p90
+                + ", p99=" + p99 + ", p99.9=" + p999 + ", max=" + max;
+    }
+}
@@ -0,0 +1,103 @@
+package fr.usmb.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values with a bounded relative error, in the manner of HdrHistogram: values
+ * below 32 have a bucket each, and every power of two above is split into 16 buckets of equal width,
+ * so a bucket is never wider than 1/16 of its values. The whole {@code long} range fits in 960
+ * buckets. Recording a value is a bucket increment, lock-free; the buckets are only allocated on the
+ * first record, so idle histograms cost nothing.
+ */
+public class LatencyHistogram {
+
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+    private static final int linearLimit = 2 * subBuckets;
+    private static final int bucketCount = (Long.SIZE - 1 - subBucketBits) * subBuckets + linearLimit - subBuckets;
+
+    private volatile AtomicLongArray counts;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public LatencyHistogram() {
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value, a duration in nanoseconds for the latencies.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        AtomicLongArray buckets = this.counts;
+        if (buckets == null) buckets = this.allocate();
+        buckets.getAndIncrement(indexOf(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since a start time.
+     *
+     * @param startNanos The start time, from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The values recorded so far. Records made during the call may be partly counted.
+     */
+    public HistogramSnapshot snapshot() {
+        long total = this.count.sum();
+        AtomicLongArray buckets = this.counts;
+        if (total == 0 || buckets == null) return new HistogramSnapshot(0, 0, 0, 0, 0, 0, 0);
+
+        long[] copy = new long[bucketCount];
+        long copied = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            copy[i] = buckets.get(i);
+            copied += copy[i];
+        }
+        return new HistogramSnapshot(total, (double) this.sum.sum() / total, this.max.get(),
+                percentile(copy, copied, 0.5), percentile(copy, copied, 0.9),
+                percentile(copy, copied, 0.99), percentile(copy, copied, 0.999));
+    }
+
+    private synchronized AtomicLongArray allocate() {
+        if (this.counts == null) this.counts = new AtomicLongArray(bucketCount);
+        return this.counts;
+    }
+
+    private static long percentile(long[] buckets, long total, double fraction) {
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return lowerBoundOf(i);
+        }
+        return lowerBoundOf(buckets.length - 1);
+    }
+
+    static int indexOf(long value) {
+        if (value < linearLimit) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - subBucketBits;
+        return shift * subBuckets + (int) (value >>> shift);
+    }
+
+    static long lowerBoundOf(int index) {
+        if (index < linearLimit) return index;
+        int shift = index / subBuckets - 1;
+        long subBucket = index % subBuckets + subBuckets;
+        return subBucket << shift;
+    }
+}
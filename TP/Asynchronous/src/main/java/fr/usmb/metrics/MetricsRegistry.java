@@ -0,0 +1,120 @@
+package fr.usmb.metrics;
+
+import fr.usmb.membership.ProcessIds;
+import fr.usmb.messages.Message;
+import fr.usmb.process.ProcessLogger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The metrics of the processes of the JVM, indexed by process id. Counts the messages sent on the bus
+ * against their sender, and registers each process as an MBean unless the {@value #jmxProperty} system
+ * property is {@code false}.
+ */
+public final class MetricsRegistry {
+
+    public static final String jmxProperty = "fr.usmb.metrics.jmx";
+
+    private static MetricsRegistry instance = null;
+
+    private final boolean jmx;
+    private final ProcessLogger logger;
+
+    /**
+     * Metrics of the registered processes, indexed by id. Replaced on each registration, which is rare,
+     * so that the lookups on the send path take no lock.
+     */
+    private volatile ProcessMetrics[] processes;
+
+    private MetricsRegistry(boolean jmx) {
+        this.jmx = jmx;
+        this.logger = new ProcessLogger("metrics");
+        this.processes = new ProcessMetrics[16];
+    }
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) instance = new MetricsRegistry(!"false".equalsIgnoreCase(System.getProperty(jmxProperty)));
+        return instance;
+    }
+
+    /**
+     * Registers the metrics of a process, and its MBean.
+     */
+    public synchronized void register(ProcessMetrics metrics) {
+        int id = metrics.getProcessId();
+        ProcessMetrics[] updated = Arrays.copyOf(this.processes, Math.max(this.processes.length, id + 1));
+        updated[id] = metrics;
+        this.processes = updated;
+
+        if (!this.jmx) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = nameOf(id);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            this.logger.error("Cannot register the metrics of {}", ProcessIds.nameOf(id), e);
+        }
+    }
+
+    /**
+     * Removes the metrics of a process, and its MBean.
+     */
+    public synchronized void unregister(ProcessMetrics metrics) {
+        int id = metrics.getProcessId();
+        if (id >= this.processes.length || this.processes[id] != metrics) return;
+        ProcessMetrics[] updated = this.processes.clone();
+        updated[id] = null;
+        this.processes = updated;
+
+        if (!this.jmx) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(nameOf(id))) server.unregisterMBean(nameOf(id));
+        } catch (JMException e) {
+            this.logger.error("Cannot unregister the metrics of {}", ProcessIds.nameOf(id), e);
+        }
+    }
+
+    /**
+     * @param id The id of a process.
+     * @return The metrics of the process, or null if it is not registered in this JVM.
+     */
+    public ProcessMetrics of(int id) {
+        ProcessMetrics[] current = this.processes;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * Counts an event posted on the bus against its sender, if it is a message of a process of this JVM.
+     *
+     * @param event The event posted.
+     */
+    public void onSent(Object event) {
+        if (!(event instanceof Message)) return;
+        Message<?> message = (Message<?>) event;
+        ProcessMetrics metrics = this.of(message.getSender());
+        if (metrics != null) metrics.onSent(message);
+    }
+
+    /**
+     * @return The metrics of every process registered in this JVM.
+     */
+    public List<MetricsSnapshot> snapshotAll() {
+        List<MetricsSnapshot> snapshots = new ArrayList<>();
+        for (ProcessMetrics metrics : this.processes) {
+            if (metrics != null) snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    private static ObjectName nameOf(int id) throws JMException {
+        return new ObjectName("fr.usmb:type=Process,name=" + ProcessIds.nameOf(id));
+    }
+}
@@ -0,0 +1,33 @@
+package fr.usmb.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * All the metrics of a process at a point in time, as returned by {@link ProcessMetrics#snapshot()}.
+ * Durations are in nanoseconds, clock skews in Lamport ticks.
+ */
+@Getter
+@AllArgsConstructor
+public class MetricsSnapshot {
+
+    private final int processId;
+    private final Map<String, Long> messagesSent;
+    private final Map<String, Long> messagesReceived;
+    private final HistogramSnapshot dispatchLatency;
+    private final int mailboxDepth;
+    private final int mailboxPeakDepth;
+    private final long mailboxDropped;
+    private final HistogramSnapshot receiveFromSyncTime;
+    private final HistogramSnapshot synchronizeTime;
+    private final HistogramSnapshot sendToSyncTime;
+    private final HistogramSnapshot requestSCTime;
+    private final HistogramSnapshot creditWaitTime;
+    private final HistogramSnapshot tokenHopLatency;
+    private final HistogramSnapshot tokenRotationTime;
+    private final HistogramSnapshot clockSkew;
+    private final HistogramSnapshot snapshotPause;
+    private final HistogramSnapshot snapshotDuration;
+}
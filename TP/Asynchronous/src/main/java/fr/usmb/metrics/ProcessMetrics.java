@@ -0,0 +1,239 @@
+package fr.usmb.metrics;
+
+import fr.usmb.messages.Message;
+import fr.usmb.process.MailBox;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one process. The counters are striped ({@link LongAdder}) and the durations go to
+ * {@link LatencyHistogram}s, so that recording from the bus threads and from the process thread at the
+ * same time costs a few uncontended atomic operations. Exposed through JMX by the {@link MetricsRegistry}
+ * and as a whole by {@link #snapshot()}.
+ */
+public class ProcessMetrics implements ProcessMetricsMXBean {
+
+    private final int processId;
+    private final MailBox mailBox;
+
+    private final Map<Class<?>, LongAdder> sent;
+    private final Map<Class<?>, LongAdder> received;
+
+    private final LatencyHistogram dispatchLatency;
+    private final LatencyHistogram receiveFromSyncTime;
+    private final LatencyHistogram synchronizeTime;
+    private final LatencyHistogram sendToSyncTime;
+    private final LatencyHistogram requestSCTime;
+    private final LatencyHistogram creditWaitTime;
+    private final LatencyHistogram tokenHopLatency;
+    private final LatencyHistogram tokenRotationTime;
+    private final LatencyHistogram clockSkew;
+    private final LatencyHistogram snapshotPause;
+    private final LatencyHistogram snapshotDuration;
+
+    /**
+     * Arrival time of the token at the process, 0 before its first visit.
+     */
+    private volatile long lastTokenArrival;
+
+    /**
+     * @param processId The id of the process.
+     * @param mailBox The mailbox of the process, whose depth is reported.
+     */
+    public ProcessMetrics(int processId, MailBox mailBox) {
+        this.processId = processId;
+        this.mailBox = mailBox;
+        this.sent = new ConcurrentHashMap<>();
+        this.received = new ConcurrentHashMap<>();
+        this.dispatchLatency = new LatencyHistogram();
+        this.receiveFromSyncTime = new LatencyHistogram();
+        this.synchronizeTime = new LatencyHistogram();
+        this.sendToSyncTime = new LatencyHistogram();
+        this.requestSCTime = new LatencyHistogram();
+        this.creditWaitTime = new LatencyHistogram();
+        this.tokenHopLatency = new LatencyHistogram();
+        this.tokenRotationTime = new LatencyHistogram();
+        this.clockSkew = new LatencyHistogram();
+        this.snapshotPause = new LatencyHistogram();
+        this.snapshotDuration = new LatencyHistogram();
+    }
+
+    /**
+     * Counts a message sent by the process.
+     */
+    public void onSent(Message<?> message) {
+        counterOf(this.sent, message).increment();
+    }
+
+    /**
+     * Records the dispatch of a message to the process: its bus latency and, if it comes from another
+     * process, its type.
+     */
+    public void onDispatch(Message<?> message) {
+        if (message.getPostedAt() != 0) this.dispatchLatency.recordSince(message.getPostedAt());
+        if (message.getSender() != this.processId) counterOf(this.received, message).increment();
+    }
+
+    /**
+     * Records the arrival of the token at the process: its hop from the previous holder, and the time
+     * since its previous visit.
+     */
+    public void onToken(Message<?> tokenMessage) {
+        long now = System.nanoTime();
+        if (tokenMessage.getPostedAt() != 0) this.tokenHopLatency.record(now - tokenMessage.getPostedAt());
+        if (this.lastTokenArrival != 0) this.tokenRotationTime.record(now - this.lastTokenArrival);
+        this.lastTokenArrival = now;
+    }
+
+    /**
+     * Records the skew between the Lamport clock of the process and the timestamp of a message received.
+     *
+     * @param localClock The clock of the process, before the merge.
+     * @param timestamp The timestamp of the message.
+     */
+    public void onClockMerge(long localClock, long timestamp) {
+        this.clockSkew.record(Math.abs(localClock - timestamp));
+    }
+
+    public void recordReceiveFromSync(long startNanos) {
+        this.receiveFromSyncTime.recordSince(startNanos);
+    }
+
+    public void recordSynchronize(long startNanos) {
+        this.synchronizeTime.recordSince(startNanos);
+    }
+
+    public void recordSendToSync(long startNanos) {
+        this.sendToSyncTime.recordSince(startNanos);
+    }
+
+    public void recordRequestSC(long startNanos) {
+        this.requestSCTime.recordSince(startNanos);
+    }
+
+    public void recordCreditWait(long startNanos) {
+        this.creditWaitTime.recordSince(startNanos);
+    }
+
+    /**
+     * Records the cost of a local snapshot.
+     *
+     * @param pauseNanos The time the process held its sends and deliveries to record its local state.
+     * @param durationNanos The time from the recording of the local state to the closing of its channels.
+     */
+    public void recordSnapshot(long pauseNanos, long durationNanos) {
+        this.snapshotPause.record(pauseNanos);
+        this.snapshotDuration.record(durationNanos);
+    }
+
+    /**
+     * @return All the metrics of the process.
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(this.processId, this.getMessagesSent(), this.getMessagesReceived(),
+                this.getDispatchLatency(), this.getMailboxDepth(), this.getMailboxPeakDepth(),
+                this.getMailboxDropped(), this.getReceiveFromSyncTime(), this.getSynchronizeTime(),
+                this.getSendToSyncTime(), this.getRequestSCTime(), this.getCreditWaitTime(), this.getTokenHopLatency(), this.getTokenRotationTime(), this.getClockSkew(),
+                this.getSnapshotPause(), this.getSnapshotDuration());
+    }
+
+    @Override
+    public int getProcessId() {
+        return this.processId;
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSent() {
+        return countsOf(this.sent);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesReceived() {
+        return countsOf(this.received);
+    }
+
+    @Override
+    public HistogramSnapshot getDispatchLatency() {
+        return this.dispatchLatency.snapshot();
+    }
+
+    @Override
+    public int getMailboxDepth() {
+        return this.mailBox.size();
+    }
+
+    @Override
+    public int getMailboxPeakDepth() {
+        return this.mailBox.getPeakSize();
+    }
+
+    @Override
+    public long getMailboxDropped() {
+        return this.mailBox.getDroppedCount();
+    }
+
+    @Override
+    public HistogramSnapshot getReceiveFromSyncTime() {
+        return this.receiveFromSyncTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSynchronizeTime() {
+        return this.synchronizeTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSendToSyncTime() {
+        return this.sendToSyncTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getRequestSCTime() {
+        return this.requestSCTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getCreditWaitTime() {
+        return this.creditWaitTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getTokenHopLatency() {
+        return this.tokenHopLatency.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getTokenRotationTime() {
+        return this.tokenRotationTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getClockSkew() {
+        return this.clockSkew.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSnapshotPause() {
+        return this.snapshotPause.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSnapshotDuration() {
+        return this.snapshotDuration.snapshot();
+    }
+
+    private static LongAdder counterOf(Map<Class<?>, LongAdder> counters, Message<?> message) {
+        // get() ne verrouille pas, computeIfAbsent() seulement pour le premier message d'un type
+        LongAdder counter = counters.get(message.getClass());
+        return counter != null ? counter : counters.computeIfAbsent(message.getClass(), type -> new LongAdder());
+    }
+
+    private static Map<String, Long> countsOf(Map<Class<?>, LongAdder> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((type, counter) -> counts.put(type.getSimpleName(), counter.sum()));
+        return counts;
+    }
+}
@@ -0,0 +1,75 @@
+package fr.usmb.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a process, registered as {@code fr.usmb:type=Process,name=P<id>}.
+ * Durations are in nanoseconds, clock skews in Lamport ticks.
+ */
+public interface ProcessMetricsMXBean {
+
+    int getProcessId();
+
+    /**
+     * @return The number of messages sent by the process, by message type.
+     */
+    Map<String, Long> getMessagesSent();
+
+    /**
+     * @return The number of messages of other processes dispatched to the process, by message type.
+     */
+    Map<String, Long> getMessagesReceived();
+
+    /**
+     * @return The time between the post of a message on the bus of the JVM and its dispatch to the process.
+     */
+    HistogramSnapshot getDispatchLatency();
+
+    int getMailboxDepth();
+
+    int getMailboxPeakDepth();
+
+    /**
+     * @return The number of messages dropped or refused because the mailbox was full.
+     */
+    long getMailboxDropped();
+
+    HistogramSnapshot getReceiveFromSyncTime();
+
+    HistogramSnapshot getSynchronizeTime();
+
+    HistogramSnapshot getSendToSyncTime();
+
+    HistogramSnapshot getRequestSCTime();
+
+    /**
+     * @return The time the process waited for credits before sending, under flow control.
+     */
+    HistogramSnapshot getCreditWaitTime();
+
+    /**
+     * @return The time between the post of the token by its previous holder and its dispatch to the process.
+     */
+    HistogramSnapshot getTokenHopLatency();
+
+    /**
+     * @return The time between two arrivals of the token at the process.
+     */
+    HistogramSnapshot getTokenRotationTime();
+
+    /**
+     * @return The difference between the Lamport clock of the process and the timestamps of the messages it receives.
+     */
+    HistogramSnapshot getClockSkew();
+
+    /**
+     * @return The time the process held its sends and deliveries to record its part of a global snapshot.
+     */
+    HistogramSnapshot getSnapshotPause();
+
+    /**
+     * @return The time from the recording of the local state of the process to the end of its part of a
+     * global snapshot, when all its incoming channels are recorded.
+     */
+    HistogramSnapshot getSnapshotDuration();
+}
@@ -0,0 +1,26 @@
+package fr.usmb.process;
+
+/**
+ * The delivery order of the messages sent with {@code broadcast()} and {@code broadcastAsync()}.
+ */
+public enum BroadcastOrder {
+
+    /**
+     * Messages are added to the mailboxes as soon as they arrive, in any order.
+     */
+    UNORDERED,
+
+    /**
+     * A message is added to the mailboxes only after every message that causally precedes it, that
+     * is every message its sender had sent or received before sending it. Messages arriving too early
+     * are held back, using vector clocks.
+     */
+    CAUSAL,
+
+    /**
+     * Every process adds the messages to its mailbox in the same order, by Lamport timestamp then sender
+     * id. A message is held back until every other process has acknowledged it or sent a later message.
+     * The sender also adds its own messages to its mailbox, at their place in the order.
+     */
+    TOTAL
+}
@@ -0,0 +1,352 @@
+package fr.usmb.process;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.CausalMessage;
+import fr.usmb.messages.CausalSyncMessage;
+import fr.usmb.messages.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Causal delivery of the broadcasts of one process, with the algorithm of Birman, Schiper and Stephenson.
+ * Each broadcast is stamped with the vector clock of its sender; a received message is delivered to the
+ * mailbox once it is the next message of its sender and everything its sender had delivered before sending
+ * it was delivered here. Messages arriving too early are held back, in one queue per sender ordered by
+ * their sender's entry, and released as soon as their predecessors are delivered.
+ * <p>
+ * When a process joins, each member that sees it in the view sends it a {@link CausalSyncMessage} with its
+ * vector clock: the joiner skips the broadcasts the member sent before, and takes the entries of the
+ * processes no longer in the cluster from it, so that the broadcasts depending on them are not held back
+ * forever. The joiner holds back the broadcasts of a member until its sync arrives.
+ * <p>
+ * When a process leaves, the messages held back from it are dropped, and those depending on its
+ * broadcasts that never arrived are released: a process leaving no longer holds back the others.
+ */
+public class CausalOrder {
+
+    private static final Comparator<CausalMessage<?>> bySenderEntry =
+            Comparator.comparingLong(message -> message.getVector()[message.getSender()]);
+
+    private final int owner;
+    private final MailBox mailBox;
+    private final MembershipService membership;
+    private final EventBusService bus;
+    private final Consumer<Message<?>> onDelivery;
+    private final Consumer<View> viewListener;
+
+    private final ReentrantLock lock;
+    private final VectorClock clock;
+
+    /**
+     * Hold-back queues, indexed by sender id.
+     */
+    private final List<PriorityQueue<CausalMessage<?>>> held;
+    private int heldCount;
+
+    /**
+     * Whether the owner is in the view yet, and the members of the last view.
+     */
+    private boolean joined;
+    private int[] members;
+
+    /**
+     * Members whose sync has not been received yet, and those whose sync came before the owner saw
+     * itself in the view.
+     */
+    private final Set<Integer> unsynced;
+    private final Set<Integer> synced;
+
+    /**
+     * Processes which left the cluster, whose late broadcasts are ignored.
+     */
+    private final Set<Integer> departed;
+
+    /**
+     * @param owner The id of the process.
+     * @param mailBox The mailbox receiving the delivered broadcasts.
+     * @param membership The membership service.
+     * @param bus The bus on which the syncs are sent.
+     * @param onDelivery Called for each broadcast of another process delivered to the mailbox, in order.
+     */
+    public CausalOrder(int owner, MailBox mailBox, MembershipService membership, EventBusService bus, Consumer<Message<?>> onDelivery) {
+        this.owner = owner;
+        this.mailBox = mailBox;
+        this.membership = membership;
+        this.bus = bus;
+        this.onDelivery = onDelivery;
+
+        this.lock = new ReentrantLock();
+        this.clock = new VectorClock();
+        this.held = new ArrayList<>();
+        this.unsynced = new HashSet<>();
+        this.synced = new HashSet<>();
+        this.departed = new HashSet<>();
+        View view = this.membership.getView();
+        this.joined = view.contains(owner);
+        this.members = view.getMembers();
+        if (!this.joined) {
+            for (int member : this.members) this.unsynced.add(member);
+        }
+
+        this.viewListener = this::onView;
+        this.membership.addListener(this.viewListener);
+    }
+
+    /**
+     * Counts a new broadcast of the owner and returns its stamp.
+     *
+     * @return The vector clock of the owner, its new broadcast included.
+     */
+    public long[] stamp() {
+        this.lock.lock();
+        try {
+            this.clock.tick(this.owner);
+            return this.clock.toArray();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Receives a broadcast from another process. It is added to the mailbox if it can be delivered, together
+     * with the held-back messages it unblocks, in causal order; it is held back otherwise. Messages already
+     * delivered, or skipped since a sync, are ignored.
+     *
+     * @param message The received message.
+     * @return The messages delivered to the mailbox by this call, in delivery order.
+     */
+    public List<CausalMessage<?>> receive(CausalMessage<?> message) {
+        int sender = message.getSender();
+        this.lock.lock();
+        try {
+            if (this.departed.contains(sender)) return Collections.emptyList();
+            // Le flux de ce membre ne commence pour nous qu'à sa synchronisation
+            if (this.unsynced.contains(sender) || !this.clock.isNext(message.getVector(), sender)) {
+                if (message.getVector()[sender] > this.clock.get(sender)) {
+                    this.queueOf(sender).add(message);
+                    this.heldCount++;
+                }
+                return Collections.emptyList();
+            }
+
+            List<CausalMessage<?>> delivered = new ArrayList<>();
+            this.deliver(message, delivered);
+            this.release(delivered);
+            this.flush(delivered);
+            return delivered;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Receives the sync of a member, sent when it learnt that the owner joined, then delivers what it
+     * unblocks. A sync which is not awaited is ignored.
+     *
+     * @param sync The sync received.
+     */
+    public void onSync(CausalSyncMessage sync) {
+        int sender = sync.getSender();
+        long[] vector = sync.getMessage();
+        this.lock.lock();
+        try {
+            // La synchronisation peut arriver avant que la vue où l'on entre nous soit notifiée
+            if (!this.unsynced.remove(sender) && (this.joined || !this.synced.add(sender))) return;
+
+            this.clock.advance(sender, sender < vector.length ? vector[sender] : 0);
+            View view = this.membership.getView();
+            for (int i = 0; i < vector.length; i++) {
+                // Les processus partis ne diffuseront plus : leurs messages sont connus du membre
+                if (i != this.owner && !view.contains(i)) this.clock.advance(i, vector[i]);
+            }
+
+            long skipped = this.clock.get(sender);
+            PriorityQueue<CausalMessage<?>> queue = sender < this.held.size() ? this.held.get(sender) : null;
+            while (queue != null && !queue.isEmpty() && queue.peek().getVector()[sender] <= skipped) {
+                queue.poll();
+                this.heldCount--;
+            }
+
+            List<CausalMessage<?>> delivered = new ArrayList<>();
+            this.release(delivered);
+            this.flush(delivered);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages currently held back.
+     */
+    public int heldCount() {
+        this.lock.lock();
+        try {
+            return this.heldCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return A copy of the messages currently held back, in no particular order.
+     */
+    public List<CausalMessage<?>> heldMessages() {
+        this.lock.lock();
+        try {
+            List<CausalMessage<?>> messages = new ArrayList<>(this.heldCount);
+            for (PriorityQueue<CausalMessage<?>> queue : this.held) {
+                if (queue != null) messages.addAll(queue);
+            }
+            return messages;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops following the membership. Must be called when the process leaves.
+     */
+    public void close() {
+        this.membership.removeListener(this.viewListener);
+    }
+
+    /**
+     * @return A copy of the vector clock of the owner.
+     */
+    public long[] getVector() {
+        this.lock.lock();
+        try {
+            return this.clock.toArray();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Follows the membership: sends a sync to each new member, and stops waiting on the members that left.
+     */
+    private void onView(View view) {
+        Map<Integer, CausalSyncMessage> syncs = new LinkedHashMap<>();
+        this.lock.lock();
+        try {
+            if (!this.joined) {
+                for (int member : view.getMembers()) {
+                    if (member != this.owner && this.isNew(member) && !this.synced.contains(member)) this.unsynced.add(member);
+                }
+                this.joined = view.contains(this.owner);
+                if (this.joined) this.synced.clear();
+            } else {
+                for (int member : view.getMembers()) {
+                    if (member == this.owner || !this.isNew(member)) continue;
+                    // Nos diffusions suivantes auront une entrée plus grande que celle-ci
+                    syncs.put(member, new CausalSyncMessage(this.clock.toArray(), this.owner));
+                }
+            }
+            for (int member : this.members) {
+                if (member != this.owner && !view.contains(member)) this.depart(member);
+            }
+            this.members = view.getMembers();
+
+            List<CausalMessage<?>> delivered = new ArrayList<>();
+            this.release(delivered);
+            this.flush(delivered);
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (Map.Entry<Integer, CausalSyncMessage> sync : syncs.entrySet()) {
+            this.bus.postTo(sync.getKey(), sync.getValue());
+        }
+    }
+
+    /**
+     * Drops the messages held back from a process which left, and waives the broadcasts of that process
+     * the other held-back messages wait for. Must be called with the lock held.
+     */
+    private void depart(int member) {
+        this.departed.add(member);
+        this.unsynced.remove(member);
+        if (member < this.held.size() && this.held.get(member) != null) {
+            this.heldCount -= this.held.get(member).size();
+            this.held.set(member, null);
+        }
+
+        // Ses messages manquants n'arriveront plus : ceux qui en dépendent ne les attendent plus
+        long last = this.clock.get(member);
+        for (PriorityQueue<CausalMessage<?>> queue : this.held) {
+            if (queue == null) continue;
+            for (CausalMessage<?> message : queue) {
+                long[] vector = message.getVector();
+                if (member < vector.length) last = Math.max(last, vector[member]);
+            }
+        }
+        this.clock.advance(member, last);
+    }
+
+    /**
+     * Delivers the held-back messages which can be, as long as there are some. Must be called with the lock held.
+     */
+    private void release(List<CausalMessage<?>> delivered) {
+        // Chaque livraison peut débloquer la tête de file d'un autre émetteur
+        boolean progress = this.heldCount > 0;
+        while (progress) {
+            progress = false;
+            for (int from = 0; from < this.held.size(); from++) {
+                if (this.unsynced.contains(from)) continue;
+                PriorityQueue<CausalMessage<?>> queue = this.held.get(from);
+                while (queue != null && !queue.isEmpty() && this.clock.isNext(queue.peek().getVector(), from)) {
+                    this.deliver(queue.poll(), delivered);
+                    this.heldCount--;
+                    progress = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the delivered messages to the mailbox. Must be called with the lock held, so that two concurrent
+     * deliveries do not swap their order in the mailbox.
+     */
+    private void flush(List<CausalMessage<?>> delivered) {
+        if (delivered.isEmpty()) return;
+        this.mailBox.addAll(delivered);
+        for (CausalMessage<?> message : delivered) {
+            this.onDelivery.accept(message);
+        }
+    }
+
+    private void deliver(CausalMessage<?> message, List<CausalMessage<?>> delivered) {
+        this.clock.merge(message.getVector());
+        delivered.add(message);
+    }
+
+    /**
+     * Tells whether a member was not in the last view.
+     */
+    private boolean isNew(int member) {
+        return Arrays.binarySearch(this.members, member) < 0;
+    }
+
+    private PriorityQueue<CausalMessage<?>> queueOf(int sender) {
+        while (this.held.size() <= sender) this.held.add(null);
+        PriorityQueue<CausalMessage<?>> queue = this.held.get(sender);
+        if (queue == null) {
+            queue = new PriorityQueue<>(bySenderEntry);
+            this.held.set(sender, queue);
+        }
+        return queue;
+    }
+}
@@ -1,131 +1,248 @@
 package fr.usmb.process;
 
+import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 import fr.usmb.EventBusService;
+import fr.usmb.ExecutionMode;
+import fr.usmb.barrier.Barrier;
+import fr.usmb.journal.JournalRecovery;
+import fr.usmb.journal.ProcessJournal;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.ProcessIds;
 import fr.usmb.messages.*;
-import fr.usmb.token.Token;
+import fr.usmb.metrics.MetricsRegistry;
+import fr.usmb.metrics.ProcessMetrics;
+import fr.usmb.token.MutexAlgorithm;
+import fr.usmb.token.RingMutex;
+import fr.usmb.token.TokenMutex;
 import fr.usmb.token.TokenState;
+import fr.usmb.token.TokenWatchdog;
 import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.Setter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Getter
 public class Communicator {
 
     @Getter
-    private final int id = Communicator.nbProcess++;
+    private final int id;
 
-    public static final int maxNbProcess = 3;
-    private static int nbProcess = 0;
+    @Getter(AccessLevel.PACKAGE)
+    private final MembershipService membership;
 
     @Getter(AccessLevel.PACKAGE)
     private final EventBusService bus;
 
-    @Getter
-    @Setter(AccessLevel.PACKAGE)
-    private TokenState state;
+    /**
+     * Mutual exclusion algorithm behind {@link #requestSC()} and {@link #releaseSC()}.
+     */
+    private final TokenMutex mutex;
+
+    /**
+     * Barrier behind {@link #synchronize()}.
+     */
+    private final Barrier barrier;
 
     private final String name;
     private final ProcessLogger logger;
 
     private final LamportClock clock;
-    private final Semaphore semaphore;
 
     @Getter
     private final MailBox mailBox;
-    private final List<String> syncReceived;
+
+    /**
+     * Counters and latency histograms of the process, also exposed through JMX.
+     */
+    @Getter
+    private final ProcessMetrics metrics;
+
+    /**
+     * Acknowledged sends waiting for their acknowledgements.
+     */
+    private final PendingAcks pendingAcks;
+
+    /**
+     * Delivery order of {@link #broadcast(Object)} and {@link #broadcastAsync(Object)}.
+     */
+    private final BroadcastOrder broadcastOrder;
+
+    /**
+     * Hold-back queue of the causal broadcasts, created in {@link BroadcastOrder#CAUSAL} order only.
+     */
+    private final CausalOrder causalOrder;
+
+    /**
+     * Hold-back queue of the totally ordered broadcasts, created in {@link BroadcastOrder#TOTAL} order only.
+     */
+    private final TotalOrder totalOrder;
+
+    /**
+     * Credits of the sends to the other processes, null if the flow control is disabled.
+     */
+    private final FlowControl flowControl;
+
+    /**
+     * Journal of the mailbox, the clock and the token, null if the process is not persistent.
+     */
+    private final ProcessJournal journal;
+
+    /**
+     * Recorder of the part of the process in the global snapshots, null if the snapshots are disabled.
+     */
+    @Getter(AccessLevel.NONE)
+    private final SnapshotRecorder snapshots;
+
+    /**
+     * Heartbeats and regeneration of the token, null if disabled.
+     */
+    @Getter(AccessLevel.NONE)
+    private final TokenWatchdog watchdog;
+
+    /**
+     * Time during which the process still receives after leaving the view.
+     */
+    @Getter(AccessLevel.NONE)
+    private final long leaveGraceMillis;
 
     public Communicator(ProcessLogger logger) {
+        this(logger, CommunicatorOptions.defaults());
+    }
+
+    public Communicator(ProcessLogger logger, CommunicatorOptions options) {
+
+        // Le transport partage les ids entre les noeuds, il doit exister avant le join
+        this.bus = EventBusService.getInstance();
+        this.membership = MembershipService.getInstance();
+        this.id = this.membership.newId();
+        this.leaveGraceMillis = options.getLeaveGraceMillis();
 
         this.clock = new LamportClock();
         this.logger = logger;
-        this.semaphore = new Semaphore(1);
-        this.mailBox = new MailBox();
+        this.mailBox = new MailBox(options.getMailBoxCapacity(), options.getOverflowPolicy());
+        this.metrics = new ProcessMetrics(this.id, this.mailBox);
+        MetricsRegistry.getInstance().register(this.metrics);
+
+        this.flowControl = options.getFlowControlWindow() > 0
+                ? new FlowControl(this.id, options.getFlowControlWindow(), this.membership, this.bus)
+                : null;
+        if (this.flowControl != null) {
+            this.mailBox.setRemovalListener(this.flowControl::onRemoved);
+            this.mailBox.setAfterRemovals(this.flowControl::returnCredits);
+        }
+        this.mailBox.setOverflowListener(this::onOverflow);
         
-        this.name = "P" + this.id;
+        this.name = ProcessIds.nameOf(this.id);
+
+        this.journal = options.getJournalDirectory() != null ? this.openJournal(options) : null;
+
+        this.mutex = TokenMutex.create(options.getMutexAlgorithm(), this.id, this.membership, this.bus, this.logger);
+        this.mutex.setTokenSentListener(this::onTokenSent);
+        this.watchdog = options.getHeartbeatIntervalMillis() > 0 ? this.newWatchdog(options) : null;
+        this.barrier = Barrier.create(options.getBarrierAlgorithm(), this.id, this.membership, this.bus, this.logger);
+
+        this.pendingAcks = new PendingAcks(this.id, this.membership, options.getAckTimeoutMillis());
+
+        this.broadcastOrder = options.getBroadcastOrder();
+        this.causalOrder = this.broadcastOrder == BroadcastOrder.CAUSAL
+                ? new CausalOrder(this.id, this.mailBox, this.membership, this.bus, this::onCausalDelivery)
+                : null;
+        this.totalOrder = this.broadcastOrder == BroadcastOrder.TOTAL
+                ? new TotalOrder(this.id, this.clock, this.mailBox, this.membership, this.bus, this::onTotalDelivery)
+                : null;
+        this.snapshots = options.getSnapshotSink() != null ? new SnapshotRecorder(this, options.getSnapshotSink()) : null;
+
+        // Les handlers lisent tous les champs : un message reçu plus tôt serait perdu
+        this.bus.registerProcess(this.id, this);
+        // La boîte existe avant que les autres ne routent vers ce processus
+        this.membership.add(this.id);
+
+        // Le jeton détenu au moment de l'arrêt est perdu pour les autres : il est recréé ici
+        if (this.journal != null && this.journal.getRecovery().isTokenHeld()) {
+            this.logger.warn("The token was held when the process stopped, recreating it");
+            this.initToken();
+        }
 
-        this.bus = EventBusService.getInstance();
-        this.bus.registerSubscriber(this);
+    }
 
-        this.state = TokenState.NULL;
-        this.syncReceived = new ArrayList<>();
+    /**
+     * Opens the journal of the process and restores the mailbox and the clock from it.
+     */
+    private ProcessJournal openJournal(CommunicatorOptions options) {
+        ProcessJournal processJournal;
+        try {
+            processJournal = new ProcessJournal(options.getJournalDirectory().resolve(this.name),
+                    options.getJournalSegmentSize(), options.getJournalSyncIntervalMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the journal of " + this.name, e);
+        }
 
+        JournalRecovery recovery = processJournal.getRecovery();
+        this.mailBox.attach(processJournal);
+        this.clock.restore(recovery.getClock(), processJournal::reserveClock);
+        if (!recovery.isEmpty()) {
+            this.logger.info("Recovered {} messages and clock {} from the journal", recovery.getMessages().size(), recovery.getClock());
+        }
+        return processJournal;
     }
 
     /**
-     * Increments the Lamport clock. This method ensures mutual exclusion by acquiring a semaphore
-     * before incrementing the clock. It is used to ensure that the clock is updated consistently
-     * across multiple threads.
+     * Starts the heartbeats of the process and the watch of the token ring.
      */
-    public void incClock() {
-        try {
-            this.semaphore.acquire();
-            this.clock.increment();
-        } catch (InterruptedException e) {
-            this.logger.error("Error while incrementing the clock", e);
-            Thread.currentThread().interrupt();
-        } finally {
-            this.semaphore.release();
+    private TokenWatchdog newWatchdog(CommunicatorOptions options) {
+        if (!(this.mutex instanceof RingMutex)) {
+            throw new IllegalArgumentException("Token regeneration needs the " + MutexAlgorithm.TOKEN_RING + " algorithm");
         }
+        return new TokenWatchdog((RingMutex) this.mutex, this.id, this.membership, this.bus, this.logger,
+                options.getHeartbeatIntervalMillis(), options.getHeartbeatTimeoutMillis(), options.getTokenTimeoutMillis());
     }
 
     /**
-     * Retrieves the current value of the Lamport clock. This method is protected by a semaphore to
-     * ensure that the clock is accessed safely in a concurrent environment.
+     * Increments the Lamport clock. The clock is updated in a single atomic step, so this method
+     * never blocks and can be called concurrently with the bus threads.
+     *
+     * @return The new value of the Lamport clock.
+     */
+    public long incClock() {
+        return this.clock.tick();
+    }
+
+    /**
+     * Retrieves the current value of the Lamport clock.
      *
      * @return The current value of the Lamport clock.
      */
-    public int getClock() {
-        try {
-            this.semaphore.acquire();
-            return this.clock.get();
-        } catch (InterruptedException e) {
-            this.logger.error("Error while getting the clock", e);
-            Thread.currentThread().interrupt();
-            return -1;
-        } finally {
-            this.semaphore.release();
-        }
+    public long getClock() {
+        return this.clock.get();
     }
 
 
     /**
      * Sends a broadcast message to all processes. The Lamport clock is incremented unless the message
      * is a system message, in which case the clock remains unaffected. This method posts the message
-     * to the event bus for delivery.
+     * to the event bus for delivery, in the broadcast order chosen at construction time. Under flow
+     * control, it first waits until every other process has room for the message.
      *
      * @param data The data to broadcast.
      * @param isSystemMessage True if the message is a system message, false otherwise.
      * @param <T> The type of the message payload.
      */
     public <T> void broadcast(T data, boolean isSystemMessage) {
-        try {
+        if (!this.awaitBroadcastCredits(1)) return;
+        Message<T> broadcastMessage = this.newBroadcast(data, !isSystemMessage);
 
-            BroadcastMessage<T> broadcastMessage = new BroadcastMessage<>(data, this.name);
-
-            if (!isSystemMessage) {
-                this.semaphore.acquire();
-                this.clock.increment();
-                broadcastMessage.setTimestamp(clock.get());
-            }
-
-            // Creating the broadcast message
-            broadcastMessage.setSender(this.name);
-
-            this.logger.info("Broadcasting message: " + broadcastMessage.getMessage());
-            this.bus.postEvent(broadcastMessage);
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            if (!isSystemMessage) {
-                this.semaphore.release();
-            }
-        }
+        this.logger.info("Broadcasting message: {}", broadcastMessage.getMessage());
+        this.stamp(broadcastMessage, ProcessIds.NONE);
+        this.bus.postEvent(broadcastMessage);
     }
 
     /**
@@ -141,8 +258,8 @@ public class Communicator {
 
     /**
      * Sends a message to a specific process. The Lamport clock is incremented unless the message
-     * is a system message. This method acquires a semaphore to ensure safe access to the clock
-     * and posts the message to the event bus for delivery.
+     * is a system message. This method posts the message directly to the inbox of the destination,
+     * after waiting for a credit of the destination under flow control.
      *
      * @param to The ID of the destination process.
      * @param data The message to send.
@@ -150,29 +267,16 @@ public class Communicator {
      * @param <T> The type of the message payload.
      */
     public <T> void sendTo(int to, T data, boolean isSystemMessage) {
-        try {
-
-            DedicatedMessage<T> dedicatedMessage = new DedicatedMessage<>(data, this.name, String.valueOf(to));
-
-            if (!isSystemMessage) {
-                this.semaphore.acquire();
-                this.clock.increment();
-                dedicatedMessage.setTimestamp(clock.get());
-            }
-            // Creating the dedicated dedicatedMessage
-            dedicatedMessage.setTimestamp(dedicatedMessage.getTimestamp());
-            dedicatedMessage.setSender(this.name);
-            dedicatedMessage.setReceiver(String.valueOf(to));
+        if (!this.awaitCredits(to, 1)) return;
+        DedicatedMessage<T> dedicatedMessage = new DedicatedMessage<>(data, this.id, to);
 
-            this.logger.info("Sending dedicatedMessage: " + dedicatedMessage.getMessage() + " to " + to);
-            this.bus.postEvent(dedicatedMessage);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } finally {
-            if (!isSystemMessage) {
-                this.semaphore.release();
-            }
+        if (!isSystemMessage) {
+            dedicatedMessage.setTimestamp(this.clock.tick());
         }
+
+        this.logger.info("Sending dedicatedMessage: {} to {}", dedicatedMessage.getMessage(), to);
+        this.stamp(dedicatedMessage, to);
+        this.bus.postTo(to, dedicatedMessage);
     }
 
     /**
@@ -187,57 +291,119 @@ public class Communicator {
         sendTo(to, data, false);
     }
 
+    /**
+     * Broadcasts a batch of payloads to all processes as a single bus event. The payloads are given
+     * a contiguous range of Lamport timestamps in one clock operation, and are unpacked into the
+     * mailbox of each receiver in that order.
+     *
+     * @param data The payloads to broadcast, in order.
+     * @param <T> The type of the message payloads.
+     */
+    public <T> void broadcastAll(Collection<T> data) {
+        if (data.isEmpty() || !this.awaitBroadcastCredits(data.size())) return;
+
+        BroadcastBatchMessage<T> batchMessage = new BroadcastBatchMessage<>(new ArrayList<>(data), this.id);
+        batchMessage.setTimestamp(this.clock.tick(batchMessage.size()));
+
+        this.logger.info("Broadcasting a batch of {} messages", batchMessage.size());
+        this.stamp(batchMessage, ProcessIds.NONE);
+        this.bus.postEvent(batchMessage);
+    }
+
+    /**
+     * Sends a batch of payloads to a specific process as a single bus event. The payloads are given
+     * a contiguous range of Lamport timestamps in one clock operation, and are unpacked into the
+     * mailbox of the receiver in that order.
+     *
+     * @param to The ID of the destination process.
+     * @param data The payloads to send, in order.
+     * @param <T> The type of the message payloads.
+     */
+    public <T> void sendAll(int to, Collection<T> data) {
+        if (data.isEmpty() || !this.awaitCredits(to, data.size())) return;
+
+        DedicatedBatchMessage<T> batchMessage = new DedicatedBatchMessage<>(new ArrayList<>(data), this.id, to);
+        batchMessage.setTimestamp(this.clock.tick(batchMessage.size()));
+
+        this.logger.info("Sending a batch of {} messages to {}", batchMessage.size(), to);
+        this.stamp(batchMessage, to);
+        this.bus.postTo(to, batchMessage);
+    }
+
+
+    /**
+     * Broadcasts a message to all processes and returns immediately. The returned future is completed
+     * once every other member of the current view has acknowledged the delivery of the message to its
+     * mailbox; a member leaving is no longer waited for. It fails if the mailbox of a member is full,
+     * or once the {@link CommunicatorOptions#getAckTimeoutMillis() timeout} has passed. Any number of
+     * acknowledged sends can be in flight at the same time.
+     *
+     * @param data The data to broadcast.
+     * @param <T> The type of the message payload.
+     * @return A future completed when all the acknowledgements have been received.
+     */
+    public <T> CompletableFuture<Void> broadcastAsync(T data) {
+        if (!this.awaitBroadcastCredits(1)) return CompletableFuture.failedFuture(new InterruptedException("Interrupted while waiting for credits"));
+        Message<T> broadcastMessage = this.newBroadcast(data, true);
+        broadcastMessage.setCorrelationId(this.pendingAcks.registerOthers());
+        // Le future est pris avant l'envoi : un refus peut retirer l'attente avant le retour de postEvent
+        CompletableFuture<Void> future = this.pendingAcks.futureOf(broadcastMessage.getCorrelationId());
+
+        this.logger.info("Broadcasting acknowledged message: {}", broadcastMessage.getMessage());
+        this.stamp(broadcastMessage, ProcessIds.NONE);
+        this.bus.postEvent(broadcastMessage);
+        return future;
+    }
+
+    /**
+     * Sends a message to a specific process and returns immediately. The returned future is completed
+     * once the destination has acknowledged the delivery of the message to its mailbox. It fails if the
+     * mailbox of the destination is full, if the destination leaves before acknowledging, or once the
+     * {@link CommunicatorOptions#getAckTimeoutMillis() timeout} has passed. Any number of acknowledged
+     * sends can be in flight at the same time.
+     *
+     * @param dest The ID of the destination process.
+     * @param data The message to send.
+     * @param <T> The type of the message payload.
+     * @return A future completed when the acknowledgement has been received.
+     */
+    public <T> CompletableFuture<Void> sendToAsync(int dest, T data) {
+        if (!this.awaitCredits(dest, 1)) return CompletableFuture.failedFuture(new InterruptedException("Interrupted while waiting for credits"));
+        DedicatedMessage<T> dedicatedMessage = new DedicatedMessage<>(data, this.id, dest);
+        dedicatedMessage.setTimestamp(this.clock.tick());
+        dedicatedMessage.setCorrelationId(this.pendingAcks.register(dest));
+        CompletableFuture<Void> future = this.pendingAcks.futureOf(dedicatedMessage.getCorrelationId());
+
+        this.logger.info("Sending acknowledged message: {} to {}", dedicatedMessage.getMessage(), dest);
+        this.stamp(dedicatedMessage, dest);
+        this.bus.postTo(dest, dedicatedMessage);
+        return future;
+    }
 
     /**
      * Sends a synchronous broadcast message to all processes. If the current process is the sender,
      * it waits for acknowledgment from all other processes. Otherwise, it waits for the broadcast
-     * message to arrive. This method blocks the calling thread until synchronization is complete.
+     * message to arrive in its mailbox, where it is left for the caller. This method blocks the
+     * calling thread until synchronization is complete.
      *
      * @param data The data to broadcast synchronously.
      * @param from The ID of the sending process.
      * @param <T> The type of the message payload.
      */
     public <T> void broadcastSync(T data, int from) {
-        if (this.id == from) {
-            try {
-                BroadcastMessage<T> broadcastMessage = new BroadcastMessage<>(data, this.name);
-
-                // Envoyer le message et incrémenter l'horloge
-                synchronized (this) {
-                    this.clock.increment();
-                    broadcastMessage.setTimestamp(clock.get());
-                }
-
-                broadcastMessage.setSender(this.name);
-                this.logger.info("Broadcasting synchronous message: " + broadcastMessage.getMessage());
-                this.bus.postEvent(broadcastMessage);
-
-                // Attendre que tous les processus confirment la réception
-                synchronized (syncReceived) {
-                    while (syncReceived.size() < Communicator.maxNbProcess - 1) {
-                        syncReceived.wait();
-                    }
-                }
-
-                syncReceived.clear(); // Réinitialiser pour la prochaine synchronisation
-
+        try {
+            if (this.id == from) {
+                this.broadcastAsync(data).get();
                 this.logger.info("Synchronous broadcast completed. All processes acknowledged receipt.");
-
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        } else {
-            // Si ce n'est pas le processus 'from', il doit attendre de recevoir le message
-            synchronized (syncReceived) {
-                while (!syncReceived.contains(this.name)) {
-                    try {
-                        syncReceived.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        this.logger.error("Error while waiting for synchronous broadcast", e);
-                    }
-                }
+            } else {
+                // Si ce n'est pas le processus 'from', il doit attendre de recevoir le message
+                this.mailBox.awaitMessageFrom(from);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.error("Error while waiting for synchronous broadcast", e);
+        } catch (ExecutionException e) {
+            this.logger.error("Synchronous broadcast failed", e);
         }
     }
 
@@ -252,36 +418,16 @@ public class Communicator {
      * @param <T> The type of the message payload.
      */
     public <T> void sendToSync(int dest, T data) {
-        String destProcessName = "P" + dest;
-
+        long start = System.nanoTime();
         try {
-            DedicatedMessage<T> dedicatedMessage = new DedicatedMessage<>(data, this.name, destProcessName);
-
-            // Envoyer le message et incrémenter l'horloge
-            synchronized (this) {
-                this.clock.increment();
-                dedicatedMessage.setTimestamp(clock.get());
-            }
-
-            dedicatedMessage.setSender(this.name);
-            dedicatedMessage.setReceiver(destProcessName);
-
-            this.logger.info("Sending synchronous message: " + dedicatedMessage.getMessage() + " to " + destProcessName);
-            this.bus.postEvent(dedicatedMessage);
-
-            // Attendre que le processus destinataire accuse réception
-            synchronized (syncReceived) {
-                while (!syncReceived.contains(destProcessName)) {
-                    syncReceived.wait();
-                }
-            }
-
-            syncReceived.clear(); // Réinitialiser après la réception
-
-            this.logger.info("Synchronous send completed. Process " + destProcessName + " acknowledged receipt.");
-
+            this.sendToAsync(dest, data).get();
+            this.metrics.recordSendToSync(start);
+            this.logger.info("Synchronous send completed. Process P{} acknowledged receipt.", dest);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            this.logger.error("Error while waiting for the acknowledgement of P{}", dest, e);
+        } catch (ExecutionException e) {
+            this.logger.error("Synchronous send to P{} failed", dest, e);
         }
     }
 
@@ -289,41 +435,21 @@ public class Communicator {
 
 
     /**
-     * Sends the token to the next process in the logical ring. This method posts a system message
-     * (token) to the event bus without incrementing the Lamport clock, as token messages are system-related.
-     *
-     * @param tokenMessage The token message to send to the next process.
-     */
-    private void sendTokenToNextProcess(TokenMessage<?> tokenMessage) {
-        int nextProcess = (this.id + 1) % Communicator.maxNbProcess;
-        tokenMessage.getToken().setHolder(String.valueOf(nextProcess));
-        sendTo(nextProcess, tokenMessage, true);
-        this.logger.info("Sending the token to " + nextProcess);
-        this.bus.postEvent(tokenMessage);
-    }
-
-    /**
-     * Synchronizes the current process with all other processes. This method sends a synchronization
-     * message to all processes and blocks until all processes have reached the synchronization point.
-     * It waits for acknowledgment from all other processes before proceeding.
+     * Synchronizes the current process with all other processes. This method blocks until every member
+     * of the current view has called it the same number of times since the members last changed. The
+     * messages exchanged depend on the barrier algorithm chosen at construction time.
      */
     public void synchronize(){
-        SynchronizedMessage syncMessage = new SynchronizedMessage(this.name);
-        this.broadcast(syncMessage, true);
-
-        synchronized (syncReceived){
-            while (syncReceived.size() < Communicator.maxNbProcess - 1){
-                try {
-                    syncReceived.wait();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    this.logger.error("Error while waiting for synchronization", e);
-                }
-            }
+        long start = System.nanoTime();
+        try {
+            this.barrier.await();
+            this.metrics.recordSynchronize(start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.error("Error while waiting for synchronization", e);
+            return;
         }
-
-        syncReceived.clear();
-        this.logger.info("Process " + this.name + " is synchronized with all other processes");
+        this.logger.info("Process {} is synchronized with all other processes", this.name);
     }
 
     /**
@@ -332,62 +458,88 @@ public class Communicator {
      * from the mailbox and returned to the caller.
      *
      * @param from The ID of the process from which the message is expected.
-     * @return The message received from the specified process.
+     * @return The message received from the specified process, or null if the thread was interrupted.
      * @param <T> The type of the message payload.
      */
     public <T> Message<T> receiveFromSync(int from) {
-        String fromProcessName = "P" + from;
-        Message<T> receivedMessage = null;
+        Message<T> receivedMessage;
+        long start = System.nanoTime();
 
-        synchronized (mailBox) {
+        try {
             // Attendre jusqu'à recevoir un message provenant du processus "from"
-            while (receivedMessage == null) {
-                try {
-                    // Parcourir la boîte aux lettres pour trouver un message venant de "fromProcessName"
-                    for (Message<?> msg : mailBox.getMessages()) {
-                        if (msg.getSender().equalsIgnoreCase(fromProcessName)) {
-                            receivedMessage = (Message<T>) msg;
-                            break; // Quitter la boucle une fois le message trouvé
-                        }
-                    }
-
-                    if (receivedMessage == null) {
-                        // Si aucun message trouvé, attendre une notification d'un nouveau message
-                        mailBox.wait();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.error("Error while waiting for message from " + fromProcessName, e);
-                }
-            }
-
-            // Une fois le message trouvé, on le retire de la boîte aux lettres
-            mailBox.remove(receivedMessage);
+            receivedMessage = mailBox.take(from);
+            this.metrics.recordReceiveFromSync(start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Error while waiting for message from P{}", from, e);
+            return null;
         }
 
-        logger.info("Synchronous message from " + fromProcessName + " received.");
+        logger.info("Synchronous message from P{} received.", from);
         return receivedMessage;
     }
 
+    /**
+     * Receives the oldest message matching a matcher, leaving the other messages in the mailbox. This
+     * method blocks until such a message arrives.
+     *
+     * @param matcher The criteria of the message, e.g. {@code MessageMatcher.ofType(DedicatedMessage.class).and(MessageMatcher.from(2))}.
+     * @return The oldest matching message, or null if the thread was interrupted.
+     * @param <T> The type of the message payload.
+     */
+    public <T> Message<T> receive(MessageMatcher matcher) {
+        try {
+            return mailBox.take(matcher);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Error while waiting for a message matching a matcher", e);
+            return null;
+        }
+    }
+
+    /**
+     * Receives the oldest message matching a matcher, waiting at most a given time for one to arrive.
+     *
+     * @param matcher The criteria of the message.
+     * @param timeout The longest time to wait.
+     * @param unit The unit of the timeout.
+     * @return The oldest matching message, or null if none arrived in time or the thread was interrupted.
+     * @param <T> The type of the message payload.
+     */
+    public <T> Message<T> receive(MessageMatcher matcher, long timeout, TimeUnit unit) {
+        try {
+            return mailBox.poll(matcher, timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Error while waiting for a message matching a matcher", e);
+            return null;
+        }
+    }
+
+    /**
+     * Receives the oldest message matching a matcher if there is one, without waiting.
+     *
+     * @param matcher The criteria of the message.
+     * @return The oldest matching message, or null if there is none.
+     * @param <T> The type of the message payload.
+     */
+    public <T> Message<T> tryReceive(MessageMatcher matcher) {
+        return mailBox.poll(matcher);
+    }
+
 
 
     /**
-     * Event handler for synchronization messages. When a synchronization message is received from
-     * another process, this method adds the sender to the list of synchronized processes and notifies
-     * waiting threads if all processes have synchronized.
+     * Event handler for synchronization messages. The message is handed to the barrier, which counts
+     * it within its generation and wakes up the thread blocked in {@link #synchronize()}.
      *
      * @param syncMessage The synchronization message received.
      */
     @Subscribe
+    @AllowConcurrentEvents
     private void onSync(SynchronizedMessage syncMessage){
-        if(syncMessage.getSender().equalsIgnoreCase(this.name)) return;
-        synchronized (syncReceived){
-            syncReceived.add(syncMessage.getSender());
-            this.logger.info("Received synchronization message from " + syncMessage.getSender());
-            if(syncReceived.size() == Communicator.maxNbProcess - 1){
-                syncReceived.notifyAll();
-            }
-        }
+        this.metrics.onDispatch(syncMessage);
+        this.barrier.onMessage(syncMessage);
     }
 
 
@@ -399,64 +551,420 @@ public class Communicator {
      * @param message The broadcast message received.
      */
     @Subscribe
+    @AllowConcurrentEvents
     private void onBroadcast(BroadcastMessage<?> message) {
-        clock.update(message.getTimestamp());
-        if (message.getSender().equalsIgnoreCase(this.name)) return;
-        this.mailBox.add(message);
-        this.logger.info("Receiving broadcast message: " + message.getMessage() + " from " + message.getSender());
+        this.metrics.onDispatch(message);
+        this.mergeClock(message.getTimestamp());
+        if (message.getSender() == this.id) return;
+        if (!this.beginReceive(message)) return;
+        try {
+            if (!this.deliver(message)) return;
+        } finally {
+            this.endReceive();
+        }
+        this.logger.info("Receiving broadcast message: {} from P{}", message.getMessage(), message.getSender());
+        this.acknowledge(message);
+    }
+
+    /**
+     * Event handler for causal broadcasts. The message is delivered to the mailbox, together with the
+     * messages it was the missing predecessor of, through {@link #onCausalDelivery(Message)}, or held back
+     * until its own predecessors arrive.
+     *
+     * @param message The causal broadcast received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onCausal(CausalMessage<?> message) {
+        this.metrics.onDispatch(message);
+        this.mergeClock(message.getTimestamp());
+        if (message.getSender() == this.id || this.causalOrder == null) return;
+
+        List<CausalMessage<?>> delivered;
+        if (!this.beginReceive(message)) return;
+        try {
+            delivered = this.causalOrder.receive(message);
+        } finally {
+            this.endReceive();
+        }
+        if (delivered.isEmpty()) {
+            this.logger.info("Holding back causal message: {} from P{}", message.getMessage(), message.getSender());
+        }
+    }
+
+    /**
+     * Event handler for the syncs sent by the members when this process joined in causal order.
+     *
+     * @param sync The sync received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onCausalSync(CausalSyncMessage sync) {
+        this.metrics.onDispatch(sync);
+        if (this.causalOrder == null) return;
+        this.causalOrder.onSync(sync);
+        this.awaitMailBoxRoom();
+    }
+
+    /**
+     * Called, in delivery order, for each causal broadcast of another process added to the mailbox.
+     */
+    private void onCausalDelivery(Message<?> message) {
+        this.logger.info("Receiving causal message: {} from P{}", message.getMessage(), message.getSender());
+        this.acknowledge(message);
+    }
+
+    /**
+     * Event handler for totally ordered broadcasts and their acknowledgements. The event is handed to
+     * the hold-back queue, which delivers to the mailbox every broadcast it made stable, through
+     * {@link #onTotalDelivery(Message)}. The events of the current process are already known locally.
+     *
+     * @param message The broadcast or acknowledgement received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onOrdered(OrderedMessage<?> message) {
+        this.metrics.onDispatch(message);
+        this.mergeClock(message.getTimestamp());
+        if (message.getSender() == this.id || this.totalOrder == null) return;
+        // Seules les diffusions font partie de l'état enregistré, pas les acquittements
+        if (!(message instanceof TotalOrderMessage)) {
+            this.totalOrder.receive(message);
+            this.awaitMailBoxRoom();
+            return;
+        }
+        if (!this.beginReceive(message)) return;
+        try {
+            this.totalOrder.receive(message);
+        } finally {
+            this.endReceive();
+        }
+    }
+
+    /**
+     * Called, in delivery order, for each totally ordered broadcast of another process added to the mailbox.
+     */
+    private void onTotalDelivery(Message<?> message) {
+        this.logger.info("Receiving ordered message: {} from P{}", message.getMessage(), message.getSender());
+        this.acknowledge(message);
+    }
+
+    /**
+     * Creates a broadcast message in the broadcast order of this communicator. In total order the
+     * message is always stamped, its timestamp being its position in the delivery order.
+     *
+     * @param stamped True to stamp the message with a new Lamport timestamp.
+     */
+    private <T> Message<T> newBroadcast(T data, boolean stamped) {
+        Message<T> message;
+        switch (this.broadcastOrder) {
+            case TOTAL:
+                return this.totalOrder.newMessage(data);
+            case CAUSAL:
+                message = new CausalMessage<>(data, this.id, this.causalOrder.stamp());
+                break;
+            case UNORDERED:
+            default:
+                message = new BroadcastMessage<>(data, this.id);
+                break;
+        }
+        if (stamped) {
+            message.setTimestamp(this.clock.tick());
+        }
+        return message;
     }
 
     /**
-     * Event handler for dedicated (point-to-point) messages. When a message is received for the current
-     * process, this method updates the Lamport clock, adds the message to the mailbox, and logs the receipt.
+     * Event handler for batches of messages, broadcast or dedicated. The Lamport clock is updated once
+     * with the timestamp of the last message of the batch, and the messages are added to the mailbox
+     * at once, in timestamp order. Broadcast batches sent by the current process are ignored.
+     *
+     * @param batchMessage The batch of messages received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onBatch(BatchMessage<?> batchMessage) {
+        this.metrics.onDispatch(batchMessage);
+        this.mergeClock(batchMessage.getLastTimestamp());
+        if (batchMessage instanceof BroadcastBatchMessage && batchMessage.getSender() == this.id) return;
+
+        List<Message<?>> messages = new ArrayList<>(batchMessage.size());
+        for (int i = 0; i < batchMessage.size(); i++) {
+            messages.add(batchMessage.unpack(i));
+        }
+        int added;
+        if (!this.beginReceive(batchMessage)) return;
+        try {
+            added = this.mailBox.addAll(messages);
+        } finally {
+            this.endReceive();
+        }
+        this.logger.info("Receiving a batch of {} messages from P{}", batchMessage.size(), batchMessage.getSender());
+        if (added < messages.size()) {
+            this.logger.warn("Mailbox full, {} messages of the batch from P{} refused", messages.size() - added, batchMessage.getSender());
+        }
+    }
+
+    /**
+     * Event handler for dedicated (point-to-point) messages. Dedicated messages are routed to the inbox
+     * of their receiver only, so this method updates the Lamport clock, adds the message to the mailbox,
+     * and logs the receipt without any filtering.
      *
      * @param message The dedicated message received.
      */
     @Subscribe
+    @AllowConcurrentEvents
     private void onReceive(DedicatedMessage<?> message) {
-        clock.update(message.getTimestamp());
-        if (!message.getReceiver().equalsIgnoreCase(this.name)) return;
-        this.mailBox.add(message);
-        this.logger.info("Receiving message: " + message.getMessage() + " from " + message.getSender());
+        this.metrics.onDispatch(message);
+        this.mergeClock(message.getTimestamp());
+        if (!this.beginReceive(message)) return;
+        try {
+            if (!this.deliver(message)) return;
+        } finally {
+            this.endReceive();
+        }
+        this.logger.info("Receiving message: {} from P{}", message.getMessage(), message.getSender());
+        this.acknowledge(message);
     }
 
     /**
-     * Event handler for token messages. This method is triggered when a token is received by the current
-     * process. If the process is in the "REQUEST" state, it enters the critical section and waits
-     * until it is ready to release the token. Once released, the token is passed to the next process.
+     * Event handler for acknowledgements. Counts the acknowledgement against the pending send with the
+     * same correlation id, completing its future with the last expected one.
      *
-     * @param tokenMessage The token message received.
-     * @throws InterruptedException If the thread is interrupted while waiting to release the token.
+     * @param ackMessage The acknowledgement received.
      */
     @Subscribe
-    private void onToken(TokenMessage<?> tokenMessage) throws InterruptedException {
+    @AllowConcurrentEvents
+    private void onAck(AckMessage ackMessage) {
+        this.metrics.onDispatch(ackMessage);
+        this.pendingAcks.acknowledge(ackMessage.getCorrelationId(), ackMessage.getSender());
+    }
 
-        //clock.update(tokenMessage.getTimestamp());
-        if (!tokenMessage.getToken().getHolder().equalsIgnoreCase(this.name)) return;
+    /**
+     * Event handler for refusals. Fails the pending send with the same correlation id.
+     *
+     * @param rejectMessage The refusal received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onReject(RejectMessage rejectMessage) {
+        this.metrics.onDispatch(rejectMessage);
+        this.pendingAcks.reject(rejectMessage.getCorrelationId(),
+                new IllegalStateException("The mailbox of " + ProcessIds.nameOf(rejectMessage.getSender()) + " is full"));
+    }
 
-        this.logger.info("Received the token");
+    /**
+     * Event handler for the credits returned by a receiver under flow control.
+     *
+     * @param creditMessage The credits received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onCredit(CreditMessage creditMessage) {
+        this.metrics.onDispatch(creditMessage);
+        if (this.flowControl != null) this.flowControl.grant(creditMessage.getSender(), creditMessage.getMessage());
+    }
 
-        if (this.state == TokenState.REQUEST) {
-            this.state = TokenState.CRITICAL_SECTION;
-            while (this.state != TokenState.RELEASE) {
-                Thread.sleep(500);
-            }
-            this.logger.info("Releasing the token");
+    /**
+     * Event handler for the markers of the global snapshots.
+     *
+     * @param marker The marker received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onMarker(SnapshotMarker marker) {
+        this.metrics.onDispatch(marker);
+        // Marqueur d'un nouvel instantané arrivé au milieu d'une livraison : il repassera plus tard
+        if (this.snapshots != null && !this.snapshots.onMarker(marker)) this.bus.redeliver(this.id, marker);
+    }
+
+    /**
+     * Event handler for the heartbeats of the ring, and for the new token generations.
+     *
+     * @param heartbeat The heartbeat received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onHeartbeat(HeartbeatMessage heartbeat) {
+        this.metrics.onDispatch(heartbeat);
+        if (heartbeat.getSender() == this.id || this.watchdog == null) return;
+        this.watchdog.onHeartbeat(heartbeat);
+    }
+
+    /**
+     * Stamps a user message or the token with the epoch of the last snapshot and counts it, if the
+     * snapshots are enabled. Called right before the message is posted.
+     *
+     * @param to The id of the receiver, {@link ProcessIds#NONE} for a broadcast.
+     */
+    private void stamp(Message<?> message, int to) {
+        if (this.snapshots != null) this.snapshots.onSend(message, to);
+    }
+
+    /**
+     * Starts the delivery of a user message or of the token, which the recording of the local state
+     * must not split. Followed by {@link #endReceive()} if it returns true.
+     *
+     * @return False if the message cannot be delivered in the middle of the delivery this thread is
+     * already making; it is then handed back to the bus, to be delivered again later.
+     */
+    private boolean beginReceive(Message<?> message) {
+        if (this.snapshots == null || this.snapshots.beginReceive(message)) return true;
+        this.bus.redeliver(this.id, message);
+        return false;
+    }
+
+    /**
+     * Ends the delivery started by {@link #beginReceive(Message)}, then waits for the messages the
+     * mailbox has kept aside.
+     */
+    private void endReceive() {
+        if (this.snapshots != null) this.snapshots.endReceive();
+        this.awaitMailBoxRoom();
+    }
+
+    /**
+     * Holds up the bus thread until the mailbox has room for the messages it delivered, unless it is
+     * still in the middle of an outer delivery, whose lock the process may need to empty the mailbox.
+     */
+    private void awaitMailBoxRoom() {
+        if (this.snapshots == null || !this.snapshots.isReceiving()) this.mailBox.awaitRoom();
+    }
+
+    /**
+     * Adds a message received to the mailbox. A message dropped or refused because the mailbox is full
+     * is handled by {@link #onOverflow(Message)}.
+     *
+     * @param message The message received.
+     * @return True if the message was added to the mailbox.
+     */
+    private boolean deliver(Message<?> message) {
+        return this.mailBox.add(message);
+    }
+
+    /**
+     * Called for every message the full mailbox dropped or refused, whatever the overflow policy: the
+     * sender of a message expecting an acknowledgement sees its send fail instead of waiting forever.
+     */
+    private void onOverflow(Message<?> message) {
+        long correlationId = message.getCorrelationId();
+        if (correlationId == 0) {
+            this.logger.debug("Mailbox full, dropping message {} from P{}", message.getMessage(), message.getSender());
+            return;
+        }
+        this.logger.warn("Mailbox full, rejecting message {} from P{}", message.getMessage(), message.getSender());
+        this.bus.postTo(PendingAcks.originOf(correlationId), new RejectMessage(correlationId, this.id));
+    }
+
+    /**
+     * Waits for the credits of a send to a process, if the flow control is enabled.
+     *
+     * @return False if the thread was interrupted while waiting, in which case nothing must be sent.
+     */
+    private boolean awaitCredits(int to, int count) {
+        if (this.flowControl == null) return true;
+        long start = System.nanoTime();
+        try {
+            this.flowControl.acquire(to, count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.error("Interrupted while waiting for the credits of P{}", to, e);
+            return false;
+        }
+        this.metrics.recordCreditWait(start);
+        return true;
+    }
+
+    /**
+     * Waits for the credits of a broadcast, if the flow control is enabled.
+     *
+     * @return False if the thread was interrupted while waiting, in which case nothing must be sent.
+     */
+    private boolean awaitBroadcastCredits(int count) {
+        if (this.flowControl == null) return true;
+        long start = System.nanoTime();
+        try {
+            this.flowControl.acquireAll(count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.error("Interrupted while waiting for the credits of a broadcast", e);
+            return false;
+        }
+        this.metrics.recordCreditWait(start);
+        return true;
+    }
+
+    /**
+     * Merges the Lamport clock with the timestamp of a message received, recording their skew.
+     *
+     * @param timestamp The timestamp of the message.
+     */
+    private void mergeClock(long timestamp) {
+        this.metrics.onClockMerge(this.clock.get(), timestamp);
+        this.clock.merge(timestamp);
+    }
+
+    /**
+     * Sends the acknowledgement of a delivered message back to its sender, if it expects one.
+     *
+     * @param message The message delivered to the mailbox.
+     */
+    private void acknowledge(Message<?> message) {
+        long correlationId = message.getCorrelationId();
+        if (correlationId == 0) return;
+        this.bus.postTo(PendingAcks.originOf(correlationId), new AckMessage(correlationId, this.id));
+    }
+
+    /**
+     * Event handler for token messages. The token is routed to its holder only, and handed to the
+     * mutual exclusion algorithm, which decides whether to keep it or pass it on.
+     *
+     * @param tokenMessage The token message received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onToken(TokenMessage<?> tokenMessage) {
+        this.metrics.onDispatch(tokenMessage);
+        this.metrics.onToken(tokenMessage);
+        if (!this.beginReceive(tokenMessage)) return;
+        try {
+            if (this.journal != null) this.journal.tokenReceived(tokenMessage.getSender());
+            this.mutex.onToken(tokenMessage);
+        } finally {
+            this.endReceive();
         }
+    }
 
-        this.state = TokenState.NULL;
-        sendTokenToNextProcess(tokenMessage);
+    /**
+     * Called each time the token is about to leave the process, to record its hop.
+     */
+    private void onTokenSent(TokenMessage<?> tokenMessage) {
+        int holder = tokenMessage.getToken().getHolder();
+        if (this.journal != null) this.journal.tokenSent(holder);
+        this.stamp(tokenMessage, holder);
     }
 
     /**
-     * Initializes the token by assigning it to the current process and sending it to the next process
-     * in the ring. This method is used to start the token ring algorithm for managing the critical section.
+     * Event handler for critical-section requests broadcast by the processes. Only used by the
+     * algorithms in which the token moves on demand.
+     *
+     * @param request The request received.
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    private void onRequest(RequestMessage request) {
+        this.metrics.onDispatch(request);
+        this.mutex.onRequest(request);
+    }
+
+    /**
+     * Initializes the token on the current process. With the token ring, the token is sent to the next
+     * process in the ring; with the on-demand algorithms, it stays here until someone requests it.
+     * This method must be called on exactly one process.
      */
     public void initToken(){
-        Token token = new Token();
-        token.setHolder(this.name);
-        TokenMessage<?> tokenMessage = new TokenMessage<>(token, this.name);
-        sendTokenToNextProcess(tokenMessage);
+        if (this.journal != null) this.journal.tokenReceived(this.id);
+        this.mutex.initToken();
     }
 
     /**
@@ -466,18 +974,78 @@ public class Communicator {
      * @throws InterruptedException If the thread is interrupted while waiting for the token.
      */
     public void requestSC() throws InterruptedException {
-        this.state = TokenState.REQUEST;
-        while (this.state == TokenState.REQUEST) {
-            Thread.sleep(500);
-        }
+        long start = System.nanoTime();
+        this.mutex.requestSC();
+        this.metrics.recordRequestSC(start);
     }
 
     /**
      * Releases the token after the process has finished its critical section. This method sets the
-     * process state to "RELEASE", allowing the token to be passed to the next process.
+     * process state back to "NULL" and lets the token go to the next process.
      */
     public void releaseSC() {
-        this.state = TokenState.RELEASE;
+        this.mutex.releaseSC();
+    }
+
+    /**
+     * @return The state of the process in the mutual exclusion algorithm.
+     */
+    public TokenState getState() {
+        return this.mutex.getState();
+    }
+
+    /**
+     * Starts a global snapshot of the cluster. The process records its state and sends a marker to the
+     * others, which record theirs as soon as they hear of the snapshot; none of them stops sending. Each
+     * part is handed to the {@link SnapshotSink} of its process once the messages in transit towards it
+     * are known.
+     *
+     * @return The epoch of the snapshot.
+     * @throws IllegalStateException If the snapshots are disabled, or if called while a message is being
+     * delivered to this process on the same thread.
+     */
+    public long takeSnapshot() {
+        if (this.snapshots == null) throw new IllegalStateException("Snapshots are disabled, no snapshot sink was given");
+        return this.snapshots.initiate();
+    }
+
+    /**
+     * @param state Supplier of the application state recorded with each snapshot. Called while the sends
+     *              and deliveries of the process are held: it must be thread-safe and quick.
+     * @throws IllegalStateException If the snapshots are disabled.
+     */
+    public void setSnapshotState(Supplier<?> state) {
+        if (this.snapshots == null) throw new IllegalStateException("Snapshots are disabled, no snapshot sink was given");
+        this.snapshots.setApplicationState(state);
+    }
+
+    /**
+     * Leaves the cluster. The process is removed from the current view and from the bus, so it no
+     * longer receives messages nor takes part in the token ring and the synchronizations. A token kept
+     * here is passed to a member first, and so is a token still on its way during the
+     * {@link CommunicatorOptions#getLeaveGraceMillis() grace period}. Its journal, if any, is written to
+     * the disk and kept for the next run.
+     */
+    public void leave() {
+        if (this.watchdog != null) this.watchdog.close();
+        this.membership.leave(this.id);
+        this.mutex.leave();
+
+        // Un jeton envoyé avant le départ arrive encore : il est renvoyé à un membre
+        if (this.leaveGraceMillis > 0) {
+            try {
+                ExecutionMode.current().sleep(this.leaveGraceMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.bus.unRegisterProcess(this.id, this);
+        if (this.causalOrder != null) this.causalOrder.close();
+        if (this.totalOrder != null) this.totalOrder.close();
+        this.pendingAcks.close();
+        if (this.flowControl != null) this.flowControl.close();
+        if (this.journal != null) this.journal.close();
+        MetricsRegistry.getInstance().unregister(this.metrics);
     }
 
 }
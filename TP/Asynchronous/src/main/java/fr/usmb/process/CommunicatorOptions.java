@@ -0,0 +1,125 @@
+package fr.usmb.process;
+
+import fr.usmb.barrier.BarrierAlgorithm;
+import fr.usmb.token.MutexAlgorithm;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * Algorithms and settings of a {@link Communicator}, chosen at construction time.
+ */
+@Getter
+@Builder
+public class CommunicatorOptions {
+
+    /**
+     * Algorithm behind {@code requestSC()} / {@code releaseSC()}.
+     */
+    @Builder.Default
+    private final MutexAlgorithm mutexAlgorithm = MutexAlgorithm.TOKEN_RING;
+
+    /**
+     * Algorithm behind {@code synchronize()}.
+     */
+    @Builder.Default
+    private final BarrierAlgorithm barrierAlgorithm = BarrierAlgorithm.COORDINATOR;
+
+    /**
+     * Delivery order of {@code broadcast()} and {@code broadcastAsync()}.
+     */
+    @Builder.Default
+    private final BroadcastOrder broadcastOrder = BroadcastOrder.UNORDERED;
+
+    /**
+     * Maximum number of messages in the mailbox, unbounded by default.
+     */
+    @Builder.Default
+    private final int mailBoxCapacity = Integer.MAX_VALUE;
+
+    /**
+     * What the mailbox does with a message arriving while it is full.
+     */
+    @Builder.Default
+    private final OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * Number of messages a sender may have in the mailbox of each receiver before waiting for credits,
+     * 0 to disable the flow control. Must be the same for all the processes.
+     */
+    @Builder.Default
+    private final int flowControlWindow = 0;
+
+    /**
+     * Directory of the journals, each process keeping its own in a sub-directory named after it; null
+     * to keep the mailbox in memory only. A process restarted with the same id rebuilds its mailbox,
+     * its clock and its token from its journal.
+     */
+    @Builder.Default
+    private final Path journalDirectory = null;
+
+    /**
+     * Size of the files of a journal, in bytes. A message must fit in one of them.
+     */
+    @Builder.Default
+    private final int journalSegmentSize = 16 * 1024 * 1024;
+
+    /**
+     * Interval between two writes of a journal to the disk, in milliseconds. With 0, the journal
+     * survives the crash of the JVM but not that of the machine.
+     */
+    @Builder.Default
+    private final long journalSyncIntervalMillis = 0;
+
+    /**
+     * Time after which an acknowledged send still waiting for acknowledgements fails, in milliseconds;
+     * 0 to wait as long as the receivers stay in the view.
+     */
+    @Builder.Default
+    private final long ackTimeoutMillis = 30_000;
+
+    /**
+     * Time during which a process that left the view still receives, in milliseconds, so that a token
+     * sent to it before it left is passed on instead of being lost.
+     */
+    @Builder.Default
+    private final long leaveGraceMillis = 50;
+
+    /**
+     * Sink of the global snapshots, to which the process hands its part of each of them. Null to
+     * disable the snapshots; all the processes of a cluster must then disable them.
+     */
+    @Builder.Default
+    private final SnapshotSink snapshotSink = null;
+
+    /**
+     * Interval between two heartbeats to the successor on the ring, in milliseconds. 0 disables the
+     * detection of the failures and the regeneration of a lost token; otherwise, all the processes of
+     * the cluster must enable them, with the {@link MutexAlgorithm#TOKEN_RING} algorithm.
+     */
+    @Builder.Default
+    private final long heartbeatIntervalMillis = 0;
+
+    /**
+     * Time without heartbeat after which the predecessor on the ring is removed from the view, in
+     * milliseconds. It should span several intervals, so that a late heartbeat or a garbage collection
+     * pause does not remove a live process; one removed all the same is added back by its next heartbeat.
+     */
+    @Builder.Default
+    private final long heartbeatTimeoutMillis = 1000;
+
+    /**
+     * Time without the token after which it is regenerated, in milliseconds. Must be longer than the
+     * longest critical section.
+     */
+    @Builder.Default
+    private final long tokenTimeoutMillis = 1000;
+
+    /**
+     * @return The default options.
+     */
+    public static CommunicatorOptions defaults() {
+        return CommunicatorOptions.builder().build();
+    }
+}
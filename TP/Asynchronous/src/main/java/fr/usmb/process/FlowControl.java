@@ -0,0 +1,224 @@
+package fr.usmb.process;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.CreditMessage;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Credit-based flow control between the processes. A sender may have at most {@code window} messages
+ * in the mailbox of each receiver: every message sent uses a credit, and the sender waits when it has
+ * none left for a receiver. The receiver gives the credits back, with a {@link CreditMessage}, as the
+ * messages leave its mailbox; it returns them by half windows, to keep the credit traffic low.
+ * <p>
+ * Every process starts with a full window for every other one, so no handshake is needed, but all the
+ * processes of the cluster must use the same window. A receiver leaving the view no longer holds back
+ * its senders.
+ */
+public class FlowControl {
+
+    private final int owner;
+    private final int window;
+    private final int returnThreshold;
+    private final MembershipService membership;
+    private final EventBusService bus;
+    private final Consumer<View> viewListener;
+
+    private final ReentrantLock lock;
+    private final Condition creditReturned;
+
+    /**
+     * Sender side: messages sent to each process and not given back yet. Indexed by process id.
+     */
+    private int[] outstanding;
+
+    /**
+     * Receiver side: messages of each process which left the mailbox since the last credits returned,
+     * and credits ready to be returned to each process.
+     */
+    private int[] consumed;
+    private int[] returnable;
+    private boolean anyReturnable;
+
+    /**
+     * @param owner The id of the process.
+     * @param window The number of messages a sender may have in the mailbox of a receiver.
+     * @param membership The membership service.
+     * @param bus The bus on which the credits are returned.
+     */
+    public FlowControl(int owner, int window, MembershipService membership, EventBusService bus) {
+        if (window <= 0) throw new IllegalArgumentException("The window must be positive: " + window);
+        this.owner = owner;
+        this.window = window;
+        this.returnThreshold = Math.max(1, window / 2);
+        this.membership = membership;
+        this.bus = bus;
+
+        this.lock = new ReentrantLock();
+        this.creditReturned = this.lock.newCondition();
+        this.outstanding = new int[16];
+        this.consumed = new int[16];
+        this.returnable = new int[16];
+
+        this.viewListener = view -> this.wakeUp();
+        this.membership.addListener(this.viewListener);
+    }
+
+    /**
+     * Takes credits to send messages to a process, waiting until there are some left.
+     *
+     * @param to The id of the receiver.
+     * @param count The number of messages to send. A batch larger than the window is allowed once the
+     *              window is empty.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void acquire(int to, int count) throws InterruptedException {
+        if (to == this.owner) return;
+        this.lock.lockInterruptibly();
+        try {
+            this.ensureCapacity(to);
+            while (this.outstanding[to] > 0 && this.outstanding[to] + count > this.window && this.membership.getView().contains(to)) {
+                this.creditReturned.await();
+            }
+            this.outstanding[to] += count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes credits to broadcast messages, waiting until every other member of the view has some left.
+     * The credits of all the members are taken at once, so a waiting broadcast holds none of them.
+     *
+     * @param count The number of messages to broadcast.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void acquireAll(int count) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            View view = this.membership.getView();
+            this.ensureCapacity(view.maxId());
+            while (!this.hasCredits(view, count)) {
+                this.creditReturned.await();
+                view = this.membership.getView();
+                this.ensureCapacity(view.maxId());
+            }
+            for (int i = 0; i < view.size(); i++) {
+                int member = view.memberAt(i);
+                if (member != this.owner) this.outstanding[member] += count;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back credits returned by a receiver, waking up the senders waiting for them.
+     *
+     * @param from The id of the receiver.
+     * @param credits The number of messages which left its mailbox.
+     */
+    public void grant(int from, int credits) {
+        this.lock.lock();
+        try {
+            this.ensureCapacity(from);
+            this.outstanding[from] = Math.max(0, this.outstanding[from] - credits);
+            this.creditReturned.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a message of a sender which left the mailbox, and sets the credits aside for the sender
+     * once half a window has left. Called by the mailbox, with its lock held, so nothing is sent here.
+     *
+     * @param sender The id of the sender of the message.
+     */
+    public void onRemoved(int sender) {
+        if (sender == this.owner || sender < 0) return;
+        this.lock.lock();
+        try {
+            this.ensureCapacity(sender);
+            if (++this.consumed[sender] >= this.returnThreshold) {
+                this.returnable[sender] += this.consumed[sender];
+                this.consumed[sender] = 0;
+                this.anyReturnable = true;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns to their senders the credits set aside by {@link #onRemoved(int)}. Called by the mailbox
+     * once its lock is released.
+     */
+    public void returnCredits() {
+        int[] credits;
+        this.lock.lock();
+        try {
+            if (!this.anyReturnable) return;
+            credits = this.returnable;
+            this.returnable = new int[credits.length];
+            this.anyReturnable = false;
+        } finally {
+            this.lock.unlock();
+        }
+        for (int sender = 0; sender < credits.length; sender++) {
+            if (credits[sender] > 0) this.bus.postTo(sender, new CreditMessage(credits[sender], this.owner));
+        }
+    }
+
+    /**
+     * @param to The id of a receiver.
+     * @return The number of messages which can be sent to the receiver without waiting.
+     */
+    public int creditsFor(int to) {
+        this.lock.lock();
+        try {
+            return to < this.outstanding.length ? this.window - this.outstanding[to] : this.window;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops following the membership. Must be called when the process leaves.
+     */
+    public void close() {
+        this.membership.removeListener(this.viewListener);
+    }
+
+    private boolean hasCredits(View view, int count) {
+        for (int i = 0; i < view.size(); i++) {
+            int member = view.memberAt(i);
+            if (member == this.owner) continue;
+            if (this.outstanding[member] > 0 && this.outstanding[member] + count > this.window) return false;
+        }
+        return true;
+    }
+
+    private void wakeUp() {
+        this.lock.lock();
+        try {
+            this.creditReturned.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= this.outstanding.length) {
+            int length = Math.max(id + 1, this.outstanding.length * 2);
+            this.outstanding = Arrays.copyOf(this.outstanding, length);
+            this.consumed = Arrays.copyOf(this.consumed, length);
+            this.returnable = Arrays.copyOf(this.returnable, length);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package fr.usmb.process;
+
+import fr.usmb.membership.ProcessIds;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * A consistent global snapshot, assembled by a {@link SnapshotCollector} from the parts recorded by
+ * every participant.
+ */
+@Getter
+@AllArgsConstructor
+public class GlobalSnapshot {
+
+    private final long epoch;
+
+    /**
+     * The part of each participant, indexed by process id.
+     */
+    private final Map<Integer, LocalSnapshot> parts;
+
+    /**
+     * @return The process holding the token, {@link ProcessIds#NONE} if the token was in flight or absent.
+     */
+    public int getTokenHolder() {
+        for (LocalSnapshot part : this.parts.values()) {
+            if (part.isTokenHeld()) return part.getProcessId();
+        }
+        return ProcessIds.NONE;
+    }
+
+    /**
+     * @return The number of tokens held or in flight: 1 once the token is created, whatever its location.
+     */
+    public int getTokenCount() {
+        int count = 0;
+        for (LocalSnapshot part : this.parts.values()) {
+            if (part.isTokenHeld()) count++;
+            if (part.getTokenChannel() != ProcessIds.NONE) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of messages in the mailboxes, held back and in the channels: every user
+     * message sent before the snapshot and not yet taken by its receiver is counted once per receiver.
+     */
+    public int getMessageCount() {
+        int count = 0;
+        for (LocalSnapshot part : this.parts.values()) {
+            count += part.getMailbox().size() + part.getHeldBack().size() + part.getChannelMessageCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The longest pause of a process to record its local state, in nanoseconds.
+     */
+    public long getMaxPauseNanos() {
+        long max = 0;
+        for (LocalSnapshot part : this.parts.values()) max = Math.max(max, part.getPauseNanos());
+        return max;
+    }
+
+    /**
+     * @return The longest time a process took to record its channels, in nanoseconds.
+     */
+    public long getMaxDurationNanos() {
+        long max = 0;
+        for (LocalSnapshot part : this.parts.values()) max = Math.max(max, part.getDurationNanos());
+        return max;
+    }
+
+    /**
+     * @return The number of markers sent for the snapshot.
+     */
+    public int getMarkersSent() {
+        int count = 0;
+        for (LocalSnapshot part : this.parts.values()) count += part.getMarkersSent();
+        return count;
+    }
+}
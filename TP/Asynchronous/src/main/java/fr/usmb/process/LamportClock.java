@@ -1,30 +1,87 @@
 package fr.usmb.process;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Lamport logical clock. Every operation is a single atomic step on a 64-bit counter, so the
+ * clock can be shared by the sending thread and the bus threads without any lock.
+ */
 public class LamportClock {
 
-    private int clock = 0;
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Value the clock may reach before the {@link #reserver} must be called again, so that a value
+     * handed out is always covered by a reservation. Unbounded without a reserver.
+     */
+    private volatile long reservedUpTo = Long.MAX_VALUE;
+    private LongUnaryOperator reserver;
+
+    /**
+     * Restores the clock to a value saved before a restart and reserves the values it will hand out,
+     * so that it never goes back below a value it already gave.
+     * @param value {@link Long} the value to restore, ignored if lower than the current value
+     * @param reserver called with a value about to be handed out beyond the current reservation, it
+     *                 persists and returns a new, greater or equal, reservation
+     */
+    public synchronized void restore(long value, LongUnaryOperator reserver) {
+        this.clock.accumulateAndGet(value, Math::max);
+        this.reserver = reserver;
+        this.reservedUpTo = reserver.applyAsLong(this.clock.get());
+    }
 
     /**
      * Get the current value of the clock
-     * @return {@link Integer} the current value of the clock
+     * @return {@link Long} the current value of the clock
+     */
+    public long get() {
+        return clock.get();
+    }
+
+    /**
+     * Increment the clock by 1, for a local or a send event
+     * @return {@link Long} the new value of the clock
+     */
+    public long tick() {
+        return reserve(clock.incrementAndGet());
+    }
+
+    /**
+     * Increment the clock by a number of events at once, for a batch of sends
+     * @param count {@link Integer} the number of events, at least 1
+     * @return {@link Long} the first value of the contiguous range of {@code count} values given to the events
      */
-    public synchronized int get() {
-        return clock;
+    public long tick(int count) {
+        long last = reserve(clock.addAndGet(count));
+        return last - count + 1;
     }
 
     /**
-     * Increment the clock by 1
+     * Update the clock with the maximum value between the current value and the received value, plus 1
+     * @param received {@link Long} the received value
+     * @return {@link Long} the new value of the clock
      */
-    public synchronized void increment() {
-        clock++;
+    public long merge(long received) {
+        long current, next;
+        do {
+            current = clock.get();
+            next = Math.max(current, received) + 1;
+        } while (!clock.compareAndSet(current, next));
+        return reserve(next);
     }
 
     /**
-     * Update the clock with the maximum value between the current value and the received value + 1
-     * @param received {@link Integer} the received value
+     * Makes sure a value is covered by the reservation before it is handed out. A single volatile read
+     * unless the reservation is exceeded.
      */
-    public synchronized void update(int received) {
-        clock = Math.max(clock, received) + 1;
+    private long reserve(long value) {
+        if (value > reservedUpTo) {
+            synchronized (this) {
+                if (value > reservedUpTo) reservedUpTo = reserver.applyAsLong(value);
+            }
+        }
+        return value;
     }
 
 }
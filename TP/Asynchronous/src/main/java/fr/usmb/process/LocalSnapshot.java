@@ -0,0 +1,91 @@
+package fr.usmb.process;
+
+import fr.usmb.membership.ProcessIds;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.TokenMessage;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The part of a global snapshot recorded by one process: its local state when it recorded, and the
+ * messages that were in flight towards it on each of its incoming channels at that time.
+ */
+@Getter
+@AllArgsConstructor
+public class LocalSnapshot {
+
+    /**
+     * Number of the global snapshot, the same on every process.
+     */
+    private final long epoch;
+    private final int processId;
+
+    /**
+     * Members of the view of the process when it recorded: the processes whose channels were recorded.
+     */
+    private final int[] participants;
+
+    private final long clock;
+
+    /**
+     * Messages in the mailbox, in their order of arrival.
+     */
+    private final List<Message<?>> mailbox;
+
+    /**
+     * Messages received but held back by the causal or total order, not yet in the mailbox.
+     */
+    private final List<Message<?>> heldBack;
+
+    /**
+     * True if the token was on the process.
+     */
+    private final boolean tokenHeld;
+
+    /**
+     * State given by the application, null if it gave none.
+     */
+    private final Object applicationState;
+
+    /**
+     * Messages in flight on each incoming channel, indexed by sender id, in their order of arrival.
+     */
+    private final Map<Integer, List<Message<?>>> channels;
+
+    /**
+     * Time the process held its sends and deliveries to record its local state, in nanoseconds.
+     */
+    private final long pauseNanos;
+
+    /**
+     * Time from the recording of the local state to the recording of the last channel, in nanoseconds.
+     */
+    private final long durationNanos;
+
+    private final int markersSent;
+
+    /**
+     * @return The number of messages recorded in the channels.
+     */
+    public int getChannelMessageCount() {
+        int count = 0;
+        for (List<Message<?>> channel : this.channels.values()) count += channel.size();
+        return count;
+    }
+
+    /**
+     * @return The id of the process that sent the token in flight towards this one, {@link ProcessIds#NONE}
+     * if the token was not on an incoming channel.
+     */
+    public int getTokenChannel() {
+        for (Map.Entry<Integer, List<Message<?>>> channel : this.channels.entrySet()) {
+            for (Message<?> message : channel.getValue()) {
+                if (message instanceof TokenMessage) return channel.getKey();
+            }
+        }
+        return ProcessIds.NONE;
+    }
+}
@@ -1,47 +1,403 @@
 package fr.usmb.process;
 
+import fr.usmb.journal.JournalRecovery;
+import fr.usmb.membership.ProcessIds;
+import fr.usmb.journal.ProcessJournal;
 import fr.usmb.messages.Message;
 import lombok.Getter;
+import lombok.Setter;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
+/**
+ * Messages delivered to a process, waiting to be taken. The mailbox is unbounded by default; with a
+ * capacity, a message arriving while it is full is handled according to its {@link OverflowPolicy}.
+ * Once a {@link ProcessJournal} is attached, every message arriving and leaving is recorded in it.
+ * <p>
+ * Besides the oldest message and the oldest message of a sender, any message matching a
+ * {@link MessageMatcher} can be taken. The messages are indexed by class, correlation id and timestamp,
+ * each index being built the first time a matcher needs it and maintained on every arrival afterwards.
+ */
 public class MailBox {
 
-    private final List<Message<?>> mailBox;
+    /**
+     * A message stored in the mailbox. Each node is linked twice: once in the arrival order
+     * of the whole mailbox and once in the FIFO queue of its sender, so it can be unlinked
+     * from both in constant time whichever way it is retrieved.
+     */
+    private static final class Node {
+        private final Message<?> message;
+        private final SenderQueue queue;
+        private final long sequence;
+        private final long order;
+        private Node prev, next;
+        private Node prevFromSender, nextFromSender;
+
+        /**
+         * Links of the secondary indexes, once they are built: the queue of the class of the message,
+         * and the next message with the same correlation id or the same timestamp.
+         */
+        private TypeQueue typeQueue;
+        private Node prevOfType, nextOfType;
+        private Node nextWithCorrelation, nextWithTimestamp;
+
+        private Node(Message<?> message, SenderQueue queue, long sequence, long order) {
+            this.message = message;
+            this.queue = queue;
+            this.sequence = sequence;
+            this.order = order;
+        }
+    }
+
+    /**
+     * FIFO queue of the messages of a single class.
+     */
+    private static final class TypeQueue {
+        private Node head, tail;
+        private int size;
+    }
+
+    /**
+     * A thread waiting in a selective receive, woken up only by the messages matching its matcher.
+     */
+    private static final class Waiter {
+        private final MessageMatcher matcher;
+        private final Condition arrived;
+
+        private Waiter(MessageMatcher matcher, Condition arrived) {
+            this.matcher = matcher;
+            this.arrived = arrived;
+        }
+    }
+
+    /**
+     * Returned when several indexed classes match the class of a matcher, which then cannot use the index.
+     */
+    private static final TypeQueue ambiguous = new TypeQueue();
+
+    /**
+     * FIFO queue of the messages of a single sender, with its own condition so that a
+     * receiver waiting for that sender is only woken up by its messages.
+     */
+    private static final class SenderQueue {
+        private final Condition arrived;
+        private Node head, tail;
+        private int size;
+
+        private SenderQueue(Condition arrived) {
+            this.arrived = arrived;
+        }
+    }
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+
+    @Getter
+    private final int capacity;
+
+    @Getter
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Queues of the senders, indexed by process id and grown on demand.
+     */
+    private SenderQueue[] senders;
+
+    private Node head, tail;
+    private volatile int size;
+
+    /**
+     * Messages accepted under {@link OverflowPolicy#BLOCK} while the mailbox was full, in arrival order.
+     * Each is added as soon as a message leaves the mailbox.
+     */
+    private final ArrayDeque<Message<?>> parked = new ArrayDeque<>();
+    private volatile boolean anyParked;
+
+    /**
+     * Arrival number of the next message, which orders the candidates found through the indexes.
+     */
+    private long nextOrder;
+
+    /**
+     * Secondary indexes, null until a matcher needs them.
+     */
+    private Map<Class<?>, TypeQueue> byType;
+    private Map<Long, Node> byCorrelation;
+    private TreeMap<Long, Node> byTimestamp;
+
+    /**
+     * Threads blocked in a selective receive.
+     */
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    /**
+     * Largest number of messages held at once.
+     */
+    @Getter
+    private volatile int peakSize;
+
+    /**
+     * Number of messages dropped or refused because the mailbox was full.
+     */
+    @Getter
+    private volatile long droppedCount;
+
+    /**
+     * Called with the sender of every message which leaves the mailbox, taken or dropped, and of every
+     * message refused by it. Called with the lock of the mailbox held, so it must not block.
+     */
+    @Setter
+    private IntConsumer removalListener;
+
+    /**
+     * Called once the lock is released after the removal listener was, so that what it gathered under
+     * the lock can be sent.
+     */
+    @Setter
+    private Runnable afterRemovals;
+
+    /**
+     * Whether the removal listener was called since the lock was taken.
+     */
+    private boolean removed;
+
+    /**
+     * Called with every message dropped or refused because the mailbox is full: the new message, or
+     * the oldest one under {@link OverflowPolicy#DROP_OLDEST}. Called once the lock is released.
+     */
+    @Setter
+    private Consumer<Message<?>> overflowListener;
+
+    /**
+     * Messages dropped or refused since the lock was taken, null if there is none.
+     */
+    private List<Message<?>> overflowed;
+
+    /**
+     * Journal recording the messages, null if the mailbox is not persistent.
+     */
+    private ProcessJournal journal;
 
     public MailBox(){
-        this.mailBox = new ArrayList<>();
+        this(Integer.MAX_VALUE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param capacity The maximum number of messages held at once.
+     * @param overflowPolicy What to do with a message arriving while the mailbox is full.
+     */
+    public MailBox(int capacity, OverflowPolicy overflowPolicy){
+        if (capacity <= 0) throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        this.lock = new ReentrantLock();
+        this.notEmpty = this.lock.newCondition();
+        this.notFull = this.lock.newCondition();
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.senders = new SenderQueue[16];
     }
 
     /**
      * Adds a message to the mailbox. This method allows messages to be queued
-     * and retrieved by the process at a later time.
+     * and retrieved by the process at a later time. Any thread blocked in {@link #take()}
+     * or in {@link #take(int)} for the sender of the message is woken up. If the mailbox is full,
+     * the message is handled according to the overflow policy. The method never waits: under
+     * {@link OverflowPolicy#BLOCK}, the message is kept aside until there is room, and the caller is
+     * expected to call {@link #awaitRoom()} once it holds no lock the receivers may need.
      *
      * @param message The message to add to the mailbox.
+     * @return False if the message was dropped or refused because the mailbox was full.
+     */
+    public boolean add(Message<?> message){
+        this.lock.lock();
+        try {
+            boolean added = this.offer(message);
+            if (added) this.notEmpty.signalAll();
+            return added;
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Adds several messages to the mailbox at once, in the order of the collection. The lock is
+     * taken and the waiting receivers are woken up only once for the whole collection, unless the
+     * mailbox is full and the policy is to wait.
+     *
+     * @param messages The messages to add to the mailbox.
+     * @return The number of messages added. Once the mailbox has dropped or refused a message of the
+     * collection, it drops or refuses all the following ones, so the messages added are the first ones.
      */
-    public void add(Message<?> message){
-        this.mailBox.add(message);
+    public int addAll(Collection<? extends Message<?>> messages){
+        if (messages.isEmpty()) return 0;
+        int added = 0;
+        this.lock.lock();
+        try {
+            for (Message<?> message : messages) {
+                if (this.offer(message)) added++;
+            }
+            return added;
+        } finally {
+            if (added > 0) this.notEmpty.signalAll();
+            this.unlock();
+        }
     }
 
     /**
-     * Removes a specific message from the mailbox. This method is used to
-     * remove a message once it has been processed by the process.
+     * Links a message, applying the overflow policy if the mailbox is full. Must be called with the lock held.
      *
-     * @param message The message to remove from the mailbox.
+     * @return False if the message was dropped or refused.
+     */
+    private boolean offer(Message<?> message) {
+        if (this.size >= this.capacity) {
+            switch (this.overflowPolicy) {
+                case BLOCK:
+                    // Mis de côté plutôt qu'attendu ici : l'appelant tient souvent des verrous de livraison
+                    this.parked.addLast(message);
+                    this.anyParked = true;
+                    this.notEmpty.signalAll();
+                    return true;
+                case DROP_OLDEST:
+                    this.overflow(this.unlink(this.head));
+                    break;
+                case DROP_NEWEST:
+                case REJECT:
+                default:
+                    this.overflow(message);
+                    this.removed(message);
+                    return false;
+            }
+        }
+        this.link(message);
+        return true;
+    }
+
+    /**
+     * Waits until every message kept aside because the mailbox was full has been added to it. Under
+     * {@link OverflowPolicy#BLOCK}, this holds up the thread which delivered them, which slows the
+     * senders down. Must be called without any lock that the receivers of the mailbox may need.
+     */
+    public void awaitRoom() {
+        if (!this.anyParked) return;
+        this.lock.lock();
+        try {
+            while (!this.parked.isEmpty()) {
+                this.notFull.awaitUninterruptibly();
+            }
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Counts a message dropped or refused, to report it once the lock is released. Must be called with
+     * the lock held.
+     */
+    private void overflow(Message<?> message) {
+        this.droppedCount++;
+        if (this.overflowListener == null) return;
+        if (this.overflowed == null) this.overflowed = new ArrayList<>();
+        this.overflowed.add(message);
+    }
+
+    /**
+     * Reports a message which left the mailbox or was refused to the removal listener. Must be called
+     * with the lock held.
+     */
+    private void removed(Message<?> message) {
+        if (this.removalListener == null) return;
+        this.removalListener.accept(message.getSender());
+        this.removed = true;
+    }
+
+    /**
+     * Releases the lock, then reports the messages dropped or refused and the removals while it was held.
      */
-    public void remove(Message<?> message){
-        this.mailBox.remove(message);
+    private void unlock() {
+        List<Message<?>> dropped = this.overflowed;
+        boolean removals = this.removed;
+        this.overflowed = null;
+        this.removed = false;
+        this.lock.unlock();
+        if (removals && this.afterRemovals != null) this.afterRemovals.run();
+        if (dropped == null) return;
+        for (Message<?> message : dropped) {
+            this.overflowListener.accept(message);
+        }
     }
 
     /**
-     * Removes a message from the mailbox at a specific index. This method is useful
-     * when the process needs to remove a message based on its position in the queue.
+     * Makes the mailbox persistent: the messages left in the journal by a previous run are put back at
+     * the front of the mailbox, then every message arriving and leaving is recorded in the journal.
+     * Must be called before the mailbox is used.
      *
-     * @param index The index of the message to remove.
+     * @param journal The journal of the process.
      */
-    public void removeAtIndex(int index){
-        this.mailBox.remove(index);
+    public void attach(ProcessJournal journal) {
+        this.lock.lock();
+        try {
+            if (this.journal != null || this.head != null) throw new IllegalStateException("The mailbox is already in use");
+            JournalRecovery recovery = journal.getRecovery();
+            for (int i = 0; i < recovery.getMessages().size(); i++) {
+                this.link(recovery.getMessages().get(i), recovery.getSequences()[i]);
+            }
+            this.journal = journal;
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Links a message at the end of the arrival order and of its sender queue, recording it in the
+     * journal if any. Must be called with the lock held.
+     */
+    private void link(Message<?> message) {
+        this.link(message, this.journal != null ? this.journal.delivered(message) : 0);
+    }
+
+    /**
+     * Links a message at the end of the arrival order and of its sender queue, and wakes up the
+     * receivers waiting for this sender. Must be called with the lock held.
+     */
+    private void link(Message<?> message, long sequence) {
+        SenderQueue queue = this.queueOf(message.getSender());
+        Node node = new Node(message, queue, sequence, this.nextOrder++);
+
+        // Arrival order
+        node.prev = this.tail;
+        if (this.tail == null) this.head = node;
+        else this.tail.next = node;
+        this.tail = node;
+
+        // Sender order
+        node.prevFromSender = queue.tail;
+        if (queue.tail == null) queue.head = node;
+        else queue.tail.nextFromSender = node;
+        queue.tail = node;
+        queue.size++;
+
+        this.index(node);
+
+        this.size++;
+        if (this.size > this.peakSize) this.peakSize = this.size;
+        queue.arrived.signalAll();
+        for (int i = 0; i < this.waiters.size(); i++) {
+            Waiter waiter = this.waiters.get(i);
+            if (waiter.matcher.test(message)) waiter.arrived.signal();
+        }
     }
 
     /**
@@ -53,19 +409,175 @@ public class MailBox {
      * @throws IndexOutOfBoundsException if the mailbox is empty.
      */
     public <T> Message<T> getMessage(){
-        Message<T> message = (Message<T>) this.mailBox.get(0);
-        this.removeAtIndex(0);
-        return message;
+        this.lock.lock();
+        try {
+            if (this.head == null) throw new IndexOutOfBoundsException("The mailbox is empty");
+            return this.unlink(this.head);
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the first message in the mailbox, waiting until one arrives if
+     * the mailbox is empty.
+     *
+     * @param <T> The type of the message payload.
+     * @return The first message in the mailbox.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public <T> Message<T> take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.head == null) {
+                this.notEmpty.await();
+            }
+            return this.unlink(this.head);
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the oldest message sent by a given process, waiting until one
+     * arrives if there is none. Messages of other senders are left untouched.
+     *
+     * @param from The id of the sending process.
+     * @param <T> The type of the message payload.
+     * @return The oldest message from the given sender.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public <T> Message<T> take(int from) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            SenderQueue queue = this.queueOf(from);
+            while (queue.head == null) {
+                queue.arrived.await();
+            }
+            return this.unlink(queue.head);
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Waits until the mailbox holds a message sent by a given process. The message is left in the mailbox.
+     *
+     * @param from The id of the sending process.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void awaitMessageFrom(int from) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            SenderQueue queue = this.queueOf(from);
+            while (queue.head == null) {
+                queue.arrived.await();
+            }
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the oldest message matching a matcher, waiting until one arrives if there
+     * is none. The other messages are left untouched.
+     *
+     * @param matcher The criteria of the message.
+     * @param <T> The type of the message payload.
+     * @return The oldest matching message.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public <T> Message<T> take(MessageMatcher matcher) throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            Node node = this.find(matcher);
+            if (node == null) {
+                Waiter waiter = new Waiter(matcher, this.lock.newCondition());
+                this.waiters.add(waiter);
+                try {
+                    while ((node = this.find(matcher)) == null) {
+                        waiter.arrived.await();
+                    }
+                } finally {
+                    this.waiters.remove(waiter);
+                }
+            }
+            return this.unlink(node);
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the oldest message matching a matcher, waiting at most a given time for one
+     * to arrive.
+     *
+     * @param matcher The criteria of the message.
+     * @param timeout The longest time to wait.
+     * @param unit The unit of the timeout.
+     * @param <T> The type of the message payload.
+     * @return The oldest matching message, or null if none arrived in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public <T> Message<T> poll(MessageMatcher matcher, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            Node node = this.find(matcher);
+            if (node == null) {
+                Waiter waiter = new Waiter(matcher, this.lock.newCondition());
+                this.waiters.add(waiter);
+                try {
+                    while ((node = this.find(matcher)) == null) {
+                        if (nanos <= 0) return null;
+                        nanos = waiter.arrived.awaitNanos(nanos);
+                    }
+                } finally {
+                    this.waiters.remove(waiter);
+                }
+            }
+            return this.unlink(node);
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the oldest message matching a matcher, without waiting.
+     *
+     * @param matcher The criteria of the message.
+     * @param <T> The type of the message payload.
+     * @return The oldest matching message, or null if there is none.
+     */
+    public <T> Message<T> poll(MessageMatcher matcher) {
+        this.lock.lock();
+        try {
+            Node node = this.find(matcher);
+            return node != null ? this.unlink(node) : null;
+        } finally {
+            this.unlock();
+        }
     }
 
     /**
      * Retrieves all messages currently in the mailbox. This method returns
-     * a list of all messages without removing them from the mailbox.
+     * a snapshot of all messages, in arrival order, without removing them from the mailbox. The
+     * messages kept aside until there is room come last.
      *
-     * @return A list of all messages in the mailbox.
+     * @return An unmodifiable list of all messages in the mailbox.
      */
     public List<Message<?>> getMessages(){
-        return this.mailBox;
+        this.lock.lock();
+        try {
+            List<Message<?>> messages = new ArrayList<>(this.size + this.parked.size());
+            for (Node node = this.head; node != null; node = node.next) {
+                messages.add(node.message);
+            }
+            messages.addAll(this.parked);
+            return Collections.unmodifiableList(messages);
+        } finally {
+            this.unlock();
+        }
     }
 
     /**
@@ -75,7 +587,238 @@ public class MailBox {
      * @return True if the mailbox is empty, false if it contains messages.
      */
     public boolean isEmpty(){
-        return this.mailBox.isEmpty();
+        return this.size == 0;
+    }
+
+    /**
+     * @return The number of messages currently in the mailbox.
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Finds the oldest message matching a matcher, through the most selective index the matcher allows:
+     * the correlation id, then the shortest of the queues of the sender and of the class, then the
+     * timestamp window. Must be called with the lock held.
+     *
+     * @return The node of the message, or null if no message matches.
+     */
+    private Node find(MessageMatcher matcher) {
+        if (matcher.isImpossible() || this.head == null) return null;
+
+        if (matcher.correlationId() != 0) {
+            if (this.byCorrelation == null) this.buildCorrelationIndex();
+            for (Node node = this.byCorrelation.get(matcher.correlationId()); node != null; node = node.nextWithCorrelation) {
+                if (matcher.test(node.message)) return node;
+            }
+            return null;
+        }
+
+        // File la plus courte parmi celles de l'émetteur et de la classe
+        Node candidates = null;
+        boolean fromSender = false;
+        int shortest = Integer.MAX_VALUE;
+        if (matcher.sender() != ProcessIds.NONE) {
+            SenderQueue queue = matcher.sender() < this.senders.length ? this.senders[matcher.sender()] : null;
+            if (queue == null || queue.head == null) return null;
+            candidates = queue.head;
+            fromSender = true;
+            shortest = queue.size;
+        }
+        if (matcher.type() != null && matcher.type() != Message.class) {
+            TypeQueue queue = this.typeQueueOf(matcher.type());
+            if (queue == null) return null;
+            if (queue != ambiguous && queue.size < shortest) {
+                candidates = queue.head;
+                fromSender = false;
+                shortest = queue.size;
+            }
+        }
+
+        if (candidates != null) {
+            for (Node node = candidates; node != null; node = fromSender ? node.nextFromSender : node.nextOfType) {
+                if (matcher.test(node.message)) return node;
+            }
+            return null;
+        }
+
+        if (matcher.hasTimestampWindow()) {
+            if (this.byTimestamp == null) this.buildTimestampIndex();
+            Node oldest = null;
+            for (Node first : this.byTimestamp.subMap(matcher.minTimestamp(), true, matcher.maxTimestamp(), true).values()) {
+                for (Node node = first; node != null; node = node.nextWithTimestamp) {
+                    if ((oldest == null || node.order < oldest.order) && matcher.test(node.message)) oldest = node;
+                }
+            }
+            return oldest;
+        }
+
+        for (Node node = this.head; node != null; node = node.next) {
+            if (matcher.test(node.message)) return node;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the queue of the messages of a class, building the class index on first use. Must be
+     * called with the lock held.
+     *
+     * @return The queue of the only indexed class, the class itself or a subclass, holding messages of
+     * that class, {@link #ambiguous} if several do, or null if no message is of that class.
+     */
+    private TypeQueue typeQueueOf(Class<?> type) {
+        if (this.byType == null) {
+            this.byType = new HashMap<>();
+            for (Node node = this.head; node != null; node = node.next) this.indexType(node);
+        }
+
+        // La file exacte ne suffit pas : les sous-classes ont chacune la leur
+        TypeQueue found = null;
+        for (Map.Entry<Class<?>, TypeQueue> entry : this.byType.entrySet()) {
+            if (entry.getValue().head == null || !type.isAssignableFrom(entry.getKey())) continue;
+            if (found != null) return ambiguous;
+            found = entry.getValue();
+        }
+        return found;
+    }
+
+    private void buildCorrelationIndex() {
+        this.byCorrelation = new HashMap<>();
+        for (Node node = this.head; node != null; node = node.next) this.indexCorrelation(node);
+    }
+
+    private void buildTimestampIndex() {
+        this.byTimestamp = new TreeMap<>();
+        for (Node node = this.head; node != null; node = node.next) this.indexTimestamp(node);
+    }
+
+    /**
+     * Adds a node to the secondary indexes already built. Must be called with the lock held.
+     */
+    private void index(Node node) {
+        if (this.byType != null) this.indexType(node);
+        if (this.byCorrelation != null) this.indexCorrelation(node);
+        if (this.byTimestamp != null) this.indexTimestamp(node);
+    }
+
+    private void indexType(Node node) {
+        TypeQueue queue = this.byType.computeIfAbsent(node.message.getClass(), type -> new TypeQueue());
+        node.typeQueue = queue;
+        node.prevOfType = queue.tail;
+        if (queue.tail == null) queue.head = node;
+        else queue.tail.nextOfType = node;
+        queue.tail = node;
+        queue.size++;
+    }
+
+    private void indexCorrelation(Node node) {
+        long correlationId = node.message.getCorrelationId();
+        if (correlationId == 0) return;
+        Node first = this.byCorrelation.putIfAbsent(correlationId, node);
+        if (first != null) {
+            while (first.nextWithCorrelation != null) first = first.nextWithCorrelation;
+            first.nextWithCorrelation = node;
+        }
+    }
+
+    private void indexTimestamp(Node node) {
+        Node first = this.byTimestamp.putIfAbsent(node.message.getTimestamp(), node);
+        if (first != null) {
+            while (first.nextWithTimestamp != null) first = first.nextWithTimestamp;
+            first.nextWithTimestamp = node;
+        }
+    }
+
+    /**
+     * Removes a node from the secondary indexes. Must be called with the lock held.
+     */
+    private void unindex(Node node) {
+        TypeQueue queue = node.typeQueue;
+        if (queue != null) {
+            if (node.prevOfType == null) queue.head = node.nextOfType;
+            else node.prevOfType.nextOfType = node.nextOfType;
+            if (node.nextOfType == null) queue.tail = node.prevOfType;
+            else node.nextOfType.prevOfType = node.prevOfType;
+            queue.size--;
+        }
+        if (this.byCorrelation != null && node.message.getCorrelationId() != 0) {
+            unchain(this.byCorrelation, node.message.getCorrelationId(), node, true);
+        }
+        if (this.byTimestamp != null) {
+            unchain(this.byTimestamp, node.message.getTimestamp(), node, false);
+        }
+    }
+
+    /**
+     * Removes a node from the chain of the nodes sharing a key, in the correlation or timestamp index.
+     */
+    private static void unchain(Map<Long, Node> index, long key, Node node, boolean correlation) {
+        Node first = index.get(key);
+        if (first == node) {
+            Node next = correlation ? node.nextWithCorrelation : node.nextWithTimestamp;
+            if (next == null) index.remove(key);
+            else index.put(key, next);
+            return;
+        }
+        for (Node previous = first; previous != null; previous = correlation ? previous.nextWithCorrelation : previous.nextWithTimestamp) {
+            if (correlation && previous.nextWithCorrelation == node) {
+                previous.nextWithCorrelation = node.nextWithCorrelation;
+                return;
+            }
+            if (!correlation && previous.nextWithTimestamp == node) {
+                previous.nextWithTimestamp = node.nextWithTimestamp;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the queue of a sender, creating it on first use. Must be called with the lock held.
+     */
+    private SenderQueue queueOf(int sender) {
+        if (sender >= this.senders.length) {
+            this.senders = Arrays.copyOf(this.senders, Math.max(sender + 1, this.senders.length * 2));
+        }
+        SenderQueue queue = this.senders[sender];
+        if (queue == null) {
+            queue = new SenderQueue(this.lock.newCondition());
+            this.senders[sender] = queue;
+        }
+        return queue;
+    }
+
+    /**
+     * Unlinks a node from both the arrival order and its sender queue. Must be called with the lock held.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Message<T> unlink(Node node) {
+        if (node.prev == null) this.head = node.next;
+        else node.prev.next = node.next;
+        if (node.next == null) this.tail = node.prev;
+        else node.next.prev = node.prev;
+
+        SenderQueue queue = node.queue;
+        if (node.prevFromSender == null) queue.head = node.nextFromSender;
+        else node.prevFromSender.nextFromSender = node.nextFromSender;
+        if (node.nextFromSender == null) queue.tail = node.prevFromSender;
+        else node.nextFromSender.prevFromSender = node.prevFromSender;
+        queue.size--;
+
+        this.unindex(node);
+
+        this.size--;
+        if (this.journal != null) this.journal.removed(node.sequence, this.head != null ? this.head.sequence : -1);
+        this.removed(node.message);
+        if (!this.parked.isEmpty()) {
+            this.link(this.parked.poll());
+            this.notEmpty.signalAll();
+            if (this.parked.isEmpty()) {
+                this.anyParked = false;
+                this.notFull.signalAll();
+            }
+        }
+        return (Message<T>) node.message;
     }
 
 }
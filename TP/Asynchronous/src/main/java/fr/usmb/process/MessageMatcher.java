@@ -0,0 +1,186 @@
+package fr.usmb.process;
+
+import fr.usmb.membership.ProcessIds;
+import fr.usmb.messages.Message;
+
+import java.util.function.Predicate;
+
+/**
+ * Criteria of a selective receive on a {@link MailBox}. Matchers are immutable and combined with
+ * {@link #and(MessageMatcher)}, e.g. {@code MessageMatcher.ofType(DedicatedMessage.class).and(MessageMatcher.from(2))}.
+ * <p>
+ * The message class, the sender, the timestamp window and the correlation id are known to the mailbox,
+ * which looks them up in its indexes instead of scanning all its messages; any other criterion given
+ * with {@link #where(Predicate)} or {@link #payloadOf(Class)} is only checked on the candidates.
+ */
+public final class MessageMatcher implements Predicate<Message<?>> {
+
+    private static final MessageMatcher any = new MessageMatcher(null, ProcessIds.NONE, 0, Long.MAX_VALUE, 0, null, false);
+
+    /**
+     * Class of the message, null for any.
+     */
+    private final Class<?> type;
+
+    /**
+     * Id of the sender, {@link ProcessIds#NONE} for any.
+     */
+    private final int sender;
+
+    /**
+     * Lamport timestamp window, bounds included.
+     */
+    private final long minTimestamp;
+    private final long maxTimestamp;
+
+    /**
+     * Correlation id, 0 for any.
+     */
+    private final long correlationId;
+
+    /**
+     * Other criteria, null for none.
+     */
+    private final Predicate<? super Message<?>> predicate;
+
+    /**
+     * True if two criteria contradict each other, so that no message matches.
+     */
+    private final boolean impossible;
+
+    private MessageMatcher(Class<?> type, int sender, long minTimestamp, long maxTimestamp, long correlationId, Predicate<? super Message<?>> predicate, boolean impossible) {
+        this.type = type;
+        this.sender = sender;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.correlationId = correlationId;
+        this.predicate = predicate;
+        this.impossible = impossible || minTimestamp > maxTimestamp;
+    }
+
+    /**
+     * @return A matcher matching every message.
+     */
+    public static MessageMatcher any() {
+        return any;
+    }
+
+    /**
+     * @param type A message class, such as {@code BroadcastMessage.class}. Subclasses match too.
+     */
+    public static MessageMatcher ofType(Class<?> type) {
+        return new MessageMatcher(type, ProcessIds.NONE, 0, Long.MAX_VALUE, 0, null, false);
+    }
+
+    /**
+     * @param sender The id of the sender.
+     */
+    public static MessageMatcher from(int sender) {
+        return new MessageMatcher(null, sender, 0, Long.MAX_VALUE, 0, null, false);
+    }
+
+    /**
+     * @param minTimestamp The lowest Lamport timestamp, included.
+     * @param maxTimestamp The highest Lamport timestamp, included.
+     */
+    public static MessageMatcher timestampBetween(long minTimestamp, long maxTimestamp) {
+        return new MessageMatcher(null, ProcessIds.NONE, minTimestamp, maxTimestamp, 0, null, false);
+    }
+
+    /**
+     * @param correlationId The correlation id of an acknowledged send, not 0.
+     */
+    public static MessageMatcher correlationId(long correlationId) {
+        if (correlationId == 0) throw new IllegalArgumentException("0 is not a correlation id");
+        return new MessageMatcher(null, ProcessIds.NONE, 0, Long.MAX_VALUE, correlationId, null, false);
+    }
+
+    /**
+     * @param payloadType The class of the payload. Subclasses match too; null payloads never match.
+     */
+    public static MessageMatcher payloadOf(Class<?> payloadType) {
+        return where(message -> payloadType.isInstance(message.getMessage()));
+    }
+
+    /**
+     * @param predicate Any other criterion, checked under the lock of the mailbox: it must be fast and
+     *                  must not block.
+     */
+    public static MessageMatcher where(Predicate<? super Message<?>> predicate) {
+        return new MessageMatcher(null, ProcessIds.NONE, 0, Long.MAX_VALUE, 0, predicate, false);
+    }
+
+    /**
+     * @param other Another matcher.
+     * @return A matcher matching the messages matched by both.
+     */
+    public MessageMatcher and(MessageMatcher other) {
+        boolean impossible = this.impossible || other.impossible;
+
+        Class<?> type = this.type;
+        if (other.type != null) {
+            if (type == null || other.type.isAssignableFrom(type)) type = type == null ? other.type : type;
+            else if (type.isAssignableFrom(other.type)) type = other.type;
+            else impossible = true;
+        }
+
+        int sender = this.sender;
+        if (other.sender != ProcessIds.NONE) {
+            if (sender != ProcessIds.NONE && sender != other.sender) impossible = true;
+            sender = other.sender;
+        }
+
+        long correlationId = this.correlationId;
+        if (other.correlationId != 0) {
+            if (correlationId != 0 && correlationId != other.correlationId) impossible = true;
+            correlationId = other.correlationId;
+        }
+
+        Predicate<? super Message<?>> predicate = this.predicate;
+        if (other.predicate != null) {
+            Predicate<? super Message<?>> first = this.predicate, second = other.predicate;
+            predicate = first == null ? second : message -> first.test(message) && second.test(message);
+        }
+
+        return new MessageMatcher(type, sender, Math.max(this.minTimestamp, other.minTimestamp),
+                Math.min(this.maxTimestamp, other.maxTimestamp), correlationId, predicate, impossible);
+    }
+
+    @Override
+    public boolean test(Message<?> message) {
+        if (this.impossible) return false;
+        if (this.type != null && !this.type.isInstance(message)) return false;
+        if (this.sender != ProcessIds.NONE && message.getSender() != this.sender) return false;
+        if (message.getTimestamp() < this.minTimestamp || message.getTimestamp() > this.maxTimestamp) return false;
+        if (this.correlationId != 0 && message.getCorrelationId() != this.correlationId) return false;
+        return this.predicate == null || this.predicate.test(message);
+    }
+
+    Class<?> type() {
+        return this.type;
+    }
+
+    int sender() {
+        return this.sender;
+    }
+
+    long minTimestamp() {
+        return this.minTimestamp;
+    }
+
+    long maxTimestamp() {
+        return this.maxTimestamp;
+    }
+
+    boolean hasTimestampWindow() {
+        return this.minTimestamp > 0 || this.maxTimestamp < Long.MAX_VALUE;
+    }
+
+    long correlationId() {
+        return this.correlationId;
+    }
+
+    boolean isImpossible() {
+        return this.impossible;
+    }
+}
@@ -0,0 +1,33 @@
+package fr.usmb.process;
+
+/**
+ * What a bounded {@link MailBox} does with a message arriving while it is full.
+ * <p>
+ * The messages delivered in {@link BroadcastOrder#CAUSAL} or {@link BroadcastOrder#TOTAL} order are
+ * only guaranteed to be in order if none of them is dropped, which only {@link #BLOCK} ensures.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The message is kept aside and added as soon as a message is taken from the mailbox. The thread
+     * delivering it waits until then, once it has released the locks of the delivery: the bus thread
+     * is held up, which slows the sender down.
+     */
+    BLOCK,
+
+    /**
+     * The oldest message of the mailbox is dropped to make room for the new one. The sender of an
+     * acknowledged message sees its future fail.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new message is dropped. The sender of an acknowledged message sees its future fail.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The new message is refused, and the sender of an acknowledged message sees its future fail.
+     */
+    REJECT
+}
@@ -0,0 +1,175 @@
+package fr.usmb.process;
+
+import fr.usmb.ExecutionMode;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Table of the acknowledged sends still waiting for their acknowledgements, keyed by correlation id.
+ * Correlation ids embed the id of the sending process in their upper 32 bits, so they are unique in the
+ * whole cluster and an acknowledgement can be routed back to the sender from the id alone.
+ * <p>
+ * A send no longer waits for the receivers which leave the view: it completes once those still there
+ * have acknowledged it, and fails if none of its receivers acknowledged it before leaving. A send
+ * waiting for longer than the timeout fails too, with a {@link TimeoutException}; the timeout follows
+ * the {@link ExecutionMode}, in virtual time in simulation.
+ */
+public class PendingAcks {
+
+    private static final class Pending {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final Set<Integer> waiting = ConcurrentHashMap.newKeySet();
+        private volatile boolean acknowledged;
+    }
+
+    private final int owner;
+    private final long timeoutMillis;
+    private final ExecutionMode mode;
+    private final MembershipService membership;
+    private final Consumer<View> viewListener;
+    private final AtomicInteger sequence;
+    private final Map<Long, Pending> pending;
+
+    /**
+     * @param owner The id of the process.
+     * @param membership The membership service, followed to stop waiting for the receivers which leave.
+     * @param timeoutMillis The time after which a send still waiting fails, in milliseconds, 0 to wait
+     *                      as long as the receivers stay in the view.
+     */
+    public PendingAcks(int owner, MembershipService membership, long timeoutMillis) {
+        if (timeoutMillis < 0) throw new IllegalArgumentException("The timeout must not be negative: " + timeoutMillis);
+        this.owner = owner;
+        this.timeoutMillis = timeoutMillis;
+        this.mode = ExecutionMode.current();
+        this.membership = membership;
+        this.sequence = new AtomicInteger();
+        this.pending = new ConcurrentHashMap<>();
+
+        this.viewListener = this::onView;
+        this.membership.addListener(this.viewListener);
+    }
+
+    /**
+     * @param correlationId A correlation id.
+     * @return The id of the process which created it, to which the acknowledgements must be sent.
+     */
+    public static int originOf(long correlationId) {
+        return (int) (correlationId >>> 32);
+    }
+
+    /**
+     * Creates a new correlation id and registers the processes expected to acknowledge it.
+     *
+     * @param receivers The ids of the processes to wait for.
+     * @return The new correlation id, never 0.
+     */
+    public long register(int... receivers) {
+        long correlationId;
+        do {
+            correlationId = ((long) this.owner << 32) | (this.sequence.incrementAndGet() & 0xFFFFFFFFL);
+        } while (correlationId == 0);
+
+        if (receivers.length == 0) return correlationId;
+        Pending entry = new Pending();
+        for (int receiver : receivers) entry.waiting.add(receiver);
+        this.pending.put(correlationId, entry);
+
+        Future<?> timeout = this.timeoutMillis > 0
+                ? this.mode.schedule(() -> entry.future.completeExceptionally(new TimeoutException()), this.timeoutMillis, "ack-timeout")
+                : null;
+        // L'entrée disparaît quelle que soit la fin : acquittée, refusée ou expirée
+        long id = correlationId;
+        entry.future.whenComplete((result, failure) -> {
+            this.pending.remove(id, entry);
+            if (timeout != null) timeout.cancel(false);
+        });
+        return correlationId;
+    }
+
+    /**
+     * Creates a new correlation id for a broadcast, registering every other member of the current view.
+     *
+     * @return The new correlation id, never 0.
+     */
+    public long registerOthers() {
+        View view = this.membership.getView();
+        int[] others = new int[view.size()];
+        int count = 0;
+        for (int i = 0; i < view.size(); i++) {
+            if (view.memberAt(i) != this.owner) others[count++] = view.memberAt(i);
+        }
+        return this.register(Arrays.copyOf(others, count));
+    }
+
+    /**
+     * @param correlationId A correlation id returned by {@link #register(int...)}.
+     * @return The future completed once every expected acknowledgement has been received, already
+     * completed if they all have been.
+     */
+    public CompletableFuture<Void> futureOf(long correlationId) {
+        Pending entry = this.pending.get(correlationId);
+        return entry == null ? CompletableFuture.completedFuture(null) : entry.future;
+    }
+
+    /**
+     * Counts the acknowledgement of a receiver, completing the future of the correlation id with the
+     * last one. Unknown correlation ids are ignored.
+     *
+     * @param correlationId The correlation id acknowledged.
+     * @param from The id of the receiver.
+     */
+    public void acknowledge(long correlationId, int from) {
+        Pending entry = this.pending.get(correlationId);
+        if (entry == null || !entry.waiting.contains(from)) return;
+        // Marqué avant le retrait, qu'un départ simultané ne prenne pas l'envoi pour perdu
+        entry.acknowledged = true;
+        if (entry.waiting.remove(from) && entry.waiting.isEmpty()) entry.future.complete(null);
+    }
+
+    /**
+     * Fails the send with the correlation id, whatever the acknowledgements already received.
+     * Unknown correlation ids are ignored.
+     *
+     * @param correlationId The correlation id refused by a receiver.
+     * @param cause The exception completing the future of the send.
+     */
+    public void reject(long correlationId, Throwable cause) {
+        Pending entry = this.pending.remove(correlationId);
+        if (entry != null) entry.future.completeExceptionally(cause);
+    }
+
+    /**
+     * @return The number of sends still waiting for acknowledgements.
+     */
+    public int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * Stops following the membership. Must be called when the process leaves.
+     */
+    public void close() {
+        this.membership.removeListener(this.viewListener);
+    }
+
+    /**
+     * Stops waiting for the receivers which left the view.
+     */
+    private void onView(View view) {
+        for (Pending entry : this.pending.values()) {
+            if (!entry.waiting.removeIf(receiver -> !view.contains(receiver)) || !entry.waiting.isEmpty()) continue;
+            if (entry.acknowledged) entry.future.complete(null);
+            else entry.future.completeExceptionally(new IllegalStateException("Every receiver left before acknowledging"));
+        }
+    }
+}
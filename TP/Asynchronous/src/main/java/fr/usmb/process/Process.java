@@ -1,11 +1,14 @@
 package fr.usmb.process;
 
+import fr.usmb.ExecutionMode;
+import fr.usmb.membership.ProcessIds;
 import fr.usmb.messages.Message;
 import lombok.Getter;
 
 /**
  * This class represents a process that runs in a separate thread and communicates with other
  * processes using an event bus. It implements the Runnable interface to allow multi-threading.
+ * The thread is a platform or a virtual thread depending on the {@link ExecutionMode}.
  */
 public class Process implements Runnable {
 
@@ -19,10 +22,32 @@ public class Process implements Runnable {
     @Getter
     protected ProcessLogger logger;
 
+    /**
+     * Creates and starts a process named after its id, e.g. {@code P3}.
+     */
+    public Process() {
+
+        this.alive = true;
+        this.dead = false;
+
+        this.logger = new ProcessLogger(this);
+
+        // L'id n'est connu qu'une fois le communicateur inscrit : le thread est créé après
+        this.communicator = new Communicator(this.logger);
+
+        this.thread = ExecutionMode.current().newProcessThread(this, ProcessIds.nameOf(this.communicator.getId()));
+
+        this.thread.start();
+    }
+
+    /**
+     * Creates and starts a process with a given name.
+     *
+     * @param name The name of the process.
+     */
     public Process(String name) {
 
-        this.thread = new Thread(this);
-        this.thread.setName(name);
+        this.thread = ExecutionMode.current().newProcessThread(this, name);
 
         this.alive = true;
         this.dead = false;
@@ -42,14 +67,14 @@ public class Process implements Runnable {
     public void run() {
         int loop = 0;
 
-        this.logger.info(Thread.currentThread().getName() + " id :" + this.getId());
+        this.logger.info("{} id :{}", Thread.currentThread().getName(), this.getId());
 
         while (this.alive) {
-            this.logger.info(Thread.currentThread().getName() + " Loop : " + loop);
+            this.logger.info("{} Loop : {}", Thread.currentThread().getName(), loop);
             try {
-                Thread.sleep(500);
+                ExecutionMode.current().sleep(500);
 
-                if (this.getName().equalsIgnoreCase("P0")) {
+                if (this.communicator.getId() == 0) {
                     this.communicator.sendTo(1, "j'appelle 2 et je te recontacte après");
 
                     this.communicator.sendToSync(2, "J'ai laissé un message à 2, je le rappellerai après, on se sychronise tous et on attaque la partie ?");
@@ -65,12 +90,12 @@ public class Process implements Runnable {
                         this.communicator.broadcast("J'ai gagné !!!");
                     } else {
                         Message<Object> message = this.communicator.getMailBox().getMessage();
-                        this.logger.info(msg.getSender() + " à eu le jeton en premier");
+                        this.logger.info("P{} à eu le jeton en premier", msg.getSender());
                     }
                     this.communicator.releaseSC();
 
                 }
-                if (this.getName().equalsIgnoreCase("P1")) {
+                if (this.communicator.getId() == 1) {
                     if (!this.communicator.getMailBox().isEmpty()) {
                         this.communicator.getMailBox().getMessage();
                         Message<Object> msg = this.communicator.receiveFromSync(0);
@@ -83,12 +108,12 @@ public class Process implements Runnable {
                             this.communicator.broadcast("J'ai gagné !!!");
                         } else {
                             msg = this.communicator.getMailBox().getMessage();
-                            this.logger.info(msg.getSender() + " à eu le jeton en premier");
+                            this.logger.info("P{} à eu le jeton en premier", msg.getSender());
                         }
                         this.communicator.releaseSC();
                     }
                 }
-                if (this.getName().equalsIgnoreCase("P2")) {
+                if (this.communicator.getId() == 2) {
                     Message<Object> msg = this.communicator.receiveFromSync(0);
                     this.communicator.sendToSync(0, "OK");
 
@@ -100,7 +125,7 @@ public class Process implements Runnable {
                         this.communicator.broadcast("J'ai gagné !!!");
                     } else {
                         msg = this.communicator.getMailBox().getMessage();
-                        this.logger.info(msg.getSender() + " à eu le jeton en premier");
+                        this.logger.info("P{} à eu le jeton en premier", msg.getSender());
                     }
                     this.communicator.releaseSC();
                 }
@@ -111,7 +136,8 @@ public class Process implements Runnable {
             }
         }
 
-        this.logger.info(Thread.currentThread().getName() + " stopped");
+        this.communicator.leave();
+        this.logger.info("{} stopped", Thread.currentThread().getName());
         this.dead = true;
     }
 
@@ -125,13 +151,20 @@ public class Process implements Runnable {
     public void waitStopped() {
         while (!this.dead) {
             try {
-                Thread.sleep(500);
+                ExecutionMode.current().sleep(500);
             } catch (Exception e) {
                 Thread.currentThread().interrupt();
             }
         }
     }
 
+    /**
+     * @return True once the process has left the cluster and its thread has ended.
+     */
+    public boolean isStopped() {
+        return this.dead;
+    }
+
     /**
      * Stop the process by setting the alive flag to false.
      */
@@ -143,8 +176,11 @@ public class Process implements Runnable {
     //                Utils
     // =====================================
 
+    /**
+     * @return The name of the process, {@code none} while its communicator is being created.
+     */
     public String getName() {
-        return this.thread.getName();
+        return this.thread != null ? this.thread.getName() : ProcessIds.nameOf(ProcessIds.NONE);
     }
 
     public MailBox getMailBox() {
@@ -1,20 +1,126 @@
 package fr.usmb.process;
 
-import lombok.AllArgsConstructor;
+import fr.usmb.logging.AsyncLogger;
+import fr.usmb.logging.LogLevel;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 
+/**
+ * Logger of a process. The level is checked before anything else, and the messages are parameterized:
+ * each {@code {}} of the message stands for the next argument, which is only formatted if the record is
+ * written, on the background thread of the {@link AsyncLogger}. The arguments must therefore not be
+ * modified after the call.
+ */
 @Getter
-@AllArgsConstructor
 public class ProcessLogger {
 
-    private Process process;
+    private final Process process;
 
     /**
-     * Logs a message with the thread name prepended for context.
+     * Name prefixing the records of a logger without a process.
+     */
+    @Getter(AccessLevel.NONE)
+    private final String source;
+
+    @Setter
+    private volatile LogLevel level;
+
+    @Getter(AccessLevel.NONE)
+    private final AsyncLogger output;
+
+    /**
+     * Creates a logger with the default level of the {@link AsyncLogger}.
+     *
+     * @param process The process whose name prefixes the records, may be null.
+     */
+    public ProcessLogger(Process process) {
+        this(process, AsyncLogger.getInstance().getDefaultLevel());
+    }
+
+    /**
+     * @param process The process whose name prefixes the records, may be null.
+     * @param level The level of the logger.
+     */
+    public ProcessLogger(Process process, LogLevel level) {
+        this.process = process;
+        this.source = null;
+        this.level = level;
+        this.output = AsyncLogger.getInstance();
+    }
+
+    /**
+     * Creates a logger for a component shared by the processes, such as a transport, with the default
+     * level of the {@link AsyncLogger}.
+     *
+     * @param source The name prefixing the records.
+     */
+    public ProcessLogger(String source) {
+        this.process = null;
+        this.source = source;
+        this.level = AsyncLogger.getInstance().getDefaultLevel();
+        this.output = AsyncLogger.getInstance();
+    }
+
+    /**
+     * @param level A level of record.
+     * @return True if the records of this level are written.
+     */
+    public boolean isEnabled(LogLevel level) {
+        return level.isEnabledFor(this.level);
+    }
+
+    public void debug(String message) {
+        this.log(LogLevel.DEBUG, message, 0, null, null, null, null);
+    }
+
+    public void debug(String format, Object argument) {
+        this.log(LogLevel.DEBUG, format, 1, argument, null, null, null);
+    }
+
+    public void debug(String format, Object first, Object second) {
+        this.log(LogLevel.DEBUG, format, 2, first, second, null, null);
+    }
+
+    public void debug(String format, Object first, Object second, Object third) {
+        this.log(LogLevel.DEBUG, format, 3, first, second, third, null);
+    }
+
+    /**
+     * Logs a message with the process name prepended for context.
      * @param message The message to log.
      */
     public void info(String message) {
-        System.out.println("[Process " + process.getName() + "] " + message);
+        this.log(LogLevel.INFO, message, 0, null, null, null, null);
+    }
+
+    /**
+     * Logs a parameterized message with the process name prepended for context.
+     * @param format The message, where {@code {}} stands for the argument.
+     * @param argument The argument of the message.
+     */
+    public void info(String format, Object argument) {
+        this.log(LogLevel.INFO, format, 1, argument, null, null, null);
+    }
+
+    public void info(String format, Object first, Object second) {
+        this.log(LogLevel.INFO, format, 2, first, second, null, null);
+    }
+
+    public void info(String format, Object first, Object second, Object third) {
+        this.log(LogLevel.INFO, format, 3, first, second, third, null);
+    }
+
+    public void warn(String message) {
+        this.log(LogLevel.WARN, message, 0, null, null, null, null);
+    }
+
+    public void warn(String format, Object argument) {
+        this.log(LogLevel.WARN, format, 1, argument, null, null, null);
+    }
+
+    public void warn(String format, Object first, Object second) {
+        this.log(LogLevel.WARN, format, 2, first, second, null, null);
     }
 
     /**
@@ -22,9 +128,23 @@ public class ProcessLogger {
      * @param message The error message.
      * @param e The exception that was thrown.
      */
-    public void error(String message, Exception e) {
-        System.err.println("[Process " + process.getName() + "] ERROR: " + message);
-        e.printStackTrace();
+    public void error(String message, Throwable e) {
+        this.log(LogLevel.ERROR, message, 0, null, null, null, e);
     }
 
+    /**
+     * Logs a parameterized error message with an exception.
+     * @param format The error message, where {@code {}} stands for the argument.
+     * @param argument The argument of the message.
+     * @param e The exception that was thrown.
+     */
+    public void error(String format, Object argument, Throwable e) {
+        this.log(LogLevel.ERROR, format, 1, argument, null, null, e);
+    }
+
+    private void log(LogLevel level, String format, int count, Object first, Object second, Object third, Throwable e) {
+        if (!level.isEnabledFor(this.level)) return;
+        String source = this.process != null ? this.process.getName() : this.source;
+        this.output.log(level, source, format, count, first, second, third, e);
+    }
 }
@@ -0,0 +1,76 @@
+package fr.usmb.process;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Sink assembling the parts of the global snapshots of the processes of this JVM, to be given to all of
+ * them. Each global snapshot is handed to the consumer as soon as every participant has completed its
+ * part; the parts of the other nodes of a cluster must be gathered by another sink.
+ */
+public class SnapshotCollector implements SnapshotSink {
+
+    /**
+     * Snapshots missing parts beyond which the oldest one is given up.
+     */
+    private static final int maxPending = 16;
+
+    private final Consumer<GlobalSnapshot> consumer;
+    private final ReentrantLock lock;
+
+    /**
+     * Parts of the incomplete snapshots, by epoch.
+     */
+    private final TreeMap<Long, Map<Integer, LocalSnapshot>> pending;
+
+    /**
+     * @param consumer Called with each global snapshot once complete, on the thread of its last part.
+     */
+    public SnapshotCollector(Consumer<GlobalSnapshot> consumer) {
+        this.consumer = consumer;
+        this.pending = new TreeMap<>();
+        this.lock = new ReentrantLock();
+    }
+
+    @Override
+    public void accept(LocalSnapshot snapshot) {
+        GlobalSnapshot complete = null;
+        this.lock.lock();
+        try {
+            Map<Integer, LocalSnapshot> parts = this.pending.computeIfAbsent(snapshot.getEpoch(), epoch -> new HashMap<>());
+            parts.put(snapshot.getProcessId(), snapshot);
+
+            boolean missing = false;
+            for (int participant : snapshot.getParticipants()) {
+                if (!parts.containsKey(participant)) {
+                    missing = true;
+                    break;
+                }
+            }
+            if (!missing) {
+                this.pending.remove(snapshot.getEpoch());
+                complete = new GlobalSnapshot(snapshot.getEpoch(), new TreeMap<>(parts));
+            } else if (this.pending.size() > maxPending) {
+                this.pending.pollFirstEntry();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (complete != null) this.consumer.accept(complete);
+    }
+
+    /**
+     * @return The number of snapshots still missing parts.
+     */
+    public int pendingCount() {
+        this.lock.lock();
+        try {
+            return this.pending.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
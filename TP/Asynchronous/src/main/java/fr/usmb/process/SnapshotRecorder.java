@@ -0,0 +1,405 @@
+package fr.usmb.process;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.ProcessIds;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.SnapshotMarker;
+import fr.usmb.messages.TokenMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Records the part of a process in the global snapshots, while the messages keep flowing.
+ * <p>
+ * Chandy–Lamport markers need FIFO channels, which the bus does not provide; the markers therefore
+ * carry message counts. Each user message and each token hop carries the epoch of the last snapshot
+ * recorded by its sender. A process records its local state when asked to, when it receives a marker of
+ * a newer snapshot, or when it receives a message of a newer epoch, which must not be part of its state
+ * before recording. It then sends to each other member a marker with the number of messages it had
+ * sent to that member. A message of an older epoch received afterwards was in flight: it is recorded in
+ * its channel. A channel is recorded once all the messages counted by the marker of its sender have
+ * been received, and the local snapshot is complete, and handed to the {@link SnapshotSink}, once all
+ * its incoming channels are.
+ * <p>
+ * The sends and the deliveries of the process share a read lock, which the recording of the local state
+ * takes exclusively: the process pauses only for the time of copying its own state, and the other
+ * processes never wait for it. No delivery waits with the read lock held, the mailbox keeping aside the
+ * messages it has no room for. A delivery nested in another one on the same thread cannot record the
+ * state without splitting the outer one: a message or marker that needs a recording is then postponed.
+ */
+public class SnapshotRecorder {
+
+    private final Communicator owner;
+    private final int id;
+    private final MembershipService membership;
+    private final EventBusService bus;
+    private final SnapshotSink sink;
+
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * Epoch of the last snapshot recorded, 0 before the first one. Written with the write lock held.
+     */
+    private volatile long epoch;
+
+    /**
+     * Messages sent to and received from each process since the start, indexed by id. Incremented with
+     * the read lock held, read with the write lock held. The counters are carried over when the arrays
+     * grow, under {@link #growLock}, so that no increment is lost.
+     */
+    private volatile AtomicLong[] sent;
+    private volatile AtomicLong[] received;
+    private final ReentrantLock growLock;
+
+    /**
+     * Whether the token was received and not sent on since, updated with the read lock held together
+     * with the counters. The mutex itself lets the token go before it is sent, which would lose it.
+     */
+    private volatile boolean tokenHeld;
+
+    /**
+     * Snapshots whose channels are being recorded, by epoch.
+     */
+    private final Map<Long, Recording> recordings;
+
+    /**
+     * State of the application added to the local snapshots, if any.
+     */
+    private volatile Supplier<?> applicationState;
+
+    /**
+     * @param owner The communicator of the process.
+     * @param sink The sink of the local snapshots.
+     */
+    public SnapshotRecorder(Communicator owner, SnapshotSink sink) {
+        this.owner = owner;
+        this.id = owner.getId();
+        this.membership = owner.getMembership();
+        this.bus = owner.getBus();
+        this.sink = sink;
+        this.lock = new ReentrantReadWriteLock();
+        this.sent = new AtomicLong[16];
+        this.received = new AtomicLong[16];
+        this.growLock = new ReentrantLock();
+        this.recordings = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param applicationState Called when the local state is recorded, on any thread and while the sends
+     *                         and deliveries of the process are held: it must be thread-safe and quick.
+     */
+    public void setApplicationState(Supplier<?> applicationState) {
+        this.applicationState = applicationState;
+    }
+
+    /**
+     * Starts a new global snapshot from this process.
+     *
+     * @return The epoch of the snapshot.
+     */
+    public long initiate() {
+        return this.record(0);
+    }
+
+    /**
+     * Stamps a message about to be sent with the current epoch and counts it. Must be called once the
+     * message is ready, right before posting it.
+     *
+     * @param message The user message or the token.
+     * @param to The id of the receiver, {@link ProcessIds#NONE} for a broadcast.
+     */
+    public void onSend(Message<?> message, int to) {
+        int[] members = to == ProcessIds.NONE ? this.membership.getView().getMembers() : null;
+
+        this.lock.readLock().lock();
+        try {
+            message.setSnapshotEpoch(this.epoch);
+            if (message instanceof TokenMessage) this.tokenHeld = false;
+            if (members == null) {
+                this.counterOf(true, to).incrementAndGet();
+                return;
+            }
+            for (int member : members) {
+                if (member != this.id) this.counterOf(true, member).incrementAndGet();
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts the delivery of a user message or of the token from another process. The local state is
+     * not recorded until {@link #endReceive()}, so that the message is either entirely in it or in a
+     * channel.
+     *
+     * @param message The message received.
+     * @return False if the message must be delivered later, because it belongs to a newer snapshot and
+     * the thread is in the middle of another delivery. Nothing is counted then, and
+     * {@link #endReceive()} must not be called.
+     */
+    public boolean beginReceive(Message<?> message) {
+        long color = message.getSnapshotEpoch();
+        if (color > this.epoch) {
+            if (this.isReceiving()) return false;
+            this.record(color);
+        }
+
+        this.lock.readLock().lock();
+        this.counterOf(false, message.getSender()).incrementAndGet();
+        if (message instanceof TokenMessage) this.tokenHeld = true;
+        if (color >= this.epoch) return true;
+        // Envoyé avant l'instantané de l'émetteur, reçu après le nôtre : en transit
+        for (Recording recording : this.recordings.values()) {
+            if (recording.epoch > color) recording.onLate(message);
+        }
+        return true;
+    }
+
+    /**
+     * Ends the delivery started by {@link #beginReceive(Message)}.
+     */
+    public void endReceive() {
+        this.lock.readLock().unlock();
+    }
+
+    /**
+     * @return True if the current thread is in the middle of a delivery started by {@link #beginReceive(Message)}.
+     */
+    public boolean isReceiving() {
+        return this.lock.getReadHoldCount() > 0;
+    }
+
+    /**
+     * Handles a marker from another process, recording the local state first if the snapshot is new.
+     *
+     * @param marker The marker received.
+     * @return False if the marker must be handled later, because the thread is in the middle of a
+     * delivery and the snapshot is new.
+     */
+    public boolean onMarker(SnapshotMarker marker) {
+        long markerEpoch = marker.getMessage();
+        if (markerEpoch > this.epoch) {
+            if (this.isReceiving()) return false;
+            this.record(markerEpoch);
+        }
+        Recording recording = this.recordings.get(markerEpoch);
+        if (recording != null) recording.onMarker(marker.getSender(), marker.getSentCount());
+        return true;
+    }
+
+    /**
+     * Records the local state for a snapshot, and sends the markers.
+     *
+     * @param target The epoch of the snapshot, 0 for the next one.
+     * @return The epoch recorded.
+     * @throws IllegalStateException If the thread is in the middle of a delivery, whose read lock cannot
+     * become the write lock.
+     */
+    private long record(long target) {
+        if (this.isReceiving()) throw new IllegalStateException("Cannot record the local state in the middle of a delivery");
+
+        List<Recording> recorded = new ArrayList<>();
+        int[] participants;
+        long[] sentCounts;
+        this.lock.writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            if (target == 0) target = this.epoch + 1;
+            if (target <= this.epoch) return this.epoch;
+
+            participants = this.membership.getView().getMembers();
+            List<Message<?>> mailbox = this.owner.getMailBox().getMessages();
+            List<Message<?>> heldBack = new ArrayList<>();
+            if (this.owner.getCausalOrder() != null) heldBack.addAll(this.owner.getCausalOrder().heldMessages());
+            if (this.owner.getTotalOrder() != null) heldBack.addAll(this.owner.getTotalOrder().heldMessages());
+            Supplier<?> application = this.applicationState;
+            Object applicationState = application != null ? application.get() : null;
+            sentCounts = new long[participants.length];
+            for (int i = 0; i < participants.length; i++) {
+                if (participants[i] != this.id) sentCounts[i] = valueOf(this.sent, participants[i]);
+            }
+
+            // Un processus qui a sauté des instantanés les enregistre tous avec le même état, valable
+            // pour chacun : aucun message d'une époque plus récente n'a encore été livré
+            for (long recordedEpoch = this.epoch + 1; recordedEpoch <= target; recordedEpoch++) {
+                Recording recording = new Recording(recordedEpoch, participants, start, this.owner.getClock(),
+                        mailbox, heldBack, this.tokenHeld, applicationState);
+                for (int participant : participants) {
+                    if (participant != this.id) recording.received.put(participant, valueOf(this.received, participant));
+                }
+                // Enregistré avant de changer d'époque, sinon un marqueur concurrent ne le trouverait pas
+                this.recordings.put(recordedEpoch, recording);
+                recorded.add(recording);
+            }
+            this.epoch = target;
+            long pauseNanos = System.nanoTime() - start;
+            for (Recording recording : recorded) recording.pauseNanos = pauseNanos;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        for (Recording recording : recorded) {
+            for (int i = 0; i < participants.length; i++) {
+                if (participants[i] != this.id) this.bus.postTo(participants[i], new SnapshotMarker(recording.epoch, sentCounts[i], this.id));
+            }
+            recording.onRecorded();
+        }
+        return target;
+    }
+
+    /**
+     * Returns the counter of the messages sent to or received from a process, creating it on first use.
+     */
+    private AtomicLong counterOf(boolean sent, int processId) {
+        AtomicLong[] counters = sent ? this.sent : this.received;
+        if (processId < counters.length && counters[processId] != null) return counters[processId];
+
+        this.growLock.lock();
+        try {
+            counters = sent ? this.sent : this.received;
+            if (processId >= counters.length) counters = Arrays.copyOf(counters, Math.max(processId + 1, counters.length * 2));
+            if (counters[processId] == null) counters[processId] = new AtomicLong();
+            if (sent) this.sent = counters;
+            else this.received = counters;
+            return counters[processId];
+        } finally {
+            this.growLock.unlock();
+        }
+    }
+
+    private static long valueOf(AtomicLong[] counters, int processId) {
+        return processId < counters.length && counters[processId] != null ? counters[processId].get() : 0;
+    }
+
+    /**
+     * A local snapshot whose incoming channels are being recorded.
+     */
+    private final class Recording {
+        private final long epoch;
+        private final int[] participants;
+        private final long startNanos;
+        private final long clock;
+        private final List<Message<?>> mailbox;
+        private final List<Message<?>> heldBack;
+        private final boolean tokenHeld;
+        private final Object applicationState;
+        private volatile long pauseNanos;
+
+        private final ReentrantLock lock;
+
+        /**
+         * Per sender: the messages of an older epoch received, those counted before recording included;
+         * the number given by its marker, absent until the marker arrives; the messages in flight.
+         */
+        private final Map<Integer, Long> received;
+        private final Map<Integer, Long> expected;
+        private final Map<Integer, List<Message<?>>> channels;
+        private int open;
+        private boolean recorded;
+
+        private Recording(long epoch, int[] participants, long startNanos, long clock, List<Message<?>> mailbox,
+                          List<Message<?>> heldBack, boolean tokenHeld, Object applicationState) {
+            this.epoch = epoch;
+            this.participants = participants;
+            this.startNanos = startNanos;
+            this.clock = clock;
+            this.mailbox = mailbox;
+            this.heldBack = heldBack;
+            this.tokenHeld = tokenHeld;
+            this.applicationState = applicationState;
+            this.lock = new ReentrantLock();
+            this.received = new HashMap<>();
+            this.expected = new HashMap<>();
+            this.channels = new HashMap<>();
+            for (int participant : participants) {
+                if (participant == SnapshotRecorder.this.id) continue;
+                this.received.put(participant, 0L);
+                this.channels.put(participant, new ArrayList<>());
+            }
+            this.open = this.channels.size();
+        }
+
+        /**
+         * Called once the markers are sent: a process alone in its view has no channel to record.
+         */
+        private void onRecorded() {
+            LocalSnapshot complete = null;
+            this.lock.lock();
+            try {
+                this.recorded = true;
+                if (this.open == 0) complete = this.complete();
+            } finally {
+                this.lock.unlock();
+            }
+            if (complete != null) SnapshotRecorder.this.publish(complete);
+        }
+
+        private void onLate(Message<?> message) {
+            LocalSnapshot complete = null;
+            this.lock.lock();
+            try {
+                List<Message<?>> channel = this.channels.get(message.getSender());
+                if (channel == null) return;
+                channel.add(message);
+                this.received.merge(message.getSender(), 1L, Long::sum);
+                complete = this.closeIfReceived(message.getSender());
+            } finally {
+                this.lock.unlock();
+            }
+            if (complete != null) SnapshotRecorder.this.publish(complete);
+        }
+
+        private void onMarker(int sender, long sentCount) {
+            LocalSnapshot complete = null;
+            this.lock.lock();
+            try {
+                if (!this.channels.containsKey(sender) || this.expected.containsKey(sender)) return;
+                this.expected.put(sender, sentCount);
+                complete = this.closeIfReceived(sender);
+            } finally {
+                this.lock.unlock();
+            }
+            if (complete != null) SnapshotRecorder.this.publish(complete);
+        }
+
+        /**
+         * Closes the channel from a sender if all the messages counted by its marker were received. Must
+         * be called with the lock held.
+         *
+         * @return The local snapshot if it is now complete, null otherwise.
+         */
+        private LocalSnapshot closeIfReceived(int sender) {
+            Long sentCount = this.expected.get(sender);
+            if (sentCount == null || sentCount < 0 || this.received.get(sender) < sentCount) return null;
+            // Canal clos : -1 empêche de le compter deux fois
+            this.expected.put(sender, -1L);
+            this.open--;
+            return this.open == 0 && this.recorded ? this.complete() : null;
+        }
+
+        private LocalSnapshot complete() {
+            SnapshotRecorder.this.recordings.remove(this.epoch);
+            return new LocalSnapshot(this.epoch, SnapshotRecorder.this.id, this.participants, this.clock,
+                    this.mailbox, this.heldBack, this.tokenHeld, this.applicationState, Collections.unmodifiableMap(this.channels),
+                    this.pauseNanos, System.nanoTime() - this.startNanos, this.channels.size());
+        }
+    }
+
+    private void publish(LocalSnapshot snapshot) {
+        this.owner.getMetrics().recordSnapshot(snapshot.getPauseNanos(), snapshot.getDurationNanos());
+        this.owner.getLogger().info("Snapshot {} recorded: {} messages in flight, {} us of pause",
+                snapshot.getEpoch(), snapshot.getChannelMessageCount(), snapshot.getPauseNanos() / 1000);
+        this.sink.accept(snapshot);
+    }
+}
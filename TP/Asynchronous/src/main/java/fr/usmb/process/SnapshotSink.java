@@ -0,0 +1,16 @@
+package fr.usmb.process;
+
+/**
+ * Receives the local parts of the global snapshots as the processes complete them. Called on a bus
+ * thread of the process, or on the thread that took the snapshot: it must be thread-safe, and quick so
+ * as not to hold back the bus.
+ */
+@FunctionalInterface
+public interface SnapshotSink {
+
+    /**
+     * @param snapshot The part of a global snapshot recorded by one process, complete with its
+     *                 incoming channels.
+     */
+    void accept(LocalSnapshot snapshot);
+}
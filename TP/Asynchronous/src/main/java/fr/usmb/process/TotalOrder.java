@@ -0,0 +1,347 @@
+package fr.usmb.process;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.OrderAckMessage;
+import fr.usmb.messages.OrderSyncMessage;
+import fr.usmb.messages.OrderedMessage;
+import fr.usmb.messages.TotalOrderMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Total-order broadcast of one process, after Lamport: every process delivers the broadcasts by increasing
+ * Lamport timestamp, ties broken by sender id, so that all the mailboxes receive them in the same order,
+ * the sender's own included.
+ * <p>
+ * Received broadcasts wait in a hold-back priority queue. The head of the queue is stable, and delivered,
+ * once every other member has sent an event ordered after it: no message ordered before it can arrive
+ * any more, because the timestamps of a process only grow. Each process acknowledges the broadcasts it
+ * receives with a timestamp greater than theirs, unless an event it already sent does the same job; the
+ * broadcasts of a sender processed at once share a single acknowledgement.
+ * <p>
+ * The reasoning needs the events of each sender to be processed in the order they were sent, which the
+ * asynchronous bus does not guarantee: messages and acknowledgements carry a per-sender sequence number
+ * and are reordered here.
+ * <p>
+ * When a process joins, each member that sees it in the view sends an {@link OrderSyncMessage} in its
+ * stream: the joiner processes the events of that member from the sync on, and holds them back until
+ * then. The joiner acknowledges each sync; its acknowledgement is ordered after the broadcasts that the
+ * member sent before the sync, so the others stop waiting on the joiner for those, which it never
+ * delivers. A process leaving no longer holds back the others.
+ */
+public class TotalOrder {
+
+    private static final Comparator<TotalOrderMessage<?>> byTimestampThenSender =
+            Comparator.<TotalOrderMessage<?>>comparingLong(Message::getTimestamp).thenComparingInt(Message::getSender);
+
+    private static final Comparator<OrderedMessage<?>> bySequence = Comparator.comparingLong(OrderedMessage::getSequence);
+
+    private final int owner;
+    private final LamportClock clock;
+    private final MailBox mailBox;
+    private final MembershipService membership;
+    private final EventBusService bus;
+    private final Consumer<Message<?>> onDelivery;
+    private final Consumer<View> viewListener;
+
+    private final ReentrantLock lock;
+    private final PriorityQueue<TotalOrderMessage<?>> holdBack;
+
+    /**
+     * Sequence number of the next event of the owner.
+     */
+    private long nextSequence;
+
+    /**
+     * Timestamp of the last event sent by the owner.
+     */
+    private long lastSent;
+
+    /**
+     * Per sender: the next sequence number to process, the timestamp of the last processed event and the
+     * events arrived ahead of their turn. Indexed by process id.
+     */
+    private long[] expected;
+    private long[] latest;
+    private final List<PriorityQueue<OrderedMessage<?>>> early;
+
+    /**
+     * Whether the owner is in the view yet, and the members of the last view.
+     */
+    private boolean joined;
+    private int[] members;
+
+    /**
+     * Members seen before the owner joined, whose sync has not been received yet.
+     */
+    private final Set<Integer> unsynced;
+
+    /**
+     * @param owner The id of the process.
+     * @param clock The Lamport clock of the process.
+     * @param mailBox The mailbox receiving the delivered broadcasts.
+     * @param membership The membership service.
+     * @param bus The bus on which the acknowledgements are broadcast.
+     * @param onDelivery Called for each broadcast of another process delivered to the mailbox, in order.
+     */
+    public TotalOrder(int owner, LamportClock clock, MailBox mailBox, MembershipService membership, EventBusService bus, Consumer<Message<?>> onDelivery) {
+        this.owner = owner;
+        this.clock = clock;
+        this.mailBox = mailBox;
+        this.membership = membership;
+        this.bus = bus;
+        this.onDelivery = onDelivery;
+
+        this.lock = new ReentrantLock();
+        this.holdBack = new PriorityQueue<>(byTimestampThenSender);
+        this.expected = new long[8];
+        this.latest = new long[8];
+        this.early = new ArrayList<>();
+        this.unsynced = new HashSet<>();
+        View view = this.membership.getView();
+        this.joined = view.contains(owner);
+        this.members = view.getMembers();
+        if (!this.joined) {
+            for (int member : this.members) this.unsynced.add(member);
+        }
+
+        this.viewListener = this::onView;
+        this.membership.addListener(this.viewListener);
+    }
+
+    /**
+     * Creates a broadcast of the owner, stamped with the next Lamport timestamp and sequence number, and
+     * queues it for its own delivery. The caller broadcasts it.
+     *
+     * @param data The payload.
+     * @param <T> The type of the payload.
+     * @return The message to broadcast.
+     */
+    public <T> TotalOrderMessage<T> newMessage(T data) {
+        this.lock.lock();
+        try {
+            TotalOrderMessage<T> message = new TotalOrderMessage<>(data, this.owner, this.nextSequence++);
+            message.setTimestamp(this.clock.tick());
+            this.lastSent = message.getTimestamp();
+            this.holdBack.add(message);
+            this.deliver();
+            return message;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Receives a broadcast or an acknowledgement of another process, then delivers every broadcast that
+     * became stable.
+     *
+     * @param message The event received, after the Lamport clock was merged with its timestamp.
+     */
+    public void receive(OrderedMessage<?> message) {
+        int sender = message.getSender();
+        if (sender == this.owner) return;
+
+        OrderAckMessage ack = null;
+        this.lock.lock();
+        try {
+            this.ensureCapacity(sender);
+            if (this.unsynced.contains(sender)) {
+                // Le flux de ce membre ne commence pour nous qu'à sa synchronisation
+                if (!(message instanceof OrderSyncMessage) || ((OrderSyncMessage) message).getMessage() != this.owner) {
+                    this.queueOf(sender).add(message);
+                    return;
+                }
+                this.unsynced.remove(sender);
+                this.expected[sender] = message.getSequence();
+                this.queueOf(sender).removeIf(earlier -> earlier.getSequence() < message.getSequence());
+            }
+            if (message.getSequence() < this.expected[sender]) return;
+            if (message.getSequence() > this.expected[sender]) {
+                this.queueOf(sender).add(message);
+                return;
+            }
+
+            boolean broadcast = this.process(message);
+            PriorityQueue<OrderedMessage<?>> queue = sender < this.early.size() ? this.early.get(sender) : null;
+            while (queue != null && !queue.isEmpty() && queue.peek().getSequence() == this.expected[sender]) {
+                broadcast |= this.process(queue.poll());
+            }
+
+            // Un seul acquittement couvre tous les messages traités, s'il n'en a pas déjà envoyé un plus récent
+            if (broadcast && this.lastSent <= this.latest[sender]) {
+                ack = new OrderAckMessage(this.owner, this.nextSequence++);
+                ack.setTimestamp(this.clock.tick());
+                this.lastSent = ack.getTimestamp();
+            }
+            this.deliver();
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (ack != null) this.bus.postEvent(ack);
+    }
+
+    /**
+     * @return The number of broadcasts waiting to be stable.
+     */
+    public int heldCount() {
+        this.lock.lock();
+        try {
+            return this.holdBack.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return A copy of the broadcasts not delivered yet: waiting to be stable, or arrived ahead of
+     * their turn. In no particular order.
+     */
+    public List<TotalOrderMessage<?>> heldMessages() {
+        this.lock.lock();
+        try {
+            List<TotalOrderMessage<?>> messages = new ArrayList<>(this.holdBack);
+            for (PriorityQueue<OrderedMessage<?>> queue : this.early) {
+                if (queue == null) continue;
+                for (OrderedMessage<?> message : queue) {
+                    if (message instanceof TotalOrderMessage) messages.add((TotalOrderMessage<?>) message);
+                }
+            }
+            return messages;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops following the membership. Must be called when the process leaves.
+     */
+    public void close() {
+        this.membership.removeListener(this.viewListener);
+    }
+
+    /**
+     * Processes the next event of a sender. Must be called with the lock held.
+     *
+     * @return True if the event needs an acknowledgement: a broadcast, or the sync of the sender for the owner.
+     */
+    private boolean process(OrderedMessage<?> message) {
+        int sender = message.getSender();
+        this.expected[sender]++;
+        this.latest[sender] = message.getTimestamp();
+        if (message instanceof OrderSyncMessage) return ((OrderSyncMessage) message).getMessage() == this.owner;
+        if (!(message instanceof TotalOrderMessage)) return false;
+
+        this.holdBack.add((TotalOrderMessage<?>) message);
+        return true;
+    }
+
+    /**
+     * Follows the membership: sends a sync to each new member, stops waiting on the members that left,
+     * and delivers what they no longer hold back.
+     */
+    private void onView(View view) {
+        List<OrderSyncMessage> syncs = new ArrayList<>();
+        this.lock.lock();
+        try {
+            if (!this.joined) {
+                // La synchronisation d'un membre peut arriver avant que cette vue nous soit notifiée
+                for (int member : view.getMembers()) {
+                    if (member != this.owner && this.isNew(member)) this.unsynced.add(member);
+                }
+                this.joined = view.contains(this.owner);
+            } else {
+                for (int member : view.getMembers()) {
+                    if (member == this.owner || !this.isNew(member)) continue;
+                    OrderSyncMessage sync = new OrderSyncMessage(member, this.owner, this.nextSequence++);
+                    sync.setTimestamp(this.clock.tick());
+                    this.lastSent = sync.getTimestamp();
+                    syncs.add(sync);
+                }
+            }
+            // Un membre parti ne doit plus retenir les autres
+            for (int member : this.members) {
+                if (view.contains(member) || !this.unsynced.remove(member)) continue;
+                if (member < this.early.size()) this.early.set(member, null);
+            }
+            this.members = view.getMembers();
+            this.deliver();
+        } finally {
+            this.lock.unlock();
+        }
+
+        for (OrderSyncMessage sync : syncs) {
+            this.bus.postEvent(sync);
+        }
+    }
+
+    /**
+     * Tells whether a member was not in the last view.
+     */
+    private boolean isNew(int member) {
+        return Arrays.binarySearch(this.members, member) < 0;
+    }
+
+    /**
+     * Delivers the stable head of the hold-back queue, as long as there is one. Must be called with the
+     * lock held, so that the mailbox receives the broadcasts in the order they are delivered.
+     */
+    private void deliver() {
+        List<Message<?>> delivered = null;
+        View view = this.membership.getView();
+        while (!this.holdBack.isEmpty() && this.isStable(this.holdBack.peek(), view)) {
+            if (delivered == null) delivered = new ArrayList<>();
+            delivered.add(this.holdBack.poll());
+        }
+        if (delivered == null) return;
+
+        this.mailBox.addAll(delivered);
+        for (Message<?> message : delivered) {
+            if (message.getSender() != this.owner) this.onDelivery.accept(message);
+        }
+    }
+
+    /**
+     * Tells whether every member other than the owner and the sender has sent an event ordered after a message.
+     */
+    private boolean isStable(TotalOrderMessage<?> message, View view) {
+        long timestamp = message.getTimestamp();
+        int sender = message.getSender();
+        for (int i = 0; i < view.size(); i++) {
+            int member = view.memberAt(i);
+            if (member == this.owner || member == sender) continue;
+            long last = member < this.latest.length ? this.latest[member] : 0;
+            if (last < timestamp || (last == timestamp && member < sender)) return false;
+        }
+        return true;
+    }
+
+    private PriorityQueue<OrderedMessage<?>> queueOf(int sender) {
+        while (this.early.size() <= sender) this.early.add(null);
+        PriorityQueue<OrderedMessage<?>> queue = this.early.get(sender);
+        if (queue == null) {
+            queue = new PriorityQueue<>(bySequence);
+            this.early.set(sender, queue);
+        }
+        return queue;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= this.expected.length) {
+            int length = Math.max(id + 1, this.expected.length * 2);
+            this.expected = Arrays.copyOf(this.expected, length);
+            this.latest = Arrays.copyOf(this.latest, length);
+        }
+    }
+}
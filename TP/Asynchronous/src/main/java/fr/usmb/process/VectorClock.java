@@ -0,0 +1,107 @@
+package fr.usmb.process;
+
+import java.util.Arrays;
+
+/**
+ * Vector logical clock: entry {@code i} counts the events of process {@code i} known here. Entries are
+ * kept in a primitive array indexed by process id, grown on demand. Unlike {@link LamportClock} it is
+ * not thread-safe, its owner guards it.
+ */
+public class VectorClock {
+
+    private long[] clock = new long[8];
+
+    /**
+     * @param id The id of a process.
+     * @return The number of events of this process known here.
+     */
+    public long get(int id) {
+        return id < this.clock.length ? this.clock[id] : 0;
+    }
+
+    /**
+     * Counts a new event of a process.
+     *
+     * @param id The id of the process.
+     * @return The new value of its entry.
+     */
+    public long tick(int id) {
+        this.ensureCapacity(id);
+        return ++this.clock[id];
+    }
+
+    /**
+     * Takes the maximum of each entry with a received vector.
+     *
+     * @param stamp The received vector.
+     */
+    public void merge(long[] stamp) {
+        this.ensureCapacity(stamp.length - 1);
+        for (int i = 0; i < stamp.length; i++) {
+            if (stamp[i] > this.clock[i]) this.clock[i] = stamp[i];
+        }
+    }
+
+    /**
+     * Raises the entry of a process, if it is lower.
+     *
+     * @param id The id of the process.
+     * @param value The new minimum of its entry.
+     */
+    public void advance(int id, long value) {
+        this.ensureCapacity(id);
+        if (value > this.clock[id]) this.clock[id] = value;
+    }
+
+    /**
+     * Tells whether a message stamped with a vector is the next one to deliver from its sender: it is
+     * the sender's next event, and everything the sender knew when sending it is known here.
+     *
+     * @param stamp The vector of the message.
+     * @param sender The id of the sender.
+     * @return True if the message can be delivered now.
+     */
+    public boolean isNext(long[] stamp, int sender) {
+        if (sender >= stamp.length || stamp[sender] != this.get(sender) + 1) return false;
+        for (int i = 0; i < stamp.length; i++) {
+            if (i != sender && stamp[i] > this.get(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return A copy of the vector, without its trailing zero entries.
+     */
+    public long[] toArray() {
+        int length = this.clock.length;
+        while (length > 0 && this.clock[length - 1] == 0) length--;
+        return Arrays.copyOf(this.clock, length);
+    }
+
+    /**
+     * @param a A vector.
+     * @param b Another vector.
+     * @return True if the event stamped {@code a} happened before the event stamped {@code b}.
+     */
+    public static boolean happenedBefore(long[] a, long[] b) {
+        boolean smaller = false;
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            long x = i < a.length ? a[i] : 0;
+            long y = i < b.length ? b[i] : 0;
+            if (x > y) return false;
+            if (x < y) smaller = true;
+        }
+        return smaller;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= this.clock.length) {
+            this.clock = Arrays.copyOf(this.clock, Math.max(id + 1, this.clock.length * 2));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toArray());
+    }
+}
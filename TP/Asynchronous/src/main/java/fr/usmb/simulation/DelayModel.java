@@ -0,0 +1,48 @@
+package fr.usmb.simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Network delay of the simulation: how long a message takes to go from its sender to a receiver, in
+ * virtual nanoseconds. The delay must only depend on its arguments, so that the simulation gives the
+ * same result for the same seed.
+ */
+@FunctionalInterface
+public interface DelayModel {
+
+    /**
+     * @param from The id of the sender, -1 for an event sent outside of any process.
+     * @param to The id of the receiver.
+     * @param random The random generator of the simulation.
+     * @return The delay of the message, in nanoseconds, 0 or more.
+     */
+    long delayNanos(int from, int to, SplittableRandom random);
+
+    /**
+     * @param nanos The delay of every message.
+     */
+    static DelayModel constant(long nanos) {
+        if (nanos < 0) throw new IllegalArgumentException("The delay must not be negative: " + nanos);
+        return (from, to, random) -> nanos;
+    }
+
+    /**
+     * @param minNanos The shortest delay.
+     * @param maxNanos The longest delay, included.
+     */
+    static DelayModel uniform(long minNanos, long maxNanos) {
+        if (minNanos < 0 || maxNanos < minNanos) throw new IllegalArgumentException("Invalid delay range: " + minNanos + ".." + maxNanos);
+        return (from, to, random) -> minNanos + random.nextLong(maxNanos - minNanos + 1);
+    }
+
+    /**
+     * Delays with a long tail: a fixed minimum plus an exponentially distributed part.
+     *
+     * @param minNanos The shortest delay.
+     * @param meanExtraNanos The mean of the part added to the minimum.
+     */
+    static DelayModel exponential(long minNanos, long meanExtraNanos) {
+        if (minNanos < 0 || meanExtraNanos < 0) throw new IllegalArgumentException("The delays must not be negative");
+        return (from, to, random) -> minNanos + (long) (-Math.log(1 - random.nextDouble()) * meanExtraNanos);
+    }
+}
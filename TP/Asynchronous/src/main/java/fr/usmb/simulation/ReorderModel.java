@@ -0,0 +1,19 @@
+package fr.usmb.simulation;
+
+/**
+ * Whether the simulated network may deliver the messages of a channel out of order.
+ */
+public enum ReorderModel {
+
+    /**
+     * The messages from a sender to a receiver arrive in the order they were sent, like on a TCP
+     * connection: a message is never delivered before one sent earlier on the same channel.
+     */
+    FIFO,
+
+    /**
+     * Each message arrives after its own delay, whatever the messages sent before it, like the
+     * asynchronous bus of a single JVM.
+     */
+    UNORDERED
+}
@@ -0,0 +1,99 @@
+package fr.usmb.simulation;
+
+import com.google.common.eventbus.EventBus;
+import fr.usmb.messages.Message;
+import fr.usmb.process.ProcessLogger;
+import fr.usmb.transport.Transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Transport of a {@link Simulation}: every event reaches each of its receivers after a delay drawn from
+ * the {@link DelayModel}, in virtual time. The handlers of the receiver then run on a new thread of the
+ * simulation, so that they may block like on the bus threads. Broadcasts are delivered to the processes
+ * by increasing id, each with its own delay.
+ */
+public class SimulatedTransport implements Transport {
+
+    private final Simulation simulation;
+    private final DelayModel delay;
+    private final ReorderModel reorder;
+
+    /**
+     * Inboxes of the processes, by increasing id so that the broadcasts are delivered in a fixed order.
+     * Synchronous buses: the handlers run on the thread delivering the event.
+     */
+    private final TreeMap<Integer, EventBus> inboxes;
+
+    /**
+     * Under {@link ReorderModel#FIFO}, time of the last delivery on each channel, keyed by sender and receiver.
+     */
+    private final Map<Long, Long> lastDelivery;
+
+    private final ProcessLogger logger;
+
+    SimulatedTransport(Simulation simulation, DelayModel delay, ReorderModel reorder) {
+        this.simulation = simulation;
+        this.delay = delay;
+        this.reorder = reorder;
+        this.inboxes = new TreeMap<>();
+        this.lastDelivery = new HashMap<>();
+        this.logger = new ProcessLogger("transport");
+    }
+
+    @Override
+    public void register(int id, Object subscriber) {
+        EventBus inbox = new EventBus("P" + id);
+        inbox.register(subscriber);
+        this.inboxes.put(id, inbox);
+    }
+
+    @Override
+    public void unregister(int id, Object subscriber) {
+        this.inboxes.remove(id);
+    }
+
+    @Override
+    public void send(int to, Object event) {
+        if (!this.inboxes.containsKey(to)) {
+            this.logger.warn("No process registered with id {}, dropping {}", to, event);
+            return;
+        }
+        this.deliverLater(senderOf(event), to, event);
+    }
+
+    @Override
+    public void broadcast(Object event) {
+        int from = senderOf(event);
+        for (int to : this.inboxes.keySet()) {
+            this.deliverLater(from, to, event);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.inboxes.clear();
+    }
+
+    private void deliverLater(int from, int to, Object event) {
+        long at = this.simulation.now() + this.delay.delayNanos(from, to, this.simulation.getRandom());
+        if (this.reorder == ReorderModel.FIFO) {
+            long channel = (long) from << 32 | (to & 0xFFFFFFFFL);
+            at = Math.max(at, this.lastDelivery.getOrDefault(channel, 0L));
+            this.lastDelivery.put(channel, at);
+        }
+
+        this.simulation.schedule(at - this.simulation.now(), () -> {
+            // Le processus a pu partir pendant le transit
+            EventBus inbox = this.inboxes.get(to);
+            if (inbox == null) return;
+            this.simulation.newThread(() -> inbox.post(event), "P" + to + "-delivery").start();
+        });
+    }
+
+    private static int senderOf(Object event) {
+        return event instanceof Message ? ((Message<?>) event).getSender() : -1;
+    }
+}
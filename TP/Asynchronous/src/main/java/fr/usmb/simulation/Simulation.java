@@ -0,0 +1,299 @@
+package fr.usmb.simulation;
+
+import lombok.Getter;
+
+import java.lang.reflect.Constructor;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deterministic discrete-event simulation of the processes and of the bus, on a virtual clock.
+ * <p>
+ * The process bodies and the bus deliveries run on virtual threads whose scheduler is the simulation
+ * itself: when a thread parks, in a lock, a condition or a sleep, the simulation runs the next thread
+ * ready, one at a time and in a fixed order, on the thread driving the simulation. When no thread is
+ * ready, the clock jumps to the next event: the delivery of a message after its network delay, or the
+ * end of a sleep. Nothing waits in real time, and the same seed gives the same run.
+ * <p>
+ * The thread that created the processes drives the simulation: its calls to {@link #sleep(long)} run
+ * the simulation for that long in virtual time. It must not block on the processes otherwise.
+ * <p>
+ * Configured with the {@value #seedProperty}, {@value #minDelayProperty} and {@value #maxDelayProperty}
+ * (uniform network delay, in microseconds) and {@value #fifoProperty} ({@code false} to let the messages
+ * of a channel overtake each other) system properties. The JVM must be started with
+ * {@code --add-opens java.base/java.lang=ALL-UNNAMED}, which gives access to the scheduler of the
+ * virtual threads; the pom passes it to the tests and to {@code mvn exec:exec}.
+ */
+public class Simulation {
+
+    public static final String seedProperty = "fr.usmb.simulation.seed";
+    public static final String minDelayProperty = "fr.usmb.simulation.minDelayMicros";
+    public static final String maxDelayProperty = "fr.usmb.simulation.maxDelayMicros";
+    public static final String fifoProperty = "fr.usmb.simulation.fifo";
+
+    private static Simulation instance = null;
+
+    /**
+     * An action run at a point of the virtual time. Events of the same time run in the order they were
+     * scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+        private final long time;
+        private final long order;
+        private final Runnable action;
+
+        private Event(long time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return this.time != other.time ? Long.compare(this.time, other.time) : Long.compare(this.order, other.order);
+        }
+    }
+
+    @Getter
+    private final long seed;
+
+    @Getter
+    private final SplittableRandom random;
+
+    @Getter
+    private final SimulatedTransport transport;
+
+    private final PriorityQueue<Event> events;
+
+    /**
+     * Virtual threads ready to run, queued by their scheduler. Only the driving thread takes from it.
+     */
+    private final Queue<Runnable> ready;
+    private final Thread.Builder.OfVirtual threads;
+
+    /**
+     * The simulation running the current thread, set on the threads it created.
+     */
+    private static final ThreadLocal<Simulation> owner = new ThreadLocal<>();
+
+    /**
+     * Virtual time, in nanoseconds since the start of the simulation.
+     */
+    private long now;
+    private long nextOrder;
+
+    @Getter
+    private long eventCount;
+
+    @Getter
+    private long stepCount;
+
+    /**
+     * @param seed The seed of the random generator, which decides the network delays.
+     * @param delay The network delay model.
+     * @param reorder Whether the messages of a channel may overtake each other.
+     * @throws IllegalStateException If the scheduler of the virtual threads is not accessible.
+     */
+    public Simulation(long seed, DelayModel delay, ReorderModel reorder) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        this.events = new PriorityQueue<>();
+        this.ready = new ConcurrentLinkedQueue<>();
+        this.threads = virtualThreadBuilder(this.ready::add);
+        this.transport = new SimulatedTransport(this, delay, reorder);
+    }
+
+    /**
+     * @return The simulation of the JVM, created from the system properties on the first call.
+     */
+    public static synchronized Simulation getInstance() {
+        if (instance == null) instance = fromSystemProperties();
+        return instance;
+    }
+
+    private static Simulation fromSystemProperties() {
+        long seed = Long.getLong(seedProperty, 0);
+        long minDelay = TimeUnit.MICROSECONDS.toNanos(Long.getLong(minDelayProperty, 100));
+        long maxDelay = TimeUnit.MICROSECONDS.toNanos(Long.getLong(maxDelayProperty, 1000));
+        ReorderModel reorder = Boolean.parseBoolean(System.getProperty(fifoProperty, "true")) ? ReorderModel.FIFO : ReorderModel.UNORDERED;
+        return new Simulation(seed, DelayModel.uniform(minDelay, maxDelay), reorder);
+    }
+
+    /**
+     * Creates a thread of the simulation, without starting it. Once started, it only runs while the
+     * simulation is driven.
+     *
+     * @param body The body of the thread.
+     * @param name The name of the thread.
+     * @return A new unstarted virtual thread.
+     */
+    public Thread newThread(Runnable body, String name) {
+        return this.threads.name(name).unstarted(() -> {
+            owner.set(this);
+            body.run();
+        });
+    }
+
+    /**
+     * @return The virtual time, in nanoseconds since the start of the simulation.
+     */
+    public long now() {
+        return this.now;
+    }
+
+    /**
+     * Runs an action at a point of the virtual time, on the driving thread. The action must not block:
+     * to block, it starts a thread of the simulation.
+     *
+     * @param delayNanos The time from now at which the action runs.
+     * @param action The action.
+     */
+    public void schedule(long delayNanos, Runnable action) {
+        this.events.add(new Event(this.now + delayNanos, this.nextOrder++, action));
+    }
+
+    /**
+     * Runs a task once in virtual time, on a new thread of the simulation so that it may block.
+     *
+     * @param delayNanos The delay before the run.
+     * @param task The task.
+     * @param name The name of the thread running the task.
+     * @return A future completed once the task has run, cancelled to drop it if it has not started yet.
+     */
+    public Future<?> schedule(long delayNanos, Runnable task, String name) {
+        CompletableFuture<Void> run = new CompletableFuture<>();
+        this.schedule(delayNanos, () -> {
+            if (run.isDone()) return;
+            this.newThread(() -> {
+                try {
+                    task.run();
+                    run.complete(null);
+                } catch (RuntimeException e) {
+                    run.completeExceptionally(e);
+                    throw e;
+                }
+            }, name).start();
+        });
+        return run;
+    }
+
+    /**
+     * Runs a task periodically in virtual time, each run on a new thread of the simulation so that it may
+     * block. A run due while the previous one is still going on is skipped.
+     *
+     * @param periodNanos The time between two runs, and before the first one.
+     * @param task The task.
+     * @param name The name of the threads running the task.
+     * @return A future cancelled to stop the runs.
+     */
+    public Future<?> scheduleAtFixedRate(long periodNanos, Runnable task, String name) {
+        CompletableFuture<Void> runs = new CompletableFuture<>();
+        // Les fils de la simulation tournent un à un : un simple drapeau suffit
+        boolean[] running = new boolean[1];
+        this.schedule(periodNanos, new Runnable() {
+            @Override
+            public void run() {
+                if (runs.isDone()) return;
+                if (!running[0]) {
+                    running[0] = true;
+                    Simulation.this.newThread(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            running[0] = false;
+                        }
+                    }, name).start();
+                }
+                Simulation.this.schedule(periodNanos, this);
+            }
+        });
+        return runs;
+    }
+
+    /**
+     * Waits for a duration of virtual time. On a thread of the simulation, the thread parks until the
+     * clock reaches the end of the sleep; on the driving thread, the simulation runs until then.
+     *
+     * @param millis The duration, in milliseconds.
+     * @throws InterruptedException If a thread of the simulation is interrupted while sleeping.
+     */
+    public void sleep(long millis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        if (owner.get() != this) {
+            this.runFor(nanos);
+            return;
+        }
+
+        Thread thread = Thread.currentThread();
+        boolean[] elapsed = new boolean[1];
+        this.schedule(nanos, () -> {
+            elapsed[0] = true;
+            LockSupport.unpark(thread);
+        });
+        while (!elapsed[0]) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Runs the simulation for a duration of virtual time, then sets the clock to its end.
+     *
+     * @param nanos The duration, in nanoseconds.
+     */
+    public void runFor(long nanos) {
+        long end = this.now + nanos;
+        this.runUntil(end);
+        this.now = Math.max(this.now, end);
+    }
+
+    /**
+     * Runs the simulation until nothing is left to do: no thread ready and no event scheduled. The
+     * threads still alive then wait for something which will never happen.
+     */
+    public void run() {
+        this.runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs the threads ready and the events up to a point of the virtual time.
+     */
+    private void runUntil(long end) {
+        if (owner.get() == this) throw new IllegalStateException("The simulation is driven from one of its own threads");
+        while (true) {
+            Runnable step;
+            while ((step = this.ready.poll()) != null) {
+                this.stepCount++;
+                step.run();
+            }
+
+            Event event = this.events.peek();
+            if (event == null || event.time > end) return;
+            this.events.poll();
+            this.now = event.time;
+            this.eventCount++;
+            event.action.run();
+        }
+    }
+
+    /**
+     * Builds virtual threads scheduled by an executor. The JDK keeps this builder private, for its tests.
+     */
+    private static Thread.Builder.OfVirtual virtualThreadBuilder(Executor scheduler) {
+        try {
+            Class<?> type = Class.forName("java.lang.ThreadBuilders$VirtualThreadBuilder");
+            Constructor<?> constructor = type.getDeclaredConstructor(Executor.class);
+            constructor.setAccessible(true);
+            return (Thread.Builder.OfVirtual) constructor.newInstance(scheduler);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("The simulation needs the JVM option --add-opens java.base/java.lang=ALL-UNNAMED", e);
+        }
+    }
+}
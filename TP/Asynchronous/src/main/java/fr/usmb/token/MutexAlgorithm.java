@@ -0,0 +1,20 @@
+package fr.usmb.token;
+
+/**
+ * The mutual exclusion algorithms a {@link fr.usmb.process.Communicator} can use behind
+ * {@code requestSC()} / {@code releaseSC()}.
+ */
+public enum MutexAlgorithm {
+
+    /**
+     * The token circulates forever on the logical ring and is kept by a process only while it
+     * has requested the critical section.
+     */
+    TOKEN_RING,
+
+    /**
+     * Suzuki–Kasami broadcast algorithm: requests are broadcast and the token only moves when a
+     * process asks for it. It stays idle at its holder otherwise.
+     */
+    SUZUKI_KASAMI
+}
@@ -0,0 +1,165 @@
+package fr.usmb.token;
+
+import fr.usmb.EventBusService;
+import fr.usmb.ExecutionMode;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.TokenMessage;
+import fr.usmb.process.ProcessLogger;
+import lombok.Getter;
+
+/**
+ * Token ring mutual exclusion. The token circulates forever on the logical ring and is kept by
+ * a process only while it has requested, then holds, the critical section.
+ * <p>
+ * Each token has a generation. A {@link TokenWatchdog} regenerates a lost token with a higher
+ * generation, and the tokens of lower generations are discarded when they are received or released.
+ */
+public class RingMutex extends TokenMutex {
+
+    private TokenMessage<?> heldToken;
+
+    /**
+     * Highest token generation known, 0 before the token is created. Written with the lock held.
+     */
+    @Getter
+    private volatile long generation;
+
+    /**
+     * Time at which the token was last received, or a newer generation learnt, by {@link ExecutionMode#nanoTime()}.
+     */
+    @Getter
+    private volatile long lastTokenNanos;
+
+    private final ExecutionMode mode = ExecutionMode.current();
+
+    public RingMutex(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        super(id, membership, bus, logger);
+    }
+
+    /**
+     * Initializes the token by assigning it to the current process and sending it to the next process
+     * in the ring. This method is used to start the token ring algorithm for managing the critical section.
+     */
+    @Override
+    public void initToken() {
+        Token token = new Token();
+        token.setHolder(this.id);
+        // Une nouvelle génération : le jeton remplace ceux qui circuleraient encore
+        this.lock.lock();
+        try {
+            this.generation = Token.nextGeneration(this.generation, this.id);
+            this.lastTokenNanos = this.mode.nanoTime();
+            token.setGeneration(this.generation);
+        } finally {
+            this.lock.unlock();
+        }
+        this.sendToken(new TokenMessage<>(token, this.id));
+    }
+
+    /**
+     * If the process is in the "REQUEST" state, it keeps the token, enters the critical section
+     * and wakes up the thread blocked in {@link #requestSC()}; the token is then passed on by
+     * {@link #releaseSC()}. Otherwise, the token is passed to the next process right away. A token of
+     * an older generation than the one known is discarded.
+     */
+    @Override
+    public void onToken(TokenMessage<?> tokenMessage) {
+        this.logger.info("Received the token");
+
+        long tokenGeneration = tokenMessage.getToken().getGeneration();
+        this.lock.lock();
+        try {
+            if (tokenGeneration < this.generation) {
+                this.logger.warn("Discarding a stale token of generation {}, {} is current", tokenGeneration, this.generation);
+                return;
+            }
+            this.generation = tokenGeneration;
+            this.lastTokenNanos = this.mode.nanoTime();
+            if (this.state == TokenState.REQUEST) {
+                this.heldToken = tokenMessage;
+                this.enterSC();
+                return;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.sendToken(tokenMessage);
+    }
+
+    /**
+     * Learns a token generation from another process. A newer one makes the token held here, if any,
+     * stale: it will be discarded when released.
+     *
+     * @param generation A token generation.
+     */
+    public void onGeneration(long generation) {
+        this.lock.lock();
+        try {
+            if (generation <= this.generation) return;
+            this.generation = generation;
+            this.lastTokenNanos = this.mode.nanoTime();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return True if the token is kept here, for the critical section.
+     */
+    boolean holdsToken() {
+        this.lock.lock();
+        try {
+            return this.heldToken != null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    protected void onRequestSC() {
+        // Le jeton finira par passer
+    }
+
+    @Override
+    protected TokenMessage<?> onLeave() {
+        return this.onReleaseSC();
+    }
+
+    @Override
+    protected TokenMessage<?> onReleaseSC() {
+        TokenMessage<?> tokenMessage = this.heldToken;
+        this.heldToken = null;
+        return tokenMessage;
+    }
+
+    /**
+     * Sends the token to the next process in the logical ring, as given by the current view of the
+     * cluster. This method posts a system message
+     * (token) to the inbox of the next process without incrementing the Lamport clock, as token
+     * messages are system-related.
+     *
+     * @param tokenMessage The token message to send to the next process.
+     */
+    @Override
+    protected void sendToken(TokenMessage<?> tokenMessage) {
+        View view = this.membership.getView();
+        if (view.size() == 0) {
+            this.logger.info("No process left in the ring, dropping the token");
+            return;
+        }
+        long tokenGeneration = tokenMessage.getToken().getGeneration();
+        if (tokenGeneration < this.generation) {
+            this.logger.warn("Discarding a stale token of generation {}, {} is current", tokenGeneration, this.generation);
+            return;
+        }
+        int nextProcess = view.successorOf(this.id);
+        tokenMessage.getToken().setHolder(nextProcess);
+        this.logger.info("Sending the token to {}", nextProcess);
+        // Le message du jeton est réutilisé d'un saut à l'autre, son émetteur est le détenteur courant
+        tokenMessage.setSender(this.id);
+        this.onTokenSent(tokenMessage);
+        this.bus.postTo(nextProcess, tokenMessage);
+    }
+}
@@ -0,0 +1,188 @@
+package fr.usmb.token;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.RequestMessage;
+import fr.usmb.messages.TokenMessage;
+import fr.usmb.process.ProcessLogger;
+
+import java.util.Arrays;
+
+/**
+ * Suzuki–Kasami broadcast mutual exclusion. A process that wants the critical section broadcasts
+ * a numbered request; the holder sends the token to it once idle. The token carries the number of
+ * the last request served for each process and the queue of waiting processes, so it only moves
+ * when someone asks for it and stays at its holder otherwise.
+ */
+public class SuzukiKasamiMutex extends TokenMutex {
+
+    /**
+     * Highest request number received from each process, indexed by id and grown as processes join.
+     */
+    private long[] requests;
+
+    /**
+     * The token when it is on the current process, null otherwise.
+     */
+    private TokenMessage<?> heldToken;
+
+    public SuzukiKasamiMutex(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        super(id, membership, bus, logger);
+        this.requests = new long[Math.max(id, membership.getView().maxId()) + 1];
+    }
+
+    /**
+     * Creates the token on the current process, where it stays until another process requests it.
+     */
+    @Override
+    public void initToken() {
+        SuzukiKasamiToken token = new SuzukiKasamiToken(this.requests.length);
+        token.setHolder(this.id);
+        TokenMessage<?> tokenMessage = new TokenMessage<>(token, this.id);
+
+        TokenMessage<?> next;
+        this.lock.lock();
+        try {
+            this.heldToken = tokenMessage;
+            next = this.state == TokenState.REQUEST ? this.grant() : this.dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+        if (next != null) this.sendToken(next);
+    }
+
+    /**
+     * Takes the token. If the process is requesting the critical section, it enters it; otherwise
+     * (the request was cancelled meanwhile) the token is handed to the next waiting process or kept.
+     */
+    @Override
+    public void onToken(TokenMessage<?> tokenMessage) {
+        this.logger.info("Received the token");
+
+        TokenMessage<?> next;
+        this.lock.lock();
+        try {
+            this.heldToken = tokenMessage;
+            next = this.state == TokenState.REQUEST ? this.grant() : this.dispatch();
+        } finally {
+            this.lock.unlock();
+        }
+        if (next != null) this.sendToken(next);
+    }
+
+    /**
+     * Records the request number of another process and, if the token is idle here and the
+     * request is outstanding, sends the token to it.
+     */
+    @Override
+    public void onRequest(RequestMessage request) {
+        int requester = request.getSender();
+        if (requester == this.id) return;
+
+        TokenMessage<?> next = null;
+        this.lock.lock();
+        try {
+            this.ensureCapacity(requester);
+            this.requests[requester] = Math.max(this.requests[requester], request.getMessage());
+            if (this.heldToken != null && this.state == TokenState.NULL) {
+                next = this.dispatch();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (next != null) this.sendToken(next);
+    }
+
+    /**
+     * Enters the critical section directly if the token is idle here, broadcasts a new request
+     * otherwise.
+     */
+    @Override
+    protected void onRequestSC() {
+        if (this.heldToken != null) {
+            this.enterSC();
+            return;
+        }
+        long number = ++this.requests[this.id];
+        this.bus.postEvent(new RequestMessage(number, this.id));
+    }
+
+    @Override
+    protected TokenMessage<?> onReleaseSC() {
+        return this.dispatch();
+    }
+
+    @Override
+    protected TokenMessage<?> onLeave() {
+        return this.heldToken != null ? this.dispatch() : null;
+    }
+
+    /**
+     * Sends the token to its holder.
+     */
+    @Override
+    protected void sendToken(TokenMessage<?> tokenMessage) {
+        int holder = tokenMessage.getToken().getHolder();
+        this.logger.info("Sending the token to {}", holder);
+        // Le message du jeton est réutilisé d'un saut à l'autre, son émetteur est le détenteur courant
+        tokenMessage.setSender(this.id);
+        this.onTokenSent(tokenMessage);
+        this.bus.postTo(holder, tokenMessage);
+    }
+
+    /**
+     * Enters the critical section with the token just received. Must be called with the lock held.
+     *
+     * @return Always null, the token stays here.
+     */
+    private TokenMessage<?> grant() {
+        this.enterSC();
+        return null;
+    }
+
+    /**
+     * Marks the current request as served, enqueues the members of the current view with an outstanding
+     * request and gives the token to the first one still in the view. A process that left the view gives
+     * it to its successor if nobody is waiting. Must be called with the lock held while the token is here.
+     *
+     * @return The token message to send, or null if nobody is waiting and the token stays idle.
+     */
+    private TokenMessage<?> dispatch() {
+        View view = this.membership.getView();
+        this.ensureCapacity(view.maxId());
+
+        SuzukiKasamiToken token = (SuzukiKasamiToken) this.heldToken.getToken();
+        token.ensureCapacity(this.requests.length - 1);
+        long[] lastServed = token.getLastServed();
+
+        lastServed[this.id] = this.requests[this.id];
+        for (int i = 0; i < view.size(); i++) {
+            int j = view.memberAt(i);
+            // Une requête interrompue puis renouvelée laisse plus d'un numéro d'avance
+            if (j != this.id && this.requests[j] > lastServed[j]) token.enqueue(j);
+        }
+
+        Integer next = token.poll();
+        while (next != null && !view.contains(next)) {
+            next = token.poll();
+        }
+        // Un processus parti ne garde pas le jeton
+        if (next == null && !view.contains(this.id) && view.size() > 0) next = view.successorOf(this.id);
+        if (next == null) return null;
+
+        TokenMessage<?> tokenMessage = this.heldToken;
+        this.heldToken = null;
+        token.setHolder(next);
+        return tokenMessage;
+    }
+
+    /**
+     * Grows the vector of request numbers so that it can be indexed by the given id.
+     */
+    private void ensureCapacity(int id) {
+        if (id >= this.requests.length) {
+            this.requests = Arrays.copyOf(this.requests, Math.max(id + 1, this.requests.length * 2));
+        }
+    }
+}
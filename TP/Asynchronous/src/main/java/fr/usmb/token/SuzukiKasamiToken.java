@@ -0,0 +1,81 @@
+package fr.usmb.token;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+
+/**
+ * Token of the Suzuki–Kasami algorithm. Besides its holder, it carries the number of the last
+ * request served for each process and the queue of the processes waiting for it.
+ */
+@Getter
+public class SuzukiKasamiToken extends Token {
+
+    private long[] lastServed;
+
+    @Getter(AccessLevel.NONE)
+    private final Queue<Integer> queue;
+
+    /**
+     * Whether each process is in the queue, indexed by id, so that enqueuing does not search the queue.
+     */
+    @Getter(AccessLevel.NONE)
+    private boolean[] queued;
+
+    public SuzukiKasamiToken(int capacity) {
+        this.lastServed = new long[capacity];
+        this.queue = new ArrayDeque<>();
+        this.queued = new boolean[capacity];
+    }
+
+    /**
+     * @return The processes waiting for the token, in the order they will get it.
+     */
+    public Collection<Integer> getQueue() {
+        return Collections.unmodifiableCollection(this.queue);
+    }
+
+    /**
+     * Adds a process at the end of the queue, unless it is already waiting.
+     *
+     * @param id The id of the process.
+     * @return False if the process was already in the queue.
+     */
+    public boolean enqueue(int id) {
+        this.ensureCapacity(id);
+        if (this.queued[id]) return false;
+        this.queued[id] = true;
+        this.queue.add(id);
+        return true;
+    }
+
+    /**
+     * Removes the first process of the queue.
+     *
+     * @return Its id, or null if the queue is empty.
+     */
+    public Integer poll() {
+        Integer next = this.queue.poll();
+        if (next != null) this.queued[next] = false;
+        return next;
+    }
+
+    /**
+     * Grows the vector of served requests so that it can be indexed by the given id.
+     *
+     * @param id The greatest process id to index.
+     */
+    public void ensureCapacity(int id) {
+        if (id >= this.lastServed.length) {
+            this.lastServed = Arrays.copyOf(this.lastServed, Math.max(id + 1, this.lastServed.length * 2));
+        }
+        if (id >= this.queued.length) {
+            this.queued = Arrays.copyOf(this.queued, this.lastServed.length);
+        }
+    }
+}
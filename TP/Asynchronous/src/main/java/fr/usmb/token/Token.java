@@ -1,12 +1,39 @@
 package fr.usmb.token;
 
+import fr.usmb.membership.ProcessIds;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.Serializable;
+
 @Getter
 @Setter
-public class Token {
+public class Token implements Serializable {
+
+    /**
+     * Number of low bits of a generation holding the id of the process that created the token, so that
+     * two processes regenerating the token at once never give it the same generation.
+     */
+    private static final int creatorBits = 20;
+
+    /**
+     * Id of the process the token is sent to.
+     */
+    private int holder = ProcessIds.NONE;
+
+    /**
+     * Generation of the token, 0 for none. A regenerated token supersedes all the tokens of lower
+     * generations, which are discarded wherever they show up.
+     */
+    private long generation;
 
-    private String holder;
+    /**
+     * @param generation The highest generation known by a process, 0 for none.
+     * @param creator The id of the process creating a new token.
+     * @return The generation of the new token, higher than {@code generation}.
+     */
+    public static long nextGeneration(long generation, int creator) {
+        return ((generation >>> creatorBits) + 1) << creatorBits | creator;
+    }
 
 }
@@ -0,0 +1,202 @@
+package fr.usmb.token;
+
+import fr.usmb.EventBusService;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.messages.RequestMessage;
+import fr.usmb.messages.TokenMessage;
+import fr.usmb.process.ProcessLogger;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Base class of the token-based mutual exclusion algorithms. It owns the state of the process
+ * and the monitor on which {@link #requestSC()} waits; subclasses decide how the token moves.
+ * Token and request handlers are called from the bus threads and never block them.
+ */
+public abstract class TokenMutex {
+
+    protected final int id;
+    protected final MembershipService membership;
+    protected final EventBusService bus;
+    protected final ProcessLogger logger;
+
+    /**
+     * Lock guarding the state and the token. The requesting thread waits on {@link #granted} until
+     * the token is granted; a {@link ReentrantLock} lets a virtual thread park there without pinning
+     * its carrier.
+     */
+    protected final ReentrantLock lock;
+    private final Condition granted;
+
+    @Getter
+    protected volatile TokenState state;
+
+    /**
+     * Called with the token message each time the token is about to leave the process, if set. Its
+     * holder is already the next one.
+     */
+    @Setter
+    private Consumer<TokenMessage<?>> tokenSentListener;
+
+    protected TokenMutex(int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        this.id = id;
+        this.membership = membership;
+        this.bus = bus;
+        this.logger = logger;
+        this.lock = new ReentrantLock();
+        this.granted = this.lock.newCondition();
+        this.state = TokenState.NULL;
+    }
+
+    /**
+     * Creates the mutual exclusion algorithm of a process.
+     *
+     * @param algorithm The algorithm to use.
+     * @param id The id of the process.
+     * @param membership The membership service giving the processes taking part in the algorithm.
+     * @param bus The bus used to send the token and the requests.
+     * @param logger The logger of the process.
+     * @return The mutual exclusion algorithm of the process.
+     */
+    public static TokenMutex create(MutexAlgorithm algorithm, int id, MembershipService membership, EventBusService bus, ProcessLogger logger) {
+        switch (algorithm) {
+            case SUZUKI_KASAMI:
+                return new SuzukiKasamiMutex(id, membership, bus, logger);
+            case TOKEN_RING:
+            default:
+                return new RingMutex(id, membership, bus, logger);
+        }
+    }
+
+    /**
+     * Requests access to the critical section. This method sets the process state to "REQUEST" and blocks
+     * until the token is received, allowing the process to enter the critical section.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting for the token.
+     */
+    public void requestSC() throws InterruptedException {
+        this.lock.lock();
+        try {
+            this.state = TokenState.REQUEST;
+            this.onRequestSC();
+            while (this.state == TokenState.REQUEST) {
+                this.granted.await();
+            }
+        } catch (InterruptedException e) {
+            // Jeton déjà accordé : on le garde, l'appelant devra appeler releaseSC()
+            if (this.state == TokenState.CRITICAL_SECTION) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // Sinon, ne plus réclamer le jeton pour qu'il ne reste pas bloqué ici
+            this.state = TokenState.NULL;
+            throw e;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the token after the process has finished its critical section. This method sets the
+     * process state back to "NULL" and lets the algorithm pass the token on.
+     */
+    public void releaseSC() {
+        TokenMessage<?> next;
+        this.lock.lock();
+        try {
+            if (this.state != TokenState.CRITICAL_SECTION) return;
+            this.state = TokenState.NULL;
+            next = this.onReleaseSC();
+        } finally {
+            this.lock.unlock();
+        }
+        this.logger.info("Releasing the token");
+        if (next != null) this.sendToken(next);
+    }
+
+    /**
+     * Lets the token go when the process leaves the cluster: a token kept here is passed to a member of
+     * the view, and so is any token received afterwards. Must be called once the process has left the view.
+     */
+    public void leave() {
+        TokenMessage<?> next;
+        this.lock.lock();
+        try {
+            this.state = TokenState.NULL;
+            next = this.onLeave();
+        } finally {
+            this.lock.unlock();
+        }
+        if (next != null) this.sendToken(next);
+    }
+
+    /**
+     * Creates the token on the current process. Must be called on exactly one process.
+     */
+    public abstract void initToken();
+
+    /**
+     * Handles a token addressed to the current process.
+     *
+     * @param tokenMessage The token message received.
+     */
+    public abstract void onToken(TokenMessage<?> tokenMessage);
+
+    /**
+     * Handles a critical-section request broadcast by another process. Ignored by default.
+     *
+     * @param request The request received.
+     */
+    public void onRequest(RequestMessage request) {
+    }
+
+    /**
+     * Called with the lock held when the process starts requesting the critical section. The
+     * algorithm can grant the access right away with {@link #enterSC()}.
+     */
+    protected abstract void onRequestSC();
+
+    /**
+     * Called with the lock held when the process leaves the critical section.
+     *
+     * @return The token message to send, or null if the token stays on the current process.
+     */
+    protected abstract TokenMessage<?> onReleaseSC();
+
+    /**
+     * Called by {@link #leave()} with the lock held.
+     *
+     * @return The token kept here, to pass to a member, or null if there is none.
+     */
+    protected abstract TokenMessage<?> onLeave();
+
+    /**
+     * Sends the token to the process named as its holder.
+     *
+     * @param tokenMessage The token message to send.
+     */
+    protected abstract void sendToken(TokenMessage<?> tokenMessage);
+
+    /**
+     * Notifies the listener that the token is about to be sent. Called by {@link #sendToken(TokenMessage)}
+     * before the token is posted.
+     *
+     * @param tokenMessage The token message, whose holder is the next one.
+     */
+    protected void onTokenSent(TokenMessage<?> tokenMessage) {
+        if (this.tokenSentListener != null) this.tokenSentListener.accept(tokenMessage);
+    }
+
+    /**
+     * Enters the critical section and wakes up the thread blocked in {@link #requestSC()}.
+     * Must be called with the lock held.
+     */
+    protected void enterSC() {
+        this.state = TokenState.CRITICAL_SECTION;
+        this.granted.signalAll();
+    }
+}
@@ -1,5 +1,5 @@
 package fr.usmb.token;
 
 public enum TokenState {
-    NULL, REQUEST, CRITICAL_SECTION, RELEASE
+    NULL, REQUEST, CRITICAL_SECTION
 }
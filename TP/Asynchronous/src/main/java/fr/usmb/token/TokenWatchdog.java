@@ -0,0 +1,160 @@
+package fr.usmb.token;
+
+import fr.usmb.EventBusService;
+import fr.usmb.ExecutionMode;
+import fr.usmb.membership.MembershipService;
+import fr.usmb.membership.View;
+import fr.usmb.messages.HeartbeatMessage;
+import fr.usmb.process.ProcessLogger;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects the failures on the token ring and regenerates a lost token.
+ * <p>
+ * Each process sends a heartbeat to its successor on every tick and watches its predecessor: a
+ * predecessor silent for longer than the heartbeat timeout is removed from the view, so that the token
+ * no longer goes through it. The removal is local to the node: if the heartbeats of a removed process
+ * resume, it was only slow, and it is added back. The first member of the view also watches the token, which goes around the
+ * ring all the time: if it has not seen it for longer than the token timeout, and does not keep it
+ * itself, the token was lost with a failed process or is stuck in a hung one. It then creates a token of
+ * a new generation and broadcasts that generation, so that the older tokens are discarded wherever they
+ * show up.
+ * <p>
+ * The token timeout must be longer than the longest critical section: a token kept for longer is taken
+ * for lost. The ticks and the times follow the {@link ExecutionMode}, virtual in simulation.
+ */
+public class TokenWatchdog {
+
+    private final RingMutex mutex;
+    private final int id;
+    private final MembershipService membership;
+    private final EventBusService bus;
+    private final ProcessLogger logger;
+    private final ExecutionMode mode;
+
+    private final long heartbeatTimeoutNanos;
+    private final long tokenTimeoutNanos;
+
+    /**
+     * Time of the last heartbeat received from each process, by {@link ExecutionMode#nanoTime()}.
+     */
+    private final Map<Integer, Long> lastHeartbeats;
+
+    /**
+     * Processes removed from the view by this watchdog, added back if they send heartbeats again.
+     */
+    private final Set<Integer> evicted;
+
+    /**
+     * Predecessor watched and the time since when, only used on the thread of the ticks.
+     */
+    private int predecessor;
+    private long predecessorSince;
+
+    private final Future<?> task;
+
+    /**
+     * @param mutex The token ring of the process.
+     * @param id The id of the process.
+     * @param membership The membership service giving the ring.
+     * @param bus The bus used to send the heartbeats.
+     * @param logger The logger of the process.
+     * @param intervalMillis The time between two heartbeats.
+     * @param heartbeatTimeoutMillis The silence after which the predecessor is taken for failed.
+     * @param tokenTimeoutMillis The time without the token after which it is regenerated.
+     * @throws IllegalArgumentException If the heartbeat timeout is not longer than the interval.
+     */
+    public TokenWatchdog(RingMutex mutex, int id, MembershipService membership, EventBusService bus, ProcessLogger logger,
+                         long intervalMillis, long heartbeatTimeoutMillis, long tokenTimeoutMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("The heartbeat interval must be positive: " + intervalMillis);
+        if (heartbeatTimeoutMillis <= intervalMillis) {
+            throw new IllegalArgumentException("The heartbeat timeout must be longer than the interval: " + heartbeatTimeoutMillis);
+        }
+        if (tokenTimeoutMillis <= 0) throw new IllegalArgumentException("The token timeout must be positive: " + tokenTimeoutMillis);
+
+        this.mutex = mutex;
+        this.id = id;
+        this.membership = membership;
+        this.bus = bus;
+        this.logger = logger;
+        this.mode = ExecutionMode.current();
+        this.heartbeatTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatTimeoutMillis);
+        this.tokenTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(tokenTimeoutMillis);
+        this.lastHeartbeats = new ConcurrentHashMap<>();
+        this.evicted = ConcurrentHashMap.newKeySet();
+        this.predecessor = id;
+        this.task = this.mode.scheduleAtFixedRate(this::tick, intervalMillis, "token-watchdog-" + id);
+    }
+
+    /**
+     * Handles a heartbeat from another process, and adds it back to the view if this watchdog removed it.
+     *
+     * @param heartbeat The heartbeat received.
+     */
+    public void onHeartbeat(HeartbeatMessage heartbeat) {
+        int sender = heartbeat.getSender();
+        this.lastHeartbeats.put(sender, this.mode.nanoTime());
+        this.mutex.onGeneration(heartbeat.getMessage());
+        if (this.evicted.remove(sender) && !this.membership.getView().contains(sender)) {
+            // Il n'était que lent : il reprend sa place dans l'anneau
+            this.logger.info("Heartbeats from P{} resumed, adding it back to the ring", sender);
+            this.membership.add(sender);
+        }
+    }
+
+    /**
+     * Stops the heartbeats and the watch of the ring.
+     */
+    public void close() {
+        this.task.cancel(false);
+    }
+
+    private void tick() {
+        // Une exception arrêterait les tics suivants
+        try {
+            View view = this.membership.getView();
+            if (!view.contains(this.id)) return;
+            long now = this.mode.nanoTime();
+
+            int successor = view.successorOf(this.id);
+            if (successor != this.id) this.bus.postTo(successor, new HeartbeatMessage(this.mutex.getGeneration(), this.id));
+            this.watchPredecessor(view, now);
+            this.watchToken(view, now);
+        } catch (RuntimeException e) {
+            this.logger.error("Watchdog tick failed", e);
+        }
+    }
+
+    private void watchPredecessor(View view, long now) {
+        int current = view.predecessorOf(this.id);
+        if (current != this.predecessor) {
+            // Un nouveau voisin a droit à un délai complet
+            this.predecessor = current;
+            this.predecessorSince = now;
+        }
+        if (current == this.id) return;
+
+        long lastHeard = Math.max(this.lastHeartbeats.getOrDefault(current, 0L), this.predecessorSince);
+        if (now - lastHeard <= this.heartbeatTimeoutNanos) return;
+        this.logger.warn("No heartbeat from P{} for {} ms, removing it from the ring", current, TimeUnit.NANOSECONDS.toMillis(now - lastHeard));
+        this.lastHeartbeats.remove(current);
+        this.evicted.add(current);
+        this.membership.leave(current);
+    }
+
+    private void watchToken(View view, long now) {
+        // Seul le premier membre régénère, pour éviter deux jetons de plus
+        if (view.memberAt(0) != this.id || this.mutex.getGeneration() == 0 || this.mutex.holdsToken()) return;
+        long silence = now - this.mutex.getLastTokenNanos();
+        if (silence <= this.tokenTimeoutNanos) return;
+
+        this.logger.warn("Token not seen for {} ms, regenerating it", TimeUnit.NANOSECONDS.toMillis(silence));
+        this.mutex.initToken();
+        this.bus.postEvent(new HeartbeatMessage(this.mutex.getGeneration(), this.id));
+    }
+}
@@ -0,0 +1,55 @@
+package fr.usmb.transport;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of direct buffers of a fixed size. Direct buffers are written to the sockets without any copy,
+ * and pooling them keeps their costly allocation off the send path. Buffers of another size, allocated
+ * for the rare events that do not fit, are simply dropped on release.
+ */
+public class BufferPool {
+
+    @Getter
+    private final int bufferSize;
+
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * @param bufferSize The capacity of the pooled buffers.
+     * @param maxPooled The maximum number of idle buffers kept by the pool.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return A cleared buffer of {@link #getBufferSize()} bytes, from the pool if one is idle.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = this.buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(this.bufferSize);
+    }
+
+    /**
+     * @param size The number of bytes needed.
+     * @return A cleared buffer of at least {@code size} bytes, from the pool if it is small enough.
+     */
+    public ByteBuffer acquire(int size) {
+        return size <= this.bufferSize ? this.acquire() : ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer The buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != this.bufferSize || !buffer.isDirect()) return;
+        buffer.clear();
+        this.buffers.offer(buffer);
+    }
+}
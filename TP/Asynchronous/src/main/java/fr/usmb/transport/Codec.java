@@ -0,0 +1,29 @@
+package fr.usmb.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the events into bytes and back for the transports that leave the JVM.
+ */
+public interface Codec {
+
+    /**
+     * Writes an event at the position of a buffer.
+     *
+     * @param event The event to encode.
+     * @param out The buffer to write to.
+     * @throws java.nio.BufferOverflowException If the buffer is too small; the caller retries with a larger one.
+     * @throws IOException If the event cannot be encoded.
+     */
+    void encode(Object event, ByteBuffer out) throws IOException;
+
+    /**
+     * Reads an event from the remaining bytes of a buffer.
+     *
+     * @param in The buffer holding exactly one encoded event.
+     * @return The decoded event.
+     * @throws IOException If the bytes are not a valid event, truncated ones included.
+     */
+    Object decode(ByteBuffer in) throws IOException;
+}
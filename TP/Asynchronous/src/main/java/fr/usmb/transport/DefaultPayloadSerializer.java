@@ -0,0 +1,139 @@
+package fr.usmb.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payload serializer with a compact encoding for null, booleans, numbers, strings and byte arrays, which
+ * are written without any allocation. Any other payload falls back to Java serialization and must be
+ * {@link java.io.Serializable}; it is read back through the {@link SerialFilter}.
+ */
+public class DefaultPayloadSerializer implements PayloadSerializer {
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte STRING = 6;
+    private static final byte BYTES = 7;
+    private static final byte SERIALIZED = 8;
+
+    @Override
+    public void write(Object payload, ByteBuffer out) throws IOException {
+        if (payload == null) {
+            out.put(NULL);
+        } else if (payload instanceof Boolean) {
+            out.put((Boolean) payload ? TRUE : FALSE);
+        } else if (payload instanceof Integer) {
+            out.put(INTEGER).putInt((Integer) payload);
+        } else if (payload instanceof Long) {
+            out.put(LONG).putLong((Long) payload);
+        } else if (payload instanceof Double) {
+            out.put(DOUBLE).putDouble((Double) payload);
+        } else if (payload instanceof String) {
+            out.put(STRING);
+            writeString((String) payload, out);
+        } else if (payload instanceof byte[]) {
+            byte[] bytes = (byte[]) payload;
+            out.put(BYTES);
+            Varint.writeInt(bytes.length, out);
+            out.put(bytes);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                stream.writeObject(payload);
+            }
+            out.put(SERIALIZED);
+            Varint.writeInt(bytes.size(), out);
+            out.put(bytes.toByteArray());
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer in) throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INTEGER:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case DOUBLE:
+                return in.getDouble();
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case BYTES:
+                return readBytes(in);
+            case SERIALIZED:
+                byte[] bytes = readBytes(in);
+                try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    stream.setObjectInputFilter(SerialFilter.of(bytes.length));
+                    return stream.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown payload class", e);
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupt serialized payload", e);
+                }
+            default:
+                throw new IOException("Unknown payload tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a string in UTF-8 after its length in bytes, straight from its characters.
+     */
+    private static void writeString(String value, ByteBuffer out) {
+        int length = value.length();
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) size += 1;
+            else if (c < 0x800) size += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else size += 3;
+        }
+        Varint.writeInt(size, out);
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) throws IOException {
+        int length = Varint.readInt(in);
+        if (length < 0 || length > in.remaining()) throw new IOException("Truncated payload");
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,146 @@
+package fr.usmb.transport;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.EventBus;
+import fr.usmb.ExecutionMode;
+import fr.usmb.messages.Message;
+import fr.usmb.process.ProcessLogger;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Transport between the processes of a single JVM, on Guava asynchronous event buses: a shared bus
+ * for the broadcasts and one inbox per process for the addressed events. Messages are stamped with the
+ * time of their post, to measure how long they wait for a bus thread.
+ * <p>
+ * When the execution mode provides a {@link LaneExecutor}, each {@link Lane} has its own shared bus and
+ * inboxes, dispatched on its own queue of the executor, so that control traffic overtakes user traffic.
+ */
+public class InMemoryTransport implements Transport {
+
+    /**
+     * Executor of the bus without lanes, null with lanes.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Executor of the lanes, null without lanes.
+     */
+    @Getter
+    private final LaneExecutor lanes;
+
+    /**
+     * Shared bus of each lane, indexed by {@link Lane#ordinal()}. Without lanes, a single bus.
+     */
+    private final EventBus[] eventBuses;
+
+    /**
+     * Routing table from a process id to its own inboxes, one per lane. Addressed events are posted on the
+     * inbox of their target only, the shared buses being kept for broadcasts.
+     */
+    private final Map<Integer, EventBus[]> inboxes;
+
+    private final ProcessLogger logger;
+
+    public InMemoryTransport() {
+        this.lanes = ExecutionMode.current().newBusLanes();
+        this.executor = this.lanes == null ? ExecutionMode.current().newBusExecutor() : null;
+        this.eventBuses = new EventBus[this.lanes != null ? Lane.values().length : 1];
+        for (int i = 0; i < this.eventBuses.length; i++) {
+            this.eventBuses[i] = new AsyncEventBus(this.executorOf(i));
+        }
+        this.inboxes = new ConcurrentHashMap<>();
+        this.logger = new ProcessLogger("transport");
+    }
+
+    @Override
+    public void register(int id, Object subscriber) {
+        EventBus[] inbox = new EventBus[this.eventBuses.length];
+        for (int i = 0; i < inbox.length; i++) {
+            inbox[i] = new AsyncEventBus("P" + id, this.executorOf(i));
+            inbox[i].register(subscriber);
+            this.eventBuses[i].register(subscriber);
+        }
+        this.inboxes.put(id, inbox);
+    }
+
+    @Override
+    public void unregister(int id, Object subscriber) {
+        this.inboxes.remove(id);
+        for (EventBus eventBus : this.eventBuses) eventBus.unregister(subscriber);
+    }
+
+    private Executor executorOf(int lane) {
+        return this.lanes != null ? this.lanes.executor(Lane.values()[lane]) : this.executor;
+    }
+
+    /**
+     * @return The index of the bus of an event, in {@link #eventBuses} and in the inboxes.
+     */
+    private int busOf(Object event) {
+        return this.lanes != null ? Lane.of(event).ordinal() : 0;
+    }
+
+    /**
+     * @param lane A lane.
+     * @return The number of events waiting for a bus thread on that lane, 0 without lanes.
+     */
+    @Override
+    public int getQueueDepth(Lane lane) {
+        return this.lanes != null ? this.lanes.getQueueDepth(lane) : 0;
+    }
+
+    /**
+     * @param id The id of a process.
+     * @return True if the process is registered on this transport.
+     */
+    public boolean hosts(int id) {
+        return this.inboxes.containsKey(id);
+    }
+
+    /**
+     * @return The ids of the processes registered on this transport.
+     */
+    public Iterable<Integer> hostedIds() {
+        return this.inboxes.keySet();
+    }
+
+    @Override
+    public void send(int to, Object event) {
+        EventBus[] inbox = this.inboxes.get(to);
+        if (inbox == null) {
+            this.logger.warn("No process registered with id {}, dropping {}", to, event);
+            return;
+        }
+        stamp(event);
+        try {
+            inbox[this.busOf(event)].post(event);
+        } catch (Exception ex) {
+            this.logger.error("Cannot post {}", event, ex);
+        }
+    }
+
+    @Override
+    public void broadcast(Object event) {
+        stamp(event);
+        try {
+            this.eventBuses[this.busOf(event)].post(event);
+        } catch (Exception ex) {
+            this.logger.error("Cannot post {}", event, ex);
+        }
+    }
+
+    private static void stamp(Object event) {
+        if (event instanceof Message) ((Message<?>) event).setPostedAt(System.nanoTime());
+    }
+
+    @Override
+    public void close() {
+        if (this.lanes != null) this.lanes.shutdown();
+        else this.executor.shutdown();
+    }
+}
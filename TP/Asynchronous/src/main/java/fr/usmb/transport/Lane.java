@@ -0,0 +1,45 @@
+package fr.usmb.transport;
+
+import fr.usmb.messages.AckMessage;
+import fr.usmb.messages.CausalSyncMessage;
+import fr.usmb.messages.CreditMessage;
+import fr.usmb.messages.HeartbeatMessage;
+import fr.usmb.messages.OrderAckMessage;
+import fr.usmb.messages.OrderSyncMessage;
+import fr.usmb.messages.RejectMessage;
+import fr.usmb.messages.RequestMessage;
+import fr.usmb.messages.SnapshotMarker;
+import fr.usmb.messages.SynchronizedMessage;
+import fr.usmb.messages.TokenMessage;
+
+/**
+ * Dispatch lane of an event on the bus. Control traffic, which the processes wait on to enter a critical
+ * section, to pass a barrier or to complete a send, is dispatched before user traffic.
+ */
+public enum Lane {
+
+    /**
+     * Token hops, critical-section requests, barrier messages, acknowledgements, total-order syncs,
+     * rejections, credits, snapshot markers and heartbeats.
+     */
+    CONTROL,
+
+    /**
+     * User messages, and any other event.
+     */
+    DATA;
+
+    /**
+     * @param event An event posted on the bus.
+     * @return The lane on which it is dispatched.
+     */
+    public static Lane of(Object event) {
+        if (event instanceof TokenMessage || event instanceof RequestMessage || event instanceof SynchronizedMessage
+                || event instanceof AckMessage || event instanceof OrderAckMessage || event instanceof OrderSyncMessage
+                || event instanceof RejectMessage || event instanceof CreditMessage || event instanceof SnapshotMarker
+                || event instanceof HeartbeatMessage || event instanceof CausalSyncMessage) {
+            return CONTROL;
+        }
+        return DATA;
+    }
+}
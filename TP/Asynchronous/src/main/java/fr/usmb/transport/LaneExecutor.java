@@ -0,0 +1,293 @@
+package fr.usmb.transport;
+
+import fr.usmb.process.ProcessLogger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded executor of the bus with one queue per {@link Lane}, so that a flood of user messages does
+ * not delay the token, the barriers and the acknowledgements.
+ * <p>
+ * The shared workers take the control tasks first. A starvation guard makes them take a data task
+ * after {@code controlBurst} control tasks in a row while data tasks were waiting, so that user traffic
+ * still progresses under a steady control load. One more worker only runs control tasks: a data handler
+ * blocked on a full mailbox never holds back the control traffic.
+ * <p>
+ * A full queue blocks the thread posting to it, which slows down the senders. The workers themselves
+ * are never blocked: an event they post to a full queue is dispatched on the spot.
+ * <p>
+ * Configured with the {@value #workersProperty}, {@value #capacityProperty} and {@value #burstProperty}
+ * system properties.
+ */
+public final class LaneExecutor {
+
+    public static final String workersProperty = "fr.usmb.bus.workers";
+    public static final String capacityProperty = "fr.usmb.bus.laneCapacity";
+    public static final String burstProperty = "fr.usmb.bus.controlBurst";
+
+    private static final Lane[] lanes = Lane.values();
+
+    /**
+     * The executor whose worker runs the current thread, if any.
+     */
+    private static final ThreadLocal<LaneExecutor> owner = new ThreadLocal<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a task is queued, for the shared workers and for the control worker.
+     */
+    private final Condition arrived = this.lock.newCondition();
+    private final Condition controlArrived = this.lock.newCondition();
+
+    private final List<ArrayDeque<Runnable>> queues;
+    private final ProcessLogger logger = new ProcessLogger("lanes");
+    private final Condition[] notFull;
+    private final int capacity;
+    private final int controlBurst;
+
+    /**
+     * Control tasks taken in a row by the shared workers while data tasks were waiting.
+     */
+    private int controlRun;
+    private boolean shutdown;
+
+    /**
+     * Idle workers, so that a task wakes up a single one: the control worker first for a control task.
+     */
+    private boolean controlIdle;
+    private int idle;
+
+    private final int[] peakDepth;
+    private final long[] executed;
+    private final long[] inlined;
+    private long guarded;
+
+    /**
+     * @param workers The number of shared workers, 1 or more. One control worker is added.
+     * @param capacity The capacity of each queue.
+     * @param controlBurst The number of control tasks taken in a row before a waiting data task.
+     * @param threads The factory of the worker threads, which must be daemon threads.
+     */
+    public LaneExecutor(int workers, int capacity, int controlBurst, ThreadFactory threads) {
+        if (workers < 1) throw new IllegalArgumentException("At least one worker is needed: " + workers);
+        if (capacity < 1) throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        if (controlBurst < 1) throw new IllegalArgumentException("The control burst must be positive: " + controlBurst);
+
+        this.capacity = capacity;
+        this.controlBurst = controlBurst;
+        this.queues = new ArrayList<>(lanes.length);
+        this.notFull = new Condition[lanes.length];
+        for (Lane lane : lanes) {
+            this.queues.add(new ArrayDeque<>());
+            this.notFull[lane.ordinal()] = this.lock.newCondition();
+        }
+        this.peakDepth = new int[lanes.length];
+        this.executed = new long[lanes.length];
+        this.inlined = new long[lanes.length];
+
+        List<Thread> threadList = new ArrayList<>(workers + 1);
+        threadList.add(threads.newThread(() -> this.work(true)));
+        threadList.get(0).setName("bus-control");
+        for (int i = 0; i < workers; i++) {
+            Thread thread = threads.newThread(() -> this.work(false));
+            thread.setName("bus-" + i);
+            threadList.add(thread);
+        }
+        for (Thread thread : threadList) thread.start();
+    }
+
+    /**
+     * Creates the executor from the system properties, with {@code defaultWorkers} shared workers if
+     * {@value #workersProperty} is not set.
+     *
+     * @return The executor, or null if the number of workers is 0.
+     */
+    public static LaneExecutor fromSystemProperties(int defaultWorkers, ThreadFactory threads) {
+        int workers = Integer.getInteger(workersProperty, defaultWorkers);
+        if (workers <= 0) return null;
+        return new LaneExecutor(workers, Integer.getInteger(capacityProperty, 4096), Integer.getInteger(burstProperty, 8), threads);
+    }
+
+    /**
+     * @param lane A lane.
+     * @return The executor queuing its tasks on that lane, for the {@link com.google.common.eventbus.AsyncEventBus}.
+     */
+    public Executor executor(Lane lane) {
+        return task -> this.execute(lane, task);
+    }
+
+    private void execute(Lane lane, Runnable task) {
+        int index = lane.ordinal();
+        ArrayDeque<Runnable> queue = this.queues.get(index);
+        boolean inline = false;
+
+        this.lock.lock();
+        try {
+            while (true) {
+                if (this.shutdown) throw new RejectedExecutionException("The bus is stopped");
+                if (queue.size() < this.capacity) break;
+                if (owner.get() == this) {
+                    inline = true;
+                    this.inlined[index]++;
+                    this.executed[index]++;
+                    break;
+                }
+                this.notFull[index].awaitUninterruptibly();
+            }
+
+            if (!inline) {
+                queue.add(task);
+                if (queue.size() > this.peakDepth[index]) this.peakDepth[index] = queue.size();
+                if (lane == Lane.CONTROL && this.controlIdle) this.controlArrived.signal();
+                else if (this.idle > 0) this.arrived.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (inline) this.run(task);
+    }
+
+    private void work(boolean controlOnly) {
+        owner.set(this);
+        while (true) {
+            Runnable task;
+            Lane lane;
+            this.lock.lock();
+            try {
+                while (true) {
+                    lane = this.nextLane(controlOnly);
+                    if (lane != null) break;
+                    if (this.shutdown) return;
+                    if (controlOnly) {
+                        this.controlIdle = true;
+                        this.controlArrived.awaitUninterruptibly();
+                        this.controlIdle = false;
+                    } else {
+                        this.idle++;
+                        this.arrived.awaitUninterruptibly();
+                        this.idle--;
+                    }
+                }
+                task = this.queues.get(lane.ordinal()).poll();
+                this.executed[lane.ordinal()]++;
+                this.notFull[lane.ordinal()].signal();
+            } finally {
+                this.lock.unlock();
+            }
+            this.run(task);
+        }
+    }
+
+    /**
+     * Chooses the lane of the next task of a worker. Must be called with the lock held.
+     *
+     * @return The lane, or null if the worker has nothing to run.
+     */
+    private Lane nextLane(boolean controlOnly) {
+        boolean control = !this.queues.get(Lane.CONTROL.ordinal()).isEmpty();
+        if (controlOnly) return control ? Lane.CONTROL : null;
+
+        boolean data = !this.queues.get(Lane.DATA.ordinal()).isEmpty();
+        if (control && !(data && this.controlRun >= this.controlBurst)) {
+            this.controlRun = data ? this.controlRun + 1 : 0;
+            return Lane.CONTROL;
+        }
+        if (!data) return null;
+        // Garde anti-famine : une tâche de données passe devant le contrôle
+        if (control) this.guarded++;
+        this.controlRun = 0;
+        return Lane.DATA;
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            this.logger.error("A task of the bus failed", e);
+        }
+    }
+
+    /**
+     * @return The number of tasks waiting on a lane.
+     */
+    public int getQueueDepth(Lane lane) {
+        this.lock.lock();
+        try {
+            return this.queues.get(lane.ordinal()).size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The highest number of tasks that waited on a lane at once.
+     */
+    public int getPeakQueueDepth(Lane lane) {
+        this.lock.lock();
+        try {
+            return this.peakDepth[lane.ordinal()];
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of tasks taken from a lane, or run inline, so far.
+     */
+    public long getExecuted(Lane lane) {
+        this.lock.lock();
+        try {
+            return this.executed[lane.ordinal()];
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of tasks that a worker ran itself because their queue was full.
+     */
+    public long getInlined(Lane lane) {
+        this.lock.lock();
+        try {
+            return this.inlined[lane.ordinal()];
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of data tasks taken before waiting control tasks by the starvation guard.
+     */
+    public long getGuarded() {
+        this.lock.lock();
+        try {
+            return this.guarded;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting tasks. The workers run the tasks already queued, then exit.
+     */
+    public void shutdown() {
+        this.lock.lock();
+        try {
+            this.shutdown = true;
+            this.arrived.signalAll();
+            this.controlArrived.signalAll();
+            for (Condition condition : this.notFull) condition.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
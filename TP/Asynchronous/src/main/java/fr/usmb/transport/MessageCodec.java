@@ -0,0 +1,356 @@
+package fr.usmb.transport;
+
+import fr.usmb.messages.AckMessage;
+import fr.usmb.messages.BatchMessage;
+import fr.usmb.messages.BroadcastBatchMessage;
+import fr.usmb.messages.BroadcastMessage;
+import fr.usmb.messages.CausalMessage;
+import fr.usmb.messages.CausalSyncMessage;
+import fr.usmb.messages.CreditMessage;
+import fr.usmb.messages.DedicatedBatchMessage;
+import fr.usmb.messages.DedicatedMessage;
+import fr.usmb.messages.HeartbeatMessage;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.OrderAckMessage;
+import fr.usmb.messages.OrderSyncMessage;
+import fr.usmb.messages.RejectMessage;
+import fr.usmb.messages.RequestMessage;
+import fr.usmb.messages.SnapshotMarker;
+import fr.usmb.messages.SynchronizedMessage;
+import fr.usmb.messages.TokenMessage;
+import fr.usmb.messages.TotalOrderMessage;
+import fr.usmb.token.SuzukiKasamiToken;
+import fr.usmb.token.Token;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the {@link Message} hierarchy.
+ * <p>
+ * Every message starts with a header: a one-byte type tag, the sender id as a 4-byte int, the timestamp
+ * as a varint and, only if the tag has its {@link #correlated} bit set, the 8-byte correlation id, then
+ * the snapshot epoch as a varint if the tag has its {@link #colored} bit set. The
+ * header is followed by the fields of the type (receiver id, token, vector clock, sequence number, barrier round...) and by the payload,
+ * written by a pluggable {@link PayloadSerializer}. Nothing is allocated while encoding, apart from what
+ * the serializer needs for its payload.
+ */
+public class MessageCodec implements Codec {
+
+    private static final byte BROADCAST = 1;
+    private static final byte DEDICATED = 2;
+    private static final byte TOKEN = 3;
+    private static final byte SYNCHRONIZED = 4;
+    private static final byte REQUEST = 5;
+    private static final byte ACK = 6;
+    private static final byte BROADCAST_BATCH = 7;
+    private static final byte DEDICATED_BATCH = 8;
+    private static final byte CAUSAL = 9;
+    private static final byte TOTAL = 10;
+    private static final byte ORDER_ACK = 11;
+    private static final byte REJECT = 12;
+    private static final byte CREDIT = 13;
+    private static final byte MARKER = 14;
+    private static final byte HEARTBEAT = 15;
+    private static final byte ORDER_SYNC = 16;
+    private static final byte CAUSAL_SYNC = 17;
+
+    /**
+     * Bit of the type tag telling that a correlation id follows the timestamp.
+     */
+    private static final byte correlated = (byte) 0x80;
+
+    /**
+     * Bit of the type tag telling that a snapshot epoch follows the correlation id.
+     */
+    private static final byte colored = 0x40;
+
+    private static final byte PLAIN_TOKEN = 0;
+    private static final byte SUZUKI_KASAMI_TOKEN = 1;
+
+    private final PayloadSerializer payloads;
+
+    public MessageCodec() {
+        this(new DefaultPayloadSerializer());
+    }
+
+    public MessageCodec(PayloadSerializer payloads) {
+        this.payloads = payloads;
+    }
+
+    @Override
+    public void encode(Object event, ByteBuffer out) throws IOException {
+        if (!(event instanceof Message)) throw new IOException("Not a message: " + event);
+        Message<?> message = (Message<?>) event;
+
+        byte type = typeOf(message);
+        byte tag = type;
+        if (message.getCorrelationId() != 0) tag |= correlated;
+        if (message.getSnapshotEpoch() != 0) tag |= colored;
+        out.put(tag);
+        out.putInt(message.getSender());
+        Varint.writeLong(message.getTimestamp(), out);
+        if (message.getCorrelationId() != 0) out.putLong(message.getCorrelationId());
+        if (message.getSnapshotEpoch() != 0) Varint.writeLong(message.getSnapshotEpoch(), out);
+
+        switch (type) {
+            case BROADCAST:
+                this.payloads.write(message.getMessage(), out);
+                break;
+            case ACK:
+            case REJECT:
+                // Le payload est l'id de corrélation, déjà dans l'en-tête
+                break;
+            case DEDICATED:
+                out.putInt(((DedicatedMessage<?>) message).getReceiver());
+                this.payloads.write(message.getMessage(), out);
+                break;
+            case TOKEN:
+                writeToken(((TokenMessage<?>) message).getToken(), out);
+                break;
+            case SYNCHRONIZED:
+                SynchronizedMessage sync = (SynchronizedMessage) message;
+                Varint.writeLong(sync.getGeneration(), out);
+                Varint.writeInt(sync.getRound(), out);
+                break;
+            case REQUEST:
+                Varint.writeLong(((RequestMessage) message).getMessage(), out);
+                break;
+            case DEDICATED_BATCH:
+                out.putInt(((DedicatedBatchMessage<?>) message).getReceiver());
+                this.writeBatch((BatchMessage<?>) message, out);
+                break;
+            case BROADCAST_BATCH:
+                this.writeBatch((BatchMessage<?>) message, out);
+                break;
+            case CAUSAL:
+                writeVector(((CausalMessage<?>) message).getVector(), out);
+                this.payloads.write(message.getMessage(), out);
+                break;
+            case TOTAL:
+                Varint.writeLong(((TotalOrderMessage<?>) message).getSequence(), out);
+                this.payloads.write(message.getMessage(), out);
+                break;
+            case ORDER_ACK:
+                Varint.writeLong(((OrderAckMessage) message).getSequence(), out);
+                break;
+            case ORDER_SYNC:
+                Varint.writeLong(((OrderSyncMessage) message).getSequence(), out);
+                Varint.writeInt(((OrderSyncMessage) message).getMessage(), out);
+                break;
+            case CAUSAL_SYNC:
+                writeVector(((CausalSyncMessage) message).getMessage(), out);
+                break;
+            case CREDIT:
+                Varint.writeInt(((CreditMessage) message).getMessage(), out);
+                break;
+            case MARKER:
+                Varint.writeLong(((SnapshotMarker) message).getMessage(), out);
+                Varint.writeLong(((SnapshotMarker) message).getSentCount(), out);
+                break;
+            case HEARTBEAT:
+                Varint.writeLong(((HeartbeatMessage) message).getMessage(), out);
+                break;
+        }
+    }
+
+    @Override
+    public Object decode(ByteBuffer in) throws IOException {
+        try {
+            return this.readMessage(in);
+        } catch (BufferUnderflowException e) {
+            // Les champs de taille fixe sont lus sans vérification, une entrée tronquée finit ici
+            throw new IOException("Truncated message", e);
+        }
+    }
+
+    private Message<?> readMessage(ByteBuffer in) throws IOException {
+        byte tag = in.get();
+        byte type = (byte) (tag & ~(correlated | colored));
+        int sender = in.getInt();
+        long timestamp = Varint.readLong(in);
+        long correlationId = (tag & correlated) != 0 ? in.getLong() : 0;
+        long snapshotEpoch = (tag & colored) != 0 ? Varint.readLong(in) : 0;
+
+        Message<?> message;
+        switch (type) {
+            case BROADCAST:
+                message = new BroadcastMessage<>(this.payloads.read(in), sender);
+                break;
+            case ACK:
+                message = new AckMessage(correlationId, sender);
+                break;
+            case REJECT:
+                message = new RejectMessage(correlationId, sender);
+                break;
+            case CREDIT:
+                message = new CreditMessage(Varint.readInt(in), sender);
+                break;
+            case DEDICATED:
+                int receiver = in.getInt();
+                message = new DedicatedMessage<>(this.payloads.read(in), sender, receiver);
+                break;
+            case TOKEN:
+                message = new TokenMessage<>(readToken(in), sender);
+                break;
+            case SYNCHRONIZED:
+                long generation = Varint.readLong(in);
+                message = new SynchronizedMessage(sender, generation, Varint.readInt(in));
+                break;
+            case REQUEST:
+                message = new RequestMessage(Varint.readLong(in), sender);
+                break;
+            case DEDICATED_BATCH:
+                int batchReceiver = in.getInt();
+                message = new DedicatedBatchMessage<>(this.readBatch(in), sender, batchReceiver);
+                break;
+            case BROADCAST_BATCH:
+                message = new BroadcastBatchMessage<>(this.readBatch(in), sender);
+                break;
+            case CAUSAL:
+                long[] vector = readVector(in);
+                message = new CausalMessage<>(this.payloads.read(in), sender, vector);
+                break;
+            case TOTAL:
+                long sequence = Varint.readLong(in);
+                message = new TotalOrderMessage<>(this.payloads.read(in), sender, sequence);
+                break;
+            case ORDER_ACK:
+                message = new OrderAckMessage(sender, Varint.readLong(in));
+                break;
+            case ORDER_SYNC:
+                long syncSequence = Varint.readLong(in);
+                message = new OrderSyncMessage(Varint.readInt(in), sender, syncSequence);
+                break;
+            case CAUSAL_SYNC:
+                message = new CausalSyncMessage(readVector(in), sender);
+                break;
+            case MARKER:
+                long epoch = Varint.readLong(in);
+                message = new SnapshotMarker(epoch, Varint.readLong(in), sender);
+                break;
+            case HEARTBEAT:
+                message = new HeartbeatMessage(Varint.readLong(in), sender);
+                break;
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+        message.setTimestamp(timestamp);
+        message.setCorrelationId(correlationId);
+        message.setSnapshotEpoch(snapshotEpoch);
+        return message;
+    }
+
+    private static byte typeOf(Message<?> message) throws IOException {
+        if (message instanceof BroadcastMessage) return BROADCAST;
+        if (message instanceof DedicatedMessage) return DEDICATED;
+        if (message instanceof TokenMessage) return TOKEN;
+        if (message instanceof SynchronizedMessage) return SYNCHRONIZED;
+        if (message instanceof RequestMessage) return REQUEST;
+        if (message instanceof AckMessage) return ACK;
+        if (message instanceof BroadcastBatchMessage) return BROADCAST_BATCH;
+        if (message instanceof DedicatedBatchMessage) return DEDICATED_BATCH;
+        if (message instanceof CausalMessage) return CAUSAL;
+        if (message instanceof TotalOrderMessage) return TOTAL;
+        if (message instanceof OrderAckMessage) return ORDER_ACK;
+        if (message instanceof OrderSyncMessage) return ORDER_SYNC;
+        if (message instanceof CausalSyncMessage) return CAUSAL_SYNC;
+        if (message instanceof RejectMessage) return REJECT;
+        if (message instanceof CreditMessage) return CREDIT;
+        if (message instanceof SnapshotMarker) return MARKER;
+        if (message instanceof HeartbeatMessage) return HEARTBEAT;
+        throw new IOException("No encoding for " + message.getClass().getName());
+    }
+
+    private void writeBatch(BatchMessage<?> batch, ByteBuffer out) throws IOException {
+        List<?> items = batch.getMessage();
+        Varint.writeInt(items.size(), out);
+        for (int i = 0; i < items.size(); i++) {
+            this.payloads.write(items.get(i), out);
+        }
+    }
+
+    private List<Object> readBatch(ByteBuffer in) throws IOException {
+        int size = Varint.readInt(in);
+        if (size < 0 || size > in.remaining()) throw new IOException("Truncated batch");
+        List<Object> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(this.payloads.read(in));
+        }
+        return items;
+    }
+
+    private static void writeVector(long[] vector, ByteBuffer out) {
+        Varint.writeInt(vector.length, out);
+        for (long entry : vector) {
+            Varint.writeLong(entry, out);
+        }
+    }
+
+    private static long[] readVector(ByteBuffer in) throws IOException {
+        int length = Varint.readInt(in);
+        if (length < 0 || length > in.remaining()) throw new IOException("Truncated vector");
+        long[] vector = new long[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = Varint.readLong(in);
+        }
+        return vector;
+    }
+
+    private static void writeToken(Token token, ByteBuffer out) {
+        if (token instanceof SuzukiKasamiToken) {
+            SuzukiKasamiToken skToken = (SuzukiKasamiToken) token;
+            out.put(SUZUKI_KASAMI_TOKEN);
+            out.putInt(token.getHolder());
+            long[] lastServed = skToken.getLastServed();
+            Varint.writeInt(lastServed.length, out);
+            for (long served : lastServed) {
+                Varint.writeLong(served, out);
+            }
+            Varint.writeInt(skToken.getQueue().size(), out);
+            for (int waiting : skToken.getQueue()) {
+                out.putInt(waiting);
+            }
+        } else {
+            out.put(PLAIN_TOKEN);
+            out.putInt(token.getHolder());
+        }
+        Varint.writeLong(token.getGeneration(), out);
+    }
+
+    private static Token readToken(ByteBuffer in) throws IOException {
+        byte kind = in.get();
+        int holder = in.getInt();
+        Token token;
+        switch (kind) {
+            case PLAIN_TOKEN:
+                token = new Token();
+                break;
+            case SUZUKI_KASAMI_TOKEN:
+                int length = Varint.readInt(in);
+                if (length < 0 || length > in.remaining()) throw new IOException("Truncated token");
+                SuzukiKasamiToken skToken = new SuzukiKasamiToken(length);
+                long[] lastServed = skToken.getLastServed();
+                for (int i = 0; i < length; i++) {
+                    lastServed[i] = Varint.readLong(in);
+                }
+                int waiting = Varint.readInt(in);
+                if (waiting < 0 || waiting > in.remaining() / 4) throw new IOException("Truncated token");
+                for (int i = 0; i < waiting; i++) {
+                    int waitingId = in.getInt();
+                    if (waitingId < 0 || waitingId >= length) throw new IOException("Invalid process id " + waitingId + " in the token queue");
+                    skToken.enqueue(waitingId);
+                }
+                token = skToken;
+                break;
+            default:
+                throw new IOException("Unknown token kind " + kind);
+        }
+        token.setHolder(holder);
+        token.setGeneration(Varint.readLong(in));
+        return token;
+    }
+}
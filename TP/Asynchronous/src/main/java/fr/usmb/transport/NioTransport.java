@@ -0,0 +1,609 @@
+package fr.usmb.transport;
+
+import fr.usmb.membership.MembershipService;
+import fr.usmb.process.ProcessLogger;
+import lombok.Getter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transport between the nodes of a cluster spread over several JVMs, with non-blocking TCP sockets.
+ * <p>
+ * Each JVM is a node of a static list of addresses. The processes of a node are delivered through an
+ * {@link InMemoryTransport}; the events for the other nodes go through a single connection per pair of
+ * nodes, opened by the node with the greater index and retried until the other node is up. A single
+ * selector thread accepts, connects, reads and writes every connection; the senders only encode their
+ * event in a pooled direct buffer and queue the frame, so that nothing is allocated on the send path
+ * once the pool and the queues are warm.
+ * <p>
+ * A frame is a 4-byte length followed by a 4-byte target and the body: the id of the destination
+ * process and the encoded event, or a negative control code. Process ids are split between the nodes
+ * with {@link MembershipService#partitionIds(int, int)}, so the node of a process is {@code id % nodes};
+ * the joins and leaves of the local processes are sent to the other nodes, which add them to their view.
+ * <p>
+ * Events are not resent when a connection breaks: the processes of the lost node leave the view, and
+ * the frames queued for it are sent once the connection is back. At most {@value #maxOutbox} event
+ * frames wait for a peer, the next ones are dropped until its queue drains; the joins and leaves are
+ * always queued. A frame that cannot be decoded is dropped, and a malformed control frame closes the
+ * connection.
+ */
+public class NioTransport implements Transport {
+
+    public static final String nodesProperty = "fr.usmb.transport.nodes";
+    public static final String nodeProperty = "fr.usmb.transport.node";
+    public static final String codecProperty = "fr.usmb.transport.codec";
+
+    private static final int HELLO = -1;
+    private static final int BROADCAST = -2;
+    private static final int JOIN = -3;
+    private static final int LEAVE = -4;
+
+    private static final int headerSize = 8;
+    private static final int maxFrameSize = 64 << 20;
+    private static final int batchSize = 64;
+    private static final int bufferSize = 4 << 10;
+    private static final int maxPooled = 1024;
+    private static final int maxOutbox = 16 << 10;
+    private static final long retryDelay = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /**
+     * The index of this node in the list of addresses.
+     */
+    @Getter
+    private final int node;
+
+    @Getter
+    private final int nodeCount;
+
+    private final InMemoryTransport local;
+    private final Codec codec;
+    private final MembershipService membership;
+    private final BufferPool pool;
+    private final ProcessLogger logger;
+
+    private final Peer[] peers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+
+    private final Thread loop;
+    private volatile boolean running;
+
+    /**
+     * A remote node and the frames waiting to be sent to it.
+     */
+    private static final class Peer {
+        private final int node;
+        private final InetSocketAddress address;
+        private final ReentrantLock lock;
+        private final ArrayDeque<ByteBuffer> outbox;
+
+        /**
+         * Number of event frames dropped because the outbox was full, since the last report. Guarded by the lock.
+         */
+        private long dropped;
+
+        /**
+         * Set when frames were queued since the selector thread last looked at this peer.
+         */
+        private final AtomicBoolean flushScheduled;
+
+        // Selector thread only
+        private Connection connection;
+        private long nextAttempt;
+
+        private Peer(int node, InetSocketAddress address) {
+            this.node = node;
+            this.address = address;
+            this.lock = new ReentrantLock();
+            this.outbox = new ArrayDeque<>();
+            this.flushScheduled = new AtomicBoolean();
+        }
+    }
+
+    /**
+     * A socket, its reading state and the frames taken from the outbox being written. Only used by
+     * the selector thread.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer[] batch;
+        private int batchStart, batchEnd;
+        private ByteBuffer in;
+        private Peer peer;
+        private boolean ready;
+
+        private Connection(SocketChannel channel, Peer peer) {
+            this.channel = channel;
+            this.batch = new ByteBuffer[batchSize];
+            this.in = ByteBuffer.allocateDirect(64 << 10);
+            this.peer = peer;
+        }
+    }
+
+    /**
+     * Starts the node: binds its address and connects to the nodes of smaller index. Must be created
+     * before any process joins the cluster.
+     *
+     * @param node The index of this node in the list of addresses.
+     * @param nodes The addresses of all the nodes of the cluster, in the same order on every node.
+     * @param codec The codec of the events.
+     * @throws IOException If the address of this node cannot be bound.
+     */
+    public NioTransport(int node, List<InetSocketAddress> nodes, Codec codec) throws IOException {
+        if (node < 0 || node >= nodes.size()) throw new IllegalArgumentException("No address for node " + node);
+
+        this.node = node;
+        this.nodeCount = nodes.size();
+        this.local = new InMemoryTransport();
+        this.codec = codec;
+        this.membership = MembershipService.getInstance();
+        this.membership.partitionIds(node, this.nodeCount);
+        this.pool = new BufferPool(bufferSize, maxPooled);
+        this.logger = new ProcessLogger("node-" + node);
+
+        this.peers = new Peer[this.nodeCount];
+        for (int i = 0; i < this.nodeCount; i++) {
+            if (i != node) this.peers[i] = new Peer(i, nodes.get(i));
+        }
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.server.bind(nodes.get(node));
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        this.running = true;
+        this.loop = new Thread(this::run, "transport-" + node);
+        this.loop.setDaemon(true);
+        this.loop.start();
+    }
+
+    /**
+     * Creates the transport described by the {@value #nodesProperty} and {@value #nodeProperty} system
+     * properties, e.g. {@code -Dfr.usmb.transport.nodes=localhost:7000,localhost:7001 -Dfr.usmb.transport.node=1}.
+     * The events are encoded with the {@link MessageCodec}, or with Java serialization if
+     * {@value #codecProperty} is {@code serialization}.
+     *
+     * @return The transport, or null if the nodes are not set.
+     * @throws IOException If the address of this node cannot be bound.
+     */
+    public static NioTransport fromSystemProperties() throws IOException {
+        String property = System.getProperty(nodesProperty);
+        if (property == null || property.isBlank()) return null;
+
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String address : property.split(",")) {
+            int colon = address.lastIndexOf(':');
+            nodes.add(new InetSocketAddress(address.substring(0, colon).trim(), Integer.parseInt(address.substring(colon + 1).trim())));
+        }
+        Codec codec = "serialization".equalsIgnoreCase(System.getProperty(codecProperty)) ? new SerializationCodec() : new MessageCodec();
+        return new NioTransport(Integer.getInteger(nodeProperty, 0), nodes, codec);
+    }
+
+    @Override
+    public void register(int id, Object subscriber) {
+        this.local.register(id, subscriber);
+        for (Peer peer : this.peers) {
+            if (peer != null) this.enqueue(peer, this.control(JOIN, id), true);
+        }
+    }
+
+    @Override
+    public void unregister(int id, Object subscriber) {
+        this.local.unregister(id, subscriber);
+        for (Peer peer : this.peers) {
+            if (peer != null) this.enqueue(peer, this.control(LEAVE, id), true);
+        }
+    }
+
+    @Override
+    public int getQueueDepth(Lane lane) {
+        return this.local.getQueueDepth(lane);
+    }
+
+    @Override
+    public void send(int to, Object event) {
+        if (this.local.hosts(to)) {
+            this.local.send(to, event);
+            return;
+        }
+        Peer peer = to >= 0 ? this.peers[to % this.nodeCount] : null;
+        if (peer == null) {
+            this.logger.warn("No process registered with id {}, dropping {}", to, event);
+            return;
+        }
+        ByteBuffer frame = this.frame(to, event);
+        if (frame != null) this.enqueue(peer, frame, false);
+    }
+
+    @Override
+    public void broadcast(Object event) {
+        this.local.broadcast(event);
+        if (this.nodeCount == 1) return;
+
+        ByteBuffer frame = this.frame(BROADCAST, event);
+        if (frame == null) return;
+
+        // Encodée une seule fois, copiée pour chaque pair : chaque tampon a un seul propriétaire
+        Peer last = null;
+        for (Peer peer : this.peers) {
+            if (peer == null) continue;
+            if (last != null) {
+                ByteBuffer copy = this.pool.acquire(frame.limit());
+                copy.put(0, frame, 0, frame.limit()).limit(frame.limit());
+                this.enqueue(last, copy, false);
+            }
+            last = peer;
+        }
+        this.enqueue(last, frame, false);
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.loop.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.local.close();
+    }
+
+    /**
+     * Encodes an event in a pooled buffer, ready to be written. An event too large for the pooled
+     * buffers is encoded again in a buffer twice as large, until it fits.
+     *
+     * @return The frame, or null if the event cannot be encoded.
+     */
+    private ByteBuffer frame(int target, Object event) {
+        ByteBuffer frame = this.pool.acquire();
+        while (true) {
+            try {
+                frame.position(4);
+                frame.putInt(target);
+                this.codec.encode(event, frame);
+                frame.putInt(0, frame.position() - 4);
+                return frame.flip();
+            } catch (BufferOverflowException e) {
+                int capacity = frame.capacity() * 2;
+                this.pool.release(frame);
+                frame = ByteBuffer.allocateDirect(capacity);
+            } catch (IOException e) {
+                this.pool.release(frame);
+                this.logger.error("Cannot encode {}, dropping it", event, e);
+                return null;
+            }
+        }
+    }
+
+    private ByteBuffer control(int code, int value) {
+        return this.pool.acquire().putInt(headerSize).putInt(code).putInt(value).flip();
+    }
+
+    /**
+     * Queues a frame for a peer and wakes up the selector thread, once for all the frames queued
+     * before it runs. An event frame is dropped and returned to the pool if the outbox of the peer is full.
+     *
+     * @param control True for the control frames, which are queued whatever the size of the outbox.
+     */
+    private void enqueue(Peer peer, ByteBuffer frame, boolean control) {
+        boolean queued;
+        long dropped;
+        peer.lock.lock();
+        try {
+            queued = control || peer.outbox.size() < maxOutbox;
+            if (queued) peer.outbox.addLast(frame);
+            dropped = queued ? 0 : ++peer.dropped;
+        } finally {
+            peer.lock.unlock();
+        }
+        if (!queued) {
+            // Le pair ne suit plus : la trame est perdue, comme si la connexion était coupée
+            this.pool.release(frame);
+            if (dropped == 1) this.logger.warn("The outbox of node {} is full, dropping the events sent to it", peer.node);
+            return;
+        }
+        if (peer.flushScheduled.compareAndSet(false, true)) {
+            this.selector.wakeup();
+        }
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                this.connectPeers();
+                this.selector.select(TimeUnit.NANOSECONDS.toMillis(retryDelay));
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    this.handle(key);
+                }
+
+                for (Peer peer : this.peers) {
+                    if (peer == null || !peer.flushScheduled.getAndSet(false)) continue;
+                    Connection connection = peer.connection;
+                    if (connection == null || !connection.ready) continue;
+                    try {
+                        this.write(connection);
+                    } catch (IOException e) {
+                        this.disconnect(connection);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // Le thread du sélecteur est seul à faire avancer les connexions, il ne doit pas s'arrêter
+                this.logger.error("Selector loop failed", e);
+            }
+        }
+
+        for (SelectionKey key : this.selector.keys()) {
+            closeQuietly(key);
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            this.logger.error("Cannot close the selector", e);
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) return;
+        if (key.isAcceptable()) {
+            this.accept();
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) this.finishConnect(key, connection);
+            if (key.isValid() && key.isReadable()) this.read(connection);
+            if (key.isValid() && key.isWritable()) this.write(connection);
+        } catch (IOException e) {
+            this.disconnect(connection);
+        } catch (RuntimeException e) {
+            this.logger.error("Closing the connection with node {}", connection.peer != null ? connection.peer.node : "unknown", e);
+            this.disconnect(connection);
+        }
+    }
+
+    /**
+     * Opens the connections to the nodes of smaller index that are not connected yet.
+     */
+    private void connectPeers() throws IOException {
+        long now = System.nanoTime();
+        for (int i = 0; i < this.node; i++) {
+            Peer peer = this.peers[i];
+            if (peer.connection != null || now - peer.nextAttempt < 0) continue;
+
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            peer.connection = new Connection(channel, peer);
+            channel.connect(peer.address);
+            channel.register(this.selector, SelectionKey.OP_CONNECT, peer.connection);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        // Le pair ne sera connu qu'à la réception de son HELLO
+        channel.register(this.selector, SelectionKey.OP_READ, new Connection(channel, null));
+    }
+
+    private void finishConnect(SelectionKey key, Connection connection) throws IOException {
+        connection.channel.finishConnect();
+        key.interestOps(SelectionKey.OP_READ);
+        this.ready(connection, true);
+    }
+
+    /**
+     * Starts sending to a peer once its connection is established: the node index if this node opened
+     * the connection, then the local processes, then the frames queued meanwhile.
+     */
+    private void ready(Connection connection, boolean opened) throws IOException {
+        Peer peer = connection.peer;
+        peer.connection = connection;
+        connection.ready = true;
+
+        List<ByteBuffer> greeting = new ArrayList<>();
+        if (opened) greeting.add(this.control(HELLO, this.node));
+        for (int id : this.local.hostedIds()) {
+            greeting.add(this.control(JOIN, id));
+        }
+        peer.lock.lock();
+        try {
+            for (int i = greeting.size() - 1; i >= 0; i--) {
+                peer.outbox.addFirst(greeting.get(i));
+            }
+        } finally {
+            peer.lock.unlock();
+        }
+        this.write(connection);
+    }
+
+    /**
+     * Reads the available bytes of a connection and delivers every complete frame.
+     */
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) throw new EOFException();
+
+        ByteBuffer in = connection.in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 4 || length > maxFrameSize) throw new IOException("Invalid frame length " + length);
+            if (in.remaining() < 4 + length) break;
+
+            // Le corps est lu en place, en bornant le tampon à la trame
+            int start = in.position() + 4;
+            int end = start + length;
+            int limit = in.limit();
+            int target = in.getInt(start);
+            in.limit(end).position(start + 4);
+            try {
+                this.deliver(connection, target, in);
+            } finally {
+                in.limit(limit).position(end);
+            }
+        }
+
+        if (in.remaining() >= 4 && 4 + in.getInt(in.position()) > in.capacity()) {
+            connection.in = ByteBuffer.allocateDirect(4 + in.getInt(in.position())).put(in);
+        } else {
+            in.compact();
+        }
+    }
+
+    private void deliver(Connection connection, int target, ByteBuffer body) throws IOException {
+        if (connection.peer == null && target != HELLO) throw new IOException("Frame received before HELLO");
+
+        switch (target) {
+            case HELLO:
+                int from = controlValue(body);
+                if (from <= this.node || from >= this.nodeCount) throw new IOException("Unexpected HELLO from node " + from);
+                Peer peer = this.peers[from];
+                if (peer.connection != null) this.disconnect(peer.connection);
+                connection.peer = peer;
+                this.ready(connection, false);
+                break;
+            case JOIN:
+                this.membership.add(controlValue(body));
+                break;
+            case LEAVE:
+                this.membership.leave(controlValue(body));
+                break;
+            default:
+                Object event;
+                try {
+                    event = this.codec.decode(body);
+                } catch (IOException | RuntimeException e) {
+                    // La trame est bornée : les suivantes restent lisibles
+                    this.logger.error("Cannot decode a frame from node {}, dropping it", connection.peer.node, e);
+                    return;
+                }
+                if (target == BROADCAST) this.local.broadcast(event);
+                else this.local.send(target, event);
+        }
+    }
+
+    /**
+     * Writes as many queued frames as the socket accepts, with gathering writes, and asks the selector
+     * for the rest. Written frames go back to the pool.
+     */
+    private void write(Connection connection) throws IOException {
+        Peer peer = connection.peer;
+        ByteBuffer[] batch = connection.batch;
+        SelectionKey key = connection.channel.keyFor(this.selector);
+
+        while (true) {
+            if (connection.batchStart == connection.batchEnd) {
+                connection.batchStart = connection.batchEnd = 0;
+                long dropped = 0;
+                peer.lock.lock();
+                try {
+                    ByteBuffer frame;
+                    while (connection.batchEnd < batch.length && (frame = peer.outbox.pollFirst()) != null) {
+                        batch[connection.batchEnd++] = frame;
+                    }
+                    if (connection.batchEnd == 0) {
+                        dropped = peer.dropped;
+                        peer.dropped = 0;
+                    }
+                } finally {
+                    peer.lock.unlock();
+                }
+                if (connection.batchEnd == 0) {
+                    if (dropped > 0) this.logger.warn("Dropped {} events sent to node {} while its outbox was full", dropped, peer.node);
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+
+            connection.channel.write(batch, connection.batchStart, connection.batchEnd - connection.batchStart);
+
+            while (connection.batchStart < connection.batchEnd && !batch[connection.batchStart].hasRemaining()) {
+                this.pool.release(batch[connection.batchStart]);
+                batch[connection.batchStart++] = null;
+            }
+            if (connection.batchStart < connection.batchEnd) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes a connection. If it was the connection of a peer, the processes of that node leave the view
+     * and a new connection is attempted later.
+     */
+    private void disconnect(Connection connection) {
+        closeQuietly(connection.channel.keyFor(this.selector));
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+
+        Peer peer = connection.peer;
+        if (peer == null || peer.connection != connection) return;
+        peer.connection = null;
+        peer.nextAttempt = System.nanoTime() + retryDelay;
+
+        // Les trames en cours d'écriture, même à moitié écrites, seront renvoyées en entier sur la prochaine connexion
+        peer.lock.lock();
+        try {
+            for (int i = connection.batchEnd - 1; i >= connection.batchStart; i--) {
+                peer.outbox.addFirst(connection.batch[i].rewind());
+                connection.batch[i] = null;
+            }
+            connection.batchStart = connection.batchEnd = 0;
+        } finally {
+            peer.lock.unlock();
+        }
+
+        for (int id : this.membership.getView().getMembers()) {
+            if (id % this.nodeCount == peer.node) this.membership.leave(id);
+        }
+    }
+
+    /**
+     * Reads the value of a control frame.
+     *
+     * @throws IOException If the body is too short.
+     */
+    private static int controlValue(ByteBuffer body) throws IOException {
+        if (body.remaining() < 4) throw new IOException("Truncated control frame");
+        return body.getInt();
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        if (key == null) return;
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package fr.usmb.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the payloads carried by the messages. The {@link MessageCodec} writes the header of a message
+ * itself and hands its payload to this serializer.
+ */
+public interface PayloadSerializer {
+
+    /**
+     * Writes a payload at the position of a buffer.
+     *
+     * @param payload The payload to write, possibly null.
+     * @param out The buffer to write to.
+     * @throws java.nio.BufferOverflowException If the buffer is too small.
+     * @throws IOException If the payload cannot be encoded.
+     */
+    void write(Object payload, ByteBuffer out) throws IOException;
+
+    /**
+     * Reads a payload written by {@link #write(Object, ByteBuffer)}.
+     *
+     * @param in The buffer to read from.
+     * @return The payload.
+     * @throws IOException If the bytes are not a valid payload.
+     */
+    Object read(ByteBuffer in) throws IOException;
+}
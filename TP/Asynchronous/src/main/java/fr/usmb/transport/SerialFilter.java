@@ -0,0 +1,49 @@
+package fr.usmb.transport;
+
+import java.io.ObjectInputFilter;
+
+/**
+ * Filter of the Java serialization streams received from the network. Only the classes of the project
+ * and the value and collection classes of the JDK ({@code java.lang}, {@code java.util},
+ * {@code java.time} and {@code java.math}) are deserialized, so that a peer cannot instantiate an
+ * arbitrary class of the class path. The graph is limited in depth and references, and no array may
+ * declare more elements than the stream has bytes.
+ * <p>
+ * Payloads of other classes are allowed with the {@value #allowProperty} system property, which holds
+ * more patterns in the syntax of {@link ObjectInputFilter.Config#createFilter(String)}, separated by
+ * {@code ;}, e.g. {@code com.example.**}.
+ */
+public final class SerialFilter {
+
+    public static final String allowProperty = "fr.usmb.transport.serialAllow";
+
+    private static final String limits = "maxdepth=32;maxrefs=65536";
+    private static final String allowed = "fr.usmb.**;java.lang.*;java.util.*;java.time.*;java.math.*";
+
+    private static ObjectInputFilter classes = null;
+
+    private SerialFilter() {
+    }
+
+    /**
+     * @param length The number of bytes of the stream.
+     * @return The filter of a stream of that length.
+     */
+    public static ObjectInputFilter of(int length) {
+        ObjectInputFilter allowlist = classes();
+        return info -> {
+            // Un tableau ne peut pas avoir plus d'éléments que le flux n'a d'octets
+            if (info.arrayLength() > length) return ObjectInputFilter.Status.REJECTED;
+            return allowlist.checkInput(info);
+        };
+    }
+
+    private static synchronized ObjectInputFilter classes() {
+        if (classes == null) {
+            String extra = System.getProperty(allowProperty, "").trim();
+            String pattern = limits + ";" + allowed + (extra.isEmpty() ? "" : ";" + extra) + ";!*";
+            classes = ObjectInputFilter.Config.createFilter(pattern);
+        }
+        return classes;
+    }
+}
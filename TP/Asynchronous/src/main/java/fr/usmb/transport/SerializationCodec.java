@@ -0,0 +1,38 @@
+package fr.usmb.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec based on Java serialization. The events and their payloads must be {@link java.io.Serializable},
+ * and are read back through the {@link SerialFilter}.
+ */
+public class SerializationCodec implements Codec {
+
+    @Override
+    public void encode(Object event, ByteBuffer out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(event);
+        }
+        out.put(bytes.toByteArray());
+    }
+
+    @Override
+    public Object decode(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            stream.setObjectInputFilter(SerialFilter.of(bytes.length));
+            return stream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown event class", e);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt serialized event", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package fr.usmb.transport;
+
+/**
+ * Carries the events of the {@link fr.usmb.EventBusService} between the processes. The processes
+ * may live in the same JVM as their senders ({@link InMemoryTransport}) or in other JVMs
+ * ({@link NioTransport}); the callers do not see the difference.
+ */
+public interface Transport {
+
+    /**
+     * Registers a process hosted by this JVM. The subscriber receives the broadcasts and the events
+     * addressed to its id.
+     *
+     * @param id The id of the process.
+     * @param subscriber The object whose {@code @Subscribe} methods handle the events.
+     */
+    void register(int id, Object subscriber);
+
+    /**
+     * Removes a process hosted by this JVM.
+     *
+     * @param id The id of the process.
+     * @param subscriber The object that was registered for this id.
+     */
+    void unregister(int id, Object subscriber);
+
+    /**
+     * Delivers an event to a single process, wherever it is hosted.
+     *
+     * @param to The id of the destination process.
+     * @param event The event to deliver.
+     */
+    void send(int to, Object event);
+
+    /**
+     * Delivers an event to every process of the cluster, the sender included.
+     *
+     * @param event The event to deliver.
+     */
+    void broadcast(Object event);
+
+    /**
+     * @param lane A dispatch lane.
+     * @return The number of events of that lane waiting for a thread to dispatch them in this JVM, 0 if
+     * the transport does not queue them.
+     */
+    default int getQueueDepth(Lane lane) {
+        return 0;
+    }
+
+    /**
+     * Stops the transport and releases its threads and connections.
+     */
+    void close();
+}
@@ -0,0 +1,61 @@
+package fr.usmb.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding of non-negative integers, 7 bits per byte, low bits first. Small values such
+ * as timestamps, lengths and counters take one or two bytes instead of eight.
+ */
+public final class Varint {
+
+    private Varint() {
+    }
+
+    /**
+     * @param value The value to write, treated as unsigned.
+     * @param out The buffer to write to.
+     */
+    public static void writeLong(long value, ByteBuffer out) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * @param value The value to write, treated as unsigned.
+     * @param out The buffer to write to.
+     */
+    public static void writeInt(int value, ByteBuffer out) {
+        writeLong(value & 0xFFFFFFFFL, out);
+    }
+
+    /**
+     * @param in The buffer to read from.
+     * @return The value read.
+     * @throws IOException If the value is longer than 64 bits or the buffer ends before it.
+     */
+    public static long readLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) throw new IOException("Truncated varint");
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * @param in The buffer to read from.
+     * @return The value read.
+     * @throws IOException If the value is longer than 32 bits or the buffer ends before it.
+     */
+    public static int readInt(ByteBuffer in) throws IOException {
+        long value = readLong(in);
+        if ((value >>> 32) != 0) throw new IOException("Malformed varint");
+        return (int) value;
+    }
+}
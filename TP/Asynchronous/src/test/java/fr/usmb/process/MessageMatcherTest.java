@@ -0,0 +1,78 @@
+package fr.usmb.process;
+
+import fr.usmb.messages.BatchMessage;
+import fr.usmb.messages.BroadcastBatchMessage;
+import fr.usmb.messages.BroadcastMessage;
+import fr.usmb.messages.CausalMessage;
+import fr.usmb.messages.DedicatedBatchMessage;
+import fr.usmb.messages.DedicatedMessage;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.TokenMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class MessageMatcherTest {
+
+    private MailBox mailBox;
+    private BroadcastMessage<String> broadcast;
+    private DedicatedMessage<String> dedicated;
+    private DedicatedBatchMessage<String> dedicatedBatch;
+    private BroadcastBatchMessage<String> broadcastBatch;
+    private CausalMessage<String> causal;
+
+    @BeforeEach
+    void fillMailBox() {
+        this.mailBox = new MailBox();
+        this.broadcast = new BroadcastMessage<>("broadcast", 1);
+        this.dedicated = new DedicatedMessage<>("dedicated", 2, 0);
+        this.dedicatedBatch = new DedicatedBatchMessage<>(List.of("a", "b"), 1, 0);
+        this.broadcastBatch = new BroadcastBatchMessage<>(List.of("c"), 2);
+        this.causal = new CausalMessage<>("causal", 2, new long[]{0, 0, 1});
+        for (Message<?> message : List.of(this.broadcast, this.dedicated, this.dedicatedBatch, this.broadcastBatch, this.causal)) {
+            this.mailBox.add(message);
+        }
+    }
+
+    @Test
+    void exactTypeMatchesOnlyThatClass() {
+        assertSame(this.dedicated, this.mailBox.poll(MessageMatcher.ofType(DedicatedMessage.class)));
+        assertNull(this.mailBox.poll(MessageMatcher.ofType(DedicatedMessage.class)));
+        assertEquals(4, this.mailBox.size());
+    }
+
+    @Test
+    void superclassMatchesItsSubclassesInArrivalOrder() {
+        MessageMatcher batches = MessageMatcher.ofType(BatchMessage.class);
+        assertSame(this.dedicatedBatch, this.mailBox.poll(batches));
+        assertSame(this.broadcastBatch, this.mailBox.poll(batches));
+        assertNull(this.mailBox.poll(batches));
+
+        MessageMatcher all = MessageMatcher.ofType(Message.class);
+        assertSame(this.broadcast, this.mailBox.poll(all));
+        assertSame(this.dedicated, this.mailBox.poll(all));
+        assertSame(this.causal, this.mailBox.poll(all));
+        assertEquals(0, this.mailBox.size());
+    }
+
+    @Test
+    void typeCombinesWithSender() {
+        MessageMatcher fromTwo = MessageMatcher.ofType(Message.class).and(MessageMatcher.from(2));
+        assertSame(this.dedicated, this.mailBox.poll(fromTwo));
+        assertSame(this.broadcastBatch, this.mailBox.poll(fromTwo));
+        assertSame(this.causal, this.mailBox.poll(fromTwo));
+        assertNull(this.mailBox.poll(fromTwo));
+        assertNull(this.mailBox.poll(MessageMatcher.ofType(BatchMessage.class).and(MessageMatcher.from(2))));
+    }
+
+    @Test
+    void typeWithoutMessagesMatchesNothing() {
+        assertNull(this.mailBox.poll(MessageMatcher.ofType(TokenMessage.class)));
+        assertEquals(5, this.mailBox.size());
+    }
+}
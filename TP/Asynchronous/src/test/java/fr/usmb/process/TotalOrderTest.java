@@ -0,0 +1,54 @@
+package fr.usmb.process;
+
+import fr.usmb.logging.LogLevel;
+import fr.usmb.messages.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class TotalOrderTest {
+
+    private static final int processCount = 3;
+    private static final int messagesPerProcess = 200;
+
+    @Test
+    void everyProcessDeliversTheSameSequence() throws InterruptedException {
+        CommunicatorOptions options = CommunicatorOptions.builder().broadcastOrder(BroadcastOrder.TOTAL).build();
+        List<Communicator> communicators = new ArrayList<>();
+        for (int i = 0; i < processCount; i++) {
+            communicators.add(new Communicator(new ProcessLogger(null, LogLevel.OFF), options));
+        }
+
+        // Les diffusions concurrentes de tous les processus s'entrelacent sur le bus
+        List<Thread> senders = new ArrayList<>();
+        for (Communicator communicator : communicators) {
+            Thread sender = new Thread(() -> {
+                for (int i = 0; i < messagesPerProcess; i++) communicator.broadcast(communicator.getId() + ":" + i);
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) sender.join();
+
+        List<List<Object>> sequences = new ArrayList<>();
+        for (Communicator communicator : communicators) {
+            List<Object> sequence = new ArrayList<>();
+            for (int i = 0; i < processCount * messagesPerProcess; i++) {
+                Message<Object> message = communicator.getMailBox().poll(MessageMatcher.any(), 10, TimeUnit.SECONDS);
+                assertNotNull(message, "P" + communicator.getId() + " only delivered " + i + " messages");
+                sequence.add(message.getMessage());
+            }
+            sequences.add(sequence);
+        }
+
+        for (int i = 1; i < processCount; i++) {
+            assertEquals(sequences.get(0), sequences.get(i), "P" + communicators.get(i).getId() + " delivered another order");
+        }
+        for (Communicator communicator : communicators) communicator.leave();
+    }
+}
@@ -0,0 +1,93 @@
+package fr.usmb.simulation;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import fr.usmb.messages.DedicatedMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SimulationTest {
+
+    private static final int nodeCount = 4;
+    private static final int hops = 300;
+
+    /**
+     * Node of the run: forwards each message it receives to a random node, under a lock shared by all
+     * the nodes so that the threads of the simulation contend for it.
+     */
+    private static final class Node {
+        private final int id;
+        private final Simulation simulation;
+        private final ReentrantLock shared;
+        private final List<String> trace;
+
+        private Node(int id, Simulation simulation, ReentrantLock shared, List<String> trace) {
+            this.id = id;
+            this.simulation = simulation;
+            this.shared = shared;
+            this.trace = trace;
+        }
+
+        // Sans cette annotation, Guava appelle le handler dans un bloc synchronized, qui épinglerait le fil
+        @Subscribe
+        @AllowConcurrentEvents
+        public void onMessage(DedicatedMessage<Integer> message) throws InterruptedException {
+            this.shared.lock();
+            try {
+                this.trace.add(this.simulation.now() + " P" + this.id + " <- P" + message.getSender() + " #" + message.getMessage());
+                this.simulation.sleep(1);
+            } finally {
+                this.shared.unlock();
+            }
+            if (message.getMessage() >= hops) return;
+            int to = this.simulation.getRandom().nextInt(nodeCount);
+            this.simulation.getTransport().send(to, new DedicatedMessage<>(message.getMessage() + 1, this.id, to));
+        }
+    }
+
+    @Test
+    void sameSeedGivesTheSameTrace() {
+        List<String> first = run(42);
+        List<String> second = run(42);
+
+        assertEquals(hops * 3 + 3, first.size());
+        assertEquals(first, second);
+    }
+
+    @Test
+    void anotherSeedGivesAnotherTrace() {
+        assertNotEquals(run(42), run(43));
+    }
+
+    private static List<String> run(long seed) {
+        Simulation simulation = new Simulation(seed, DelayModel.uniform(TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(2)), ReorderModel.UNORDERED);
+        List<String> trace = new ArrayList<>();
+        ReentrantLock shared = new ReentrantLock();
+        for (int id = 0; id < nodeCount; id++) {
+            simulation.getTransport().register(id, new Node(id, simulation, shared, trace));
+        }
+
+        // Trois chaînes de messages lancées par des fils de la simulation
+        for (int chain = 0; chain < 3; chain++) {
+            int from = chain;
+            simulation.newThread(() -> {
+                try {
+                    simulation.sleep(from);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                simulation.getTransport().send(nodeCount - 1 - from, new DedicatedMessage<>(0, from, nodeCount - 1 - from));
+            }, "chain-" + chain).start();
+        }
+        simulation.run();
+        return trace;
+    }
+}
@@ -0,0 +1,60 @@
+package fr.usmb.token;
+
+import fr.usmb.logging.LogLevel;
+import fr.usmb.process.Communicator;
+import fr.usmb.process.CommunicatorOptions;
+import fr.usmb.process.ProcessLogger;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuzukiKasamiMutexTest {
+
+    @Test
+    void renewedRequestIsServedAfterAnInterruptedOne() throws InterruptedException {
+        CommunicatorOptions options = CommunicatorOptions.builder().mutexAlgorithm(MutexAlgorithm.SUZUKI_KASAMI).build();
+        Communicator holder = new Communicator(new ProcessLogger(null, LogLevel.OFF), options);
+        Communicator requester = new Communicator(new ProcessLogger(null, LogLevel.OFF), options);
+        holder.initToken();
+        holder.requestSC();
+        assertEquals(TokenState.CRITICAL_SECTION, holder.getState());
+
+        // Première requête abandonnée pendant que le détenteur est en section critique
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread first = new Thread(() -> {
+            try {
+                requester.requestSC();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        first.start();
+        Thread.sleep(100);
+        first.interrupt();
+        first.join();
+        assertTrue(interrupted.get());
+
+        // La requête renouvelée a deux numéros d'avance sur la dernière servie
+        CountDownLatch entered = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                requester.requestSC();
+                entered.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.start();
+        Thread.sleep(100);
+        holder.releaseSC();
+
+        assertTrue(entered.await(5, TimeUnit.SECONDS), "The renewed request was never served");
+        assertEquals(TokenState.CRITICAL_SECTION, requester.getState());
+        requester.releaseSC();
+    }
+}
@@ -0,0 +1,168 @@
+package fr.usmb.transport;
+
+import fr.usmb.messages.AckMessage;
+import fr.usmb.messages.BroadcastBatchMessage;
+import fr.usmb.messages.BroadcastMessage;
+import fr.usmb.messages.CausalMessage;
+import fr.usmb.messages.CausalSyncMessage;
+import fr.usmb.messages.CreditMessage;
+import fr.usmb.messages.DedicatedBatchMessage;
+import fr.usmb.messages.DedicatedMessage;
+import fr.usmb.messages.HeartbeatMessage;
+import fr.usmb.messages.Message;
+import fr.usmb.messages.OrderAckMessage;
+import fr.usmb.messages.OrderSyncMessage;
+import fr.usmb.messages.OrderedMessage;
+import fr.usmb.messages.RejectMessage;
+import fr.usmb.messages.RequestMessage;
+import fr.usmb.messages.SnapshotMarker;
+import fr.usmb.messages.SynchronizedMessage;
+import fr.usmb.messages.TokenMessage;
+import fr.usmb.messages.TotalOrderMessage;
+import fr.usmb.token.SuzukiKasamiToken;
+import fr.usmb.token.Token;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageCodecTest {
+
+    private final MessageCodec codec = new MessageCodec();
+
+    @Test
+    void everyMessageTypeRoundTrips() throws IOException {
+        for (Message<?> message : samples()) {
+            Message<?> decoded = this.decode(this.encode(message));
+
+            assertEquals(message.getClass(), decoded.getClass());
+            assertEquals(message.getSender(), decoded.getSender());
+            assertEquals(message.getTimestamp(), decoded.getTimestamp());
+            assertEquals(message.getCorrelationId(), decoded.getCorrelationId());
+            assertEquals(message.getSnapshotEpoch(), decoded.getSnapshotEpoch());
+            assertFieldsEqual(message, decoded);
+        }
+    }
+
+    @Test
+    void payloadsOfEveryKindRoundTrip() throws IOException {
+        Object[] payloads = {null, true, false, 42, -7L, 2.5, "", "héllo 🌍", new byte[]{1, 2, 3}, new BigInteger("123456789012345678901234567890")};
+        for (Object payload : payloads) {
+            BroadcastMessage<Object> decoded = (BroadcastMessage<Object>) this.decode(this.encode(new BroadcastMessage<>(payload, 1)));
+            if (payload instanceof byte[]) assertArrayEquals((byte[]) payload, (byte[]) decoded.getMessage());
+            else assertEquals(payload, decoded.getMessage());
+        }
+    }
+
+    @Test
+    void truncatedInputIsRejected() throws IOException {
+        for (Message<?> message : samples()) {
+            byte[] bytes = this.encode(message);
+            for (int length = 0; length < bytes.length; length++) {
+                ByteBuffer prefix = ByteBuffer.wrap(bytes, 0, length);
+                assertThrows(IOException.class, () -> this.codec.decode(prefix), message.getClass().getSimpleName() + " cut at " + length);
+            }
+        }
+    }
+
+    @Test
+    void unknownTypeIsRejected() {
+        ByteBuffer in = ByteBuffer.wrap(new byte[]{63, 0, 0, 0, 1, 0});
+        assertThrows(IOException.class, () -> this.codec.decode(in));
+    }
+
+    private byte[] encode(Message<?> message) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        this.codec.encode(message, out);
+        out.flip();
+        byte[] bytes = new byte[out.remaining()];
+        out.get(bytes);
+        return bytes;
+    }
+
+    private Message<?> decode(byte[] bytes) throws IOException {
+        return (Message<?>) this.codec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    private static List<Message<?>> samples() {
+        List<Message<?>> messages = new ArrayList<>();
+        messages.add(new BroadcastMessage<>("hello", 1));
+        messages.add(new DedicatedMessage<>(12345L, 2, 3));
+        messages.add(new AckMessage(7L << 32 | 9, 3));
+        messages.add(new RejectMessage(7L << 32 | 10, 3));
+        messages.add(new CreditMessage(64, 4));
+        messages.add(new RequestMessage(5, 1));
+        messages.add(new SynchronizedMessage(2, 1L << 40 | 3, 4));
+        messages.add(new BroadcastBatchMessage<>(List.of("a", 1, 2.0), 1));
+        messages.add(new DedicatedBatchMessage<>(List.of("b", "c"), 1, 2));
+        messages.add(new CausalMessage<>("causal", 2, new long[]{3, 0, 7}));
+        messages.add(new CausalSyncMessage(new long[]{1, 2, 3}, 0));
+        messages.add(new TotalOrderMessage<>("total", 1, 17));
+        messages.add(new OrderAckMessage(2, 18));
+        messages.add(new OrderSyncMessage(4, 1, 19));
+        messages.add(new SnapshotMarker(3, 150, 2));
+        messages.add(new HeartbeatMessage(Token.nextGeneration(0, 2), 1));
+
+        Token token = new Token();
+        token.setHolder(2);
+        token.setGeneration(Token.nextGeneration(0, 1));
+        messages.add(new TokenMessage<>(token, 1));
+
+        SuzukiKasamiToken suzukiKasami = new SuzukiKasamiToken(4);
+        suzukiKasami.setHolder(3);
+        suzukiKasami.getLastServed()[1] = 6;
+        suzukiKasami.enqueue(2);
+        suzukiKasami.enqueue(0);
+        messages.add(new TokenMessage<>(suzukiKasami, 1));
+
+        // En-tête complet : horloge, corrélation et époque
+        Message<?> stamped = new DedicatedMessage<>("stamped", 1, 2);
+        stamped.setTimestamp(99);
+        stamped.setCorrelationId(1L << 32 | 5);
+        stamped.setSnapshotEpoch(3);
+        messages.add(stamped);
+        return messages;
+    }
+
+    private static void assertFieldsEqual(Message<?> expected, Message<?> actual) {
+        if (expected.getMessage() instanceof long[]) {
+            assertArrayEquals((long[]) expected.getMessage(), (long[]) actual.getMessage());
+        } else if (!(expected instanceof TokenMessage)) {
+            assertEquals(expected.getMessage(), actual.getMessage());
+        }
+
+        if (expected instanceof DedicatedMessage) {
+            assertEquals(((DedicatedMessage<?>) expected).getReceiver(), ((DedicatedMessage<?>) actual).getReceiver());
+        } else if (expected instanceof DedicatedBatchMessage) {
+            assertEquals(((DedicatedBatchMessage<?>) expected).getReceiver(), ((DedicatedBatchMessage<?>) actual).getReceiver());
+        } else if (expected instanceof CausalMessage) {
+            assertArrayEquals(((CausalMessage<?>) expected).getVector(), ((CausalMessage<?>) actual).getVector());
+        } else if (expected instanceof OrderedMessage) {
+            assertEquals(((OrderedMessage<?>) expected).getSequence(), ((OrderedMessage<?>) actual).getSequence());
+        } else if (expected instanceof SynchronizedMessage) {
+            assertEquals(((SynchronizedMessage) expected).getGeneration(), ((SynchronizedMessage) actual).getGeneration());
+            assertEquals(((SynchronizedMessage) expected).getRound(), ((SynchronizedMessage) actual).getRound());
+        } else if (expected instanceof SnapshotMarker) {
+            assertEquals(((SnapshotMarker) expected).getSentCount(), ((SnapshotMarker) actual).getSentCount());
+        } else if (expected instanceof TokenMessage) {
+            Token expectedToken = ((TokenMessage<?>) expected).getToken();
+            Token actualToken = ((TokenMessage<?>) actual).getToken();
+            assertEquals(expectedToken.getClass(), actualToken.getClass());
+            assertEquals(expectedToken.getHolder(), actualToken.getHolder());
+            assertEquals(expectedToken.getGeneration(), actualToken.getGeneration());
+            if (expectedToken instanceof SuzukiKasamiToken) {
+                SuzukiKasamiToken expectedQueue = (SuzukiKasamiToken) expectedToken;
+                SuzukiKasamiToken actualQueue = (SuzukiKasamiToken) actualToken;
+                assertArrayEquals(expectedQueue.getLastServed(), actualQueue.getLastServed());
+                assertEquals(List.copyOf(expectedQueue.getQueue()), List.copyOf(actualQueue.getQueue()));
+            }
+        }
+    }
+}